@@ -8,11 +8,14 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jdd.util.Configuration;
 import jdd.util.*;
 import jdd.util.math.*;
-import org.sngroup.verifier.BDDEngine;
 import org.sngroup.verifier.TSBDD;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.function.IntUnaryOperator;
 
 /**
  * BDD main class. All BDD code uses this.
@@ -29,6 +32,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	/** for the OP cache */
 	protected static final int CACHE_AND = 0, CACHE_OR = 1, CACHE_XOR = 2, CACHE_BIIMP = 3;
 	protected static final int CACHE_IMP = 4,	CACHE_NAND = 5, CACHE_NOR = 6, CACHE_RESTRICT = 7;
+	protected static final int CACHE_SUBSET = 8, CACHE_DISJOINT = 9; // the answer is 0 or 1
 
 	/** for the quant cache */
 	protected static final int CACHE_EXISTS = 0,  CACHE_FORALL = 1;
@@ -41,19 +45,32 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	protected OptimizedCache op_cache, relprod_cache, not_cache, ite_cache, quant_cache;
 //	protected SimpleCache replace_cache;
 	protected OptimizedCache replace_cache;
+	protected OptimizedCache andnot_cache;
 	protected DoubleCache sat_cache;
 
 	// quantification stuff
 	protected boolean [] varset_vec;	// used internally by quant/relprod and some other functions
 	protected boolean [] sign_vec;	// used internally by restrict functions for polarity
 	protected int [] oneSat_buffer; // used internally by oneSat
-	private boolean [] support_buffer; // used by support()
+	protected boolean [] support_buffer; // used by support()
 	protected int varset_last, quant_id, quant_cube, restrict_careset;
 	protected boolean quant_conj;
 
+	// reordering stuff. the var member of a node is its level, these map between levels and variables
+	/* package */ int [] var2level, level2var;
+	private boolean auto_reorder; /** see setAutoReorder() */
+	private int reorder_trigger; /** table size at which reorderIfNeeded() will sift */
+	private int mark_reorders; /** stat_reorder_count at the last mark() */
+	public int stat_reorder_count;
+	public long stat_reorder_time;
+
 //	protected NodeName nodeNames = new BDDNames();
 	public BDDNames nodeNames = new BDDNames();
 	private Permutation firstPermutation; /** permutations are gathered in a linked list. this is to avoid having multiple objects for same permutation. */
+	private transient ArrayList<NodeRemapper> remappers; /** told about every compaction and rollback, see addNodeRemapper() */
+
+	private boolean iterative_apply; /** see setIterativeApply() */
+	private int [] apply_frames; /** explicit stack of apply_iter(), allocated on first use */
 
 
 	@Override
@@ -73,12 +90,17 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 			bddCopy.ite_cache = (OptimizedCache) this.ite_cache.clone();
 			bddCopy.quant_cache = (OptimizedCache) this.quant_cache.clone();
 			bddCopy.replace_cache = (OptimizedCache) this.replace_cache.clone();
+			bddCopy.andnot_cache = (OptimizedCache) this.andnot_cache.clone();
 			bddCopy.sat_cache = (DoubleCache) this.sat_cache.clone();
+			bddCopy.bind_caches();
 			bddCopy.nodeNames = (BDDNames) this.nodeNames.clone();
 //			bddCopy.nodeNames = new BDDNames();
 //			bddCopy.nstack = (NodeStack) this.nstack.clone();
 			bddCopy.nstack = (NodeStack) this.nstack.clone();
 			bddCopy.mstack = (NodeStack) this.mstack.clone();
+			bddCopy.apply_frames = null; // not shared with the copy
+			bddCopy.var2level = Array.clone(this.var2level);
+			bddCopy.level2var = Array.clone(this.level2var);
 //			bddCopy.debugers = this.debugers.c;
 //			this.not_cache.
 
@@ -92,6 +114,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 //			System.out.println("mstack的内存是否相等  " + isCopy );
 
 			if(firstPermutation != null) bddCopy.firstPermutation = (Permutation) this.firstPermutation.clone();
+			bddCopy.remappers = null; // they hold ids of this manager
 		}catch(CloneNotSupportedException e) {
 			e.printStackTrace();
 		}
@@ -120,28 +143,17 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	 * and <tt>cache_size</tt> cache elements.
 	 */
 	public BDD(int nodesize, int cache_size) {
-		super(Prime.prevPrime(nodesize));
-
-		// MAY GROW. (bdd1, bdd2, op) => bdd
-		op_cache  = new OptimizedCache("OP", cache_size / Configuration.bddOpcacheDiv, 3, 2);
-
-		// MAY GROW. bdd => bdd
-		not_cache = new OptimizedCache("NOT", cache_size / Configuration.bddNegcacheDiv, 1, 1);
-
-		// MAY GROW. (bdd1, bdd2, bdd3) => bdd
-		ite_cache = new OptimizedCache("ITE", cache_size / Configuration.bddItecacheDiv, 3, 3);
-
-		// MAY GROW. (bdd1, bdd2, quant-type) => bdd. we could join this with op_cache?
-		quant_cache = new OptimizedCache("QUANT", cache_size / Configuration.bddQuantcacheDiv, 3, 2);
-
-		// MAY GROW. rel-prod. (bdd1, bdd2, bdd3) => bdd
-		relprod_cache = new OptimizedCache("REL-PROD", cache_size / Configuration.bddRelprodcacheDiv, 3, 3);
+		this(nodesize, cache_size, new Settings());
+	}
 
-		// MAY GROW. (bdd1, perm-id) => bdd
-		replace_cache = new OptimizedCache("REPLACE", cache_size / Configuration.bddReplacecacheDiv , 2, 1);
+	/**
+	 * create a BDD manager with its own parameters instead of those in Configuration.
+	 * the cache divisors and the node-table layout are fixed here, the rest may be changed later.
+	 */
+	public BDD(int nodesize, int cache_size, Settings settings) {
+		super(Prime.prevPrime(nodesize), settings);
 
-		// WONT GROW. BDD => double
-		sat_cache = new DoubleCache("SAT", cache_size / Configuration.bddSatcountDiv);
+		create_caches(cache_size);
 
 		num_vars = 0;
 		last_sat_vars = -1; // not assigned yet
@@ -149,6 +161,9 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		varset_vec = Allocator.allocateBooleanArray(24); // 24 is just a default number
 		sign_vec = Allocator.allocateBooleanArray(varset_vec.length); // same length!
 		support_buffer = new boolean[24]; // dito
+		var2level = Allocator.allocateIntArray(24);
+		level2var = Allocator.allocateIntArray(24);
+		reorder_trigger = 2 * table_size;
 
 		firstPermutation = null; // nothing yet
 
@@ -156,88 +171,137 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		enableStackMarking();
 	}
 
-	public BDD(int nodesize, int cache_size, BDDEngine srcBdd, boolean isCopy) {
-		super(Prime.prevPrime(nodesize));
-		BDD original = srcBdd.bdd.bdd;
-		this.table_size = original.table_size;
-		this.stat_nt_grow = original.stat_nt_grow;
-		this.dead_nodes = original.dead_nodes;
-		this.nodesminfree = original.nodesminfree;
+	/**
+	 * create an overlay BDD manager on top of the frozen manager <tt>base</tt>.
+	 * <p>all BDDs of <tt>base</tt> can be used directly in the overlay (they are never freed),
+	 * while the nodes created by the overlay are kept in its own, initially <tt>nodesize</tt> large, table.
+	 * the overlay has its own caches, so many overlays of the same base can be used in parallel.
+	 * no new variables can be created in an overlay.
+	 * @see NodeTable#freeze
+	 */
+	public BDD(BDD base, int nodesize, int cache_size) {
+		this(base, nodesize, cache_size, new Settings());
+	}
+
+	/** create an overlay BDD manager with its own parameters */
+	public BDD(BDD base, int nodesize, int cache_size, Settings settings) {
+		super(base, Prime.prevPrime(nodesize), settings);
+
+		create_caches(cache_size);
+
+		num_vars = base.num_vars;
+		last_sat_vars = -1; // not assigned yet
+		varset_last = -1; // invalid
+		varset_vec = Allocator.allocateBooleanArray(Math.max(24, num_vars * 3));
+		sign_vec = Allocator.allocateBooleanArray(varset_vec.length); // same length!
+		support_buffer = new boolean[varset_vec.length]; // dito
+		var2level = Array.clone(base.var2level); // the base may have been reordered before it was frozen
+		level2var = Array.clone(base.level2var);
 
+		firstPermutation = null; // nothing yet
 
-// Deep copy of arrays
-		this.t_nodes = original.t_nodes.clone();
-		this.t_list = original.t_list.clone();
-		this.t_ref = original.t_ref.clone();
+		nstack.grow(6 * num_vars + 1);
+		enableStackMarking();
+		tree_depth_changed(num_vars);
+	}
 
-		this.first_free_node = original.first_free_node;
-		this.free_nodes_count = original.free_nodes_count;
-		this.stack_marking_enabled = original.stack_marking_enabled;
+	/**
+	 * create a copy of <tt>src</tt>, see snapshot().
+	 * @param keep_caches if false, the copy starts with empty caches of the same size
+	 */
+	protected BDD(BDD src, boolean keep_caches) {
+		super(src);
+
+		op_cache = src.op_cache.copy(keep_caches);
+		not_cache = src.not_cache.copy(keep_caches);
+		ite_cache = src.ite_cache.copy(keep_caches);
+		quant_cache = src.quant_cache.copy(keep_caches);
+		relprod_cache = src.relprod_cache.copy(keep_caches);
+		replace_cache = src.replace_cache.copy(keep_caches);
+		andnot_cache = src.andnot_cache.copy(keep_caches);
+		sat_cache = src.sat_cache.copy(keep_caches);
+		bind_caches();
+
+		num_vars = src.num_vars;
+		last_sat_vars = -1; // not assigned yet
+		varset_last = -1; // invalid
+		varset_vec = Allocator.allocateBooleanArray(src.varset_vec.length);
+		sign_vec = Allocator.allocateBooleanArray(varset_vec.length); // same length!
+		support_buffer = new boolean[src.support_buffer.length]; // dito
+		var2level = Array.clone(src.var2level); // changed by reordering, so not shared
+		level2var = Array.clone(src.level2var);
+		nodeNames = src.nodeNames;
+
+		auto_reorder = src.auto_reorder;
+		reorder_trigger = src.reorder_trigger;
+		iterative_apply = src.iterative_apply;
+
+		// the ids are global, so the entries of replace_cache stay valid
+		for(Permutation p = src.firstPermutation, last = null; p != null; p = p.next) {
+			Permutation copy = p.copy();
+			if(last == null) firstPermutation = copy;
+			else last.next = copy;
+			last = copy;
+		}
 
-// GC/grow stuff
-		this.stat_gc_count = original.stat_gc_count;
-		this.stat_lookup_count = original.stat_lookup_count;
-		this.stat_gc_freed = original.stat_gc_freed;
-		this.stat_gc_time = original.stat_gc_time;
-		this.stat_grow_time = original.stat_grow_time;
-		this.stat_notify_time = original.stat_notify_time;
-		this.ht_chain = original.ht_chain;
+		nstack.grow(6 * num_vars + 1);
+		enableStackMarking();
+		tree_depth_changed(num_vars);
+	}
 
-		//Node Stack
-		this.nstack = new NodeStack(32);
-		this.nstack = (NodeStack) original.nstack.clone();
-		this.mstack = new NodeStack(32);
-		this.mstack = (NodeStack) original.mstack.clone();
+	/**
+	 * a copy of this manager, all BDDs have the same node ids in the copy.
+	 * <p>this is much faster than a serialization or a reflective deep copy: the node arrays are
+	 * copied in bulk, and only up to the last node in use. an overlay copy shares the frozen base.
+	 * <p>this manager must not change while it is being copied.
+	 * @param keep_caches if false, the copy starts with empty caches of the same size
+	 */
+	public BDD snapshot(boolean keep_caches) {
+		return new BDD(this, keep_caches);
+	}
 
+	/** allocate the operation caches, used by the constructors */
+	private void create_caches(int cache_size) {
+		auto_reorder = settings.bddAutoReorder;
+		iterative_apply = settings.bddIterativeApply;
 
 		// MAY GROW. (bdd1, bdd2, op) => bdd
-		op_cache  = new OptimizedCache("OP", cache_size / Configuration.bddOpcacheDiv, 3, 2);
-		this.op_cache = (OptimizedCache) original.op_cache.clone();
+		op_cache  = new OptimizedCache("OP", cache_size / settings.bddOpcacheDiv, 3, 2);
 
 		// MAY GROW. bdd => bdd
-		not_cache = new OptimizedCache("NOT", cache_size / Configuration.bddNegcacheDiv, 1, 1);
-		this.not_cache = (OptimizedCache) original.op_cache.clone();
+		not_cache = new OptimizedCache("NOT", cache_size / settings.bddNegcacheDiv, 1, 1);
 
 		// MAY GROW. (bdd1, bdd2, bdd3) => bdd
-		ite_cache = new OptimizedCache("ITE", cache_size / Configuration.bddItecacheDiv, 3, 3);
-		this.ite_cache = (OptimizedCache) original.ite_cache.clone();
+		ite_cache = new OptimizedCache("ITE", cache_size / settings.bddItecacheDiv, 3, 3);
 
 		// MAY GROW. (bdd1, bdd2, quant-type) => bdd. we could join this with op_cache?
-		quant_cache = new OptimizedCache("QUANT", cache_size / Configuration.bddQuantcacheDiv, 3, 2);
-		this.quant_cache = (OptimizedCache) original.quant_cache.clone();
+		quant_cache = new OptimizedCache("QUANT", cache_size / settings.bddQuantcacheDiv, 3, 2);
 
 		// MAY GROW. rel-prod. (bdd1, bdd2, bdd3) => bdd
-		relprod_cache = new OptimizedCache("REL-PROD", cache_size / Configuration.bddRelprodcacheDiv, 3, 3);
-		this.relprod_cache = (OptimizedCache) original.relprod_cache.clone();
+		relprod_cache = new OptimizedCache("REL-PROD", cache_size / settings.bddRelprodcacheDiv, 3, 3);
 
 		// MAY GROW. (bdd1, perm-id) => bdd
-		replace_cache = new OptimizedCache("REPLACE", cache_size / Configuration.bddReplacecacheDiv , 2, 1);
-		this.replace_cache = (OptimizedCache) original.replace_cache.clone();
+		replace_cache = new OptimizedCache("REPLACE", cache_size / settings.bddReplacecacheDiv , 2, 1);
 
-		// WONT GROW. BDD => double
-		sat_cache = new DoubleCache("SAT", cache_size / Configuration.bddSatcountDiv);
-		this.sat_cache = (DoubleCache) original.sat_cache.clone();
+		// MAY GROW. (bdd1, bdd2) => bdd1 AND NOT bdd2. same size as the OP cache
+		andnot_cache = new OptimizedCache("AND-NOT", cache_size / settings.bddOpcacheDiv, 2, 2);
 
-		num_vars = 0;
-		last_sat_vars = -1; // not assigned yet
-		varset_last = -1; // invalid
-		varset_vec = Allocator.allocateBooleanArray(24); // 24 is just a default number
-		sign_vec = Allocator.allocateBooleanArray(varset_vec.length); // same length!
-		support_buffer = new boolean[24]; // dito
-		firstPermutation = null; // nothing yet
+		// WONT GROW. BDD => double
+		sat_cache = new DoubleCache("SAT", cache_size / settings.bddSatcountDiv);
+	}
 
-		this.num_vars = original.num_vars;
-		this.last_sat_vars = original.last_sat_vars;
-		this.varset_last = original.varset_last;
-		this.varset_vec = original.varset_vec;
-		this.sign_vec = original.sign_vec;
-		this.support_buffer = original.support_buffer;
 
-		// yes, we know how deep our trees are and will call tree_depth_changed()!
-		enableStackMarking();
+	/** the stamps of cached entries must be checked against our own nodes, not those of the table we were copied from */
+	private void bind_caches() {
+		op_cache.bind(this);
+		relprod_cache.bind(this);
+		not_cache.bind(this);
+		ite_cache.bind(this);
+		quant_cache.bind(this);
+		replace_cache.bind(this);
+		andnot_cache.bind(this);
 	}
 
-
 	// ---------------------------------------------------------------
 	/** this function is called at exit, cleans up and frees allocated memory */
 	public void cleanup() {
@@ -249,6 +313,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		not_cache  = null;
 		op_cache = null;
 		replace_cache = null;
+		andnot_cache = null;
 		relprod_cache = null;
 		sat_cache = null;
 	}
@@ -269,6 +334,8 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 
 	/** create a new BDD variable */
 	public int createVar() {
+		Test.check(base == null, "cannot create variables in an overlay BDD");
+
 		int var = nstack.push( mk(num_vars, 0, 1) );
 		int nvar = mk(num_vars, 1, 0);
 		nstack.pop();
@@ -293,6 +360,13 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		if(support_buffer.length < num_vars)
 			support_buffer = new boolean[num_vars * 3];
 
+		// new variables always go to the bottom
+		if(var2level.length < num_vars) {
+			var2level = Array.resize(var2level, num_vars - 1, num_vars * 3);
+			level2var = Array.resize(level2var, num_vars - 1, num_vars * 3);
+		}
+		var2level[num_vars - 1] = level2var[num_vars - 1] = num_vars - 1;
+
 		tree_depth_changed(num_vars); // MUST be called
 
 		// we used to have -1 there, but "num_vars" will make life easier in satCount() etc.
@@ -321,10 +395,12 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 
 		// NOTE: we cant use partial invalidation for some cahce types since they hold
 		//       more than just BDD nodes [I think quant_cache is fixed, however]
+		// the node caches keep their entries, the stale ones are dropped on lookup (see SimpleCache)
 
 		sat_cache.invalidate_cache(); // NO NEED TO GROW THIS ONE ?
 		relprod_cache.free_or_grow(this);
 		replace_cache.free_or_grow(this);
+		andnot_cache.free_or_grow(this);
 		quant_cache.free_or_grow(this);
 		ite_cache.free_or_grow(this);
 		not_cache.free_or_grow(this);
@@ -332,6 +408,69 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	}
 
 
+	/** the table is out of budget, give the caches nothing to hold on to */
+	protected void wipe_caches() {
+		sat_cache.invalidate_cache();
+		relprod_cache.invalidate_cache();
+		replace_cache.invalidate_cache();
+		andnot_cache.invalidate_cache();
+		quant_cache.invalidate_cache();
+		ite_cache.invalidate_cache();
+		not_cache.invalidate_cache();
+		op_cache.invalidate_cache();
+		varset_last = -1;
+	}
+
+	/** node ids have changed, fix the ones we keep ourselves. the caches have been told by post_removal_callbak() */
+	protected void post_compaction_callback(IntUnaryOperator moved) {
+		varset_last = -1;
+		for(Permutation p = firstPermutation; p != null; p = p.next) p.remap(moved);
+		if(remappers != null) for(NodeRemapper r : remappers) r.remap(moved);
+	}
+
+	/**
+	 * the node caches must take over the new epoch, their entries with freed nodes are then dropped by the stamps.
+	 * the satcount cache and the varset are not stamped, a freed node may be reused for another function
+	 */
+	protected void post_rollback_callback() {
+		bind_caches();
+		sat_cache.invalidate_cache();
+		varset_last = -1;
+		if(remappers != null) for(NodeRemapper r : remappers) r.rolledBack();
+	}
+
+	/**
+	 * keep <tt>r</tt> informed about every compact() and rollback(), until removeNodeRemapper().
+	 * for those who hold node ids between calls and can not be handed a remapper each time
+	 */
+	public void addNodeRemapper(NodeRemapper r) {
+		if(remappers == null) remappers = new ArrayList<>();
+		remappers.add(r);
+	}
+
+	public void removeNodeRemapper(NodeRemapper r) {
+		if(remappers != null) remappers.remove(r);
+	}
+
+	/**
+	 * remember the state of the manager, see NodeTable.mark().
+	 * <p>typically called once, right after the manager has been created or copied. rollback()
+	 * then frees everything built since, in time proportional to the number of new nodes.
+	 */
+	public void mark() {
+		super.mark();
+		mark_reorders = stat_reorder_count;
+	}
+
+	/**
+	 * free all nodes allocated since the last mark(), see NodeTable.rollback().
+	 * not possible if the variables have been reordered since the mark, since reordering rewrites the old nodes
+	 */
+	public int rollback() {
+		Test.check(mark_reorders == stat_reorder_count, "cannot roll back over a reordering");
+		return super.rollback();
+	}
+
 	/** mk operator as defined in Andersens lecture notes */
 	public int mk(int i, int l, int h) {
 		if(l == h) return l;
@@ -352,10 +491,11 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	 */
 	public final int cube(boolean [] v) {
 		int last = 1, len = Math.min(v.length, num_vars);
-		for(int i = 0; i < len; i++) {
-			int var = len - i - 1;
+		for(int level = num_vars - 1; level >= 0; level--) {
+			int var = level2var[level];
+			if(var >= len) continue;
 			nstack.push(last);
-			if(v[var]) last = mk(var, 0, last);
+			if(v[var]) last = mk(level, 0, last);
 			nstack.pop();
 		}
 		return last;
@@ -368,10 +508,11 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	 */
 	public final int cube(String s) {
 		int len = s.length(), last = 1;
-		for(int i = 0; i < len;i++) {
-			int var = len - i - 1;
+		for(int level = num_vars - 1; level >= 0; level--) {
+			int var = level2var[level];
+			if(var >= len) continue;
 			nstack.push(last);
-			if(s.charAt(var) == '1') last = mk(var, 0, last);
+			if(s.charAt(var) == '1') last = mk(level, 0, last);
 			nstack.pop();
 		}
 		return last;
@@ -384,10 +525,11 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	 */
 	public final int minterm(boolean [] v) {
 		int last = 1, len = Math.min(v.length, num_vars);
-		for(int i = 0; i < len; i++) {
-			int var = len - i - 1;
+		for(int level = num_vars - 1; level >= 0; level--) {
+			int var = level2var[level];
+			if(var >= len) continue;
 			nstack.push(last);
-			last = (v[var] ? mk(var, 0, last) : mk(var, last, 0));
+			last = (v[var] ? mk(level, 0, last) : mk(level, last, 0));
 			nstack.pop();
 		}
 		return last;
@@ -401,12 +543,13 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	 */
 
 	public final int minterm(String s) {
-		int len = s.length(), last = 1;
-		for(int i = 0; i < len;i++) {
-			int var = len - i - 1;
+		int len = Math.min(s.length(), num_vars), last = 1;
+		for(int level = num_vars - 1; level >= 0; level--) {
+			int var = level2var[level];
+			if(var >= len) continue;
 			nstack.push(last);
-			last = ((s.charAt(var) == '1') ? mk(var, 0, last) :
-					( (s.charAt(var) == '0') ? mk(var, last, 0) : last));
+			last = ((s.charAt(var) == '1') ? mk(level, 0, last) :
+					( (s.charAt(var) == '0') ? mk(level, last, 0) : last));
 			nstack.pop();
 		}
 		return last;
@@ -488,7 +631,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	public int and(int u1, int u2) {
 		nstack.push(u1);
 		nstack.push(u2);
-		int ret = and_rec(u1,u2);
+		int ret = iterative_apply ? apply_iter(ITER_AND, u1, u2) : and_rec(u1,u2);
 		nstack.drop(2);
 		return ret;
 
@@ -570,7 +713,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	public int or(int u1, int u2) {
 		nstack.push( u1);
 		nstack.push( u2);
-		int ret = or_rec(u1,u2);
+		int ret = iterative_apply ? apply_iter(ITER_OR, u1, u2) : or_rec(u1,u2);
 		nstack.drop(2);
 		return ret;
 
@@ -786,7 +929,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 
 	public int not(int u1) {
 		nstack.push( u1);
-		int ret = not_rec(u1);
+		int ret = iterative_apply ? apply_iter(ITER_NOT, u1, 0) : not_rec(u1);
 		nstack.pop();
 		return ret;
 	}
@@ -806,11 +949,359 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		return l;
 	}
 
+	// ---- [ iterative apply ] ----------------------------------------
+
+	/**
+	 * choose between the recursive and the iterative AND, OR and NOT.
+	 * <p>both give the same results and use the same caches. the iterative version keeps its
+	 * state in a preallocated array instead of one call frame per variable, which helps when
+	 * the BDDs are very deep (e.g. 128 bit IPv6 addresses).
+	 * <p>the default is taken from the settings of the manager
+	 */
+	public void setIterativeApply(boolean iterative) { this.iterative_apply = iterative; }
+	public boolean isIterativeApply() { return iterative_apply; }
+
+	private static final int ITER_AND = 0, ITER_OR = 1, ITER_NOT = 2;
+	private static final int FRAME_WIDTH = 4; /** u1, u2, cache hash, state */
+	private static final int F_U1 = 0, F_U2 = 1, F_HASH = 2, F_STATE = 3;
+
+	/** the terminal cases of and_rec(), or_rec() and not_rec(). returns -1 if this is not a terminal case */
+	private static final int terminal_iter(int op, int u1, int u2) {
+		switch(op) {
+			case ITER_AND:
+				if(u1 == u2 || u2 == 1) return u1;
+				if(u1 == 0 || u2 == 0) return 0;
+				if(u1 == 1) return u2;
+				return -1;
+			case ITER_OR:
+				if(u1 == 1 || u2 == 1) return 1;
+				if(u1 == 0 || u1 == u2) return u2;
+				if(u2 == 0) return u1;
+				return -1;
+			default:
+				return (u1 < 2) ? (u1 ^ 1) : -1;
+		}
+	}
+
+	/**
+	 * and_rec(), or_rec() and not_rec() without recursion.
+	 * <p>each frame is one pending call. a frame is in state 0 before the cache lookup,
+	 * in state 1 while its low child is computed and in state 2 while its high child is computed.
+	 * results are passed up on nstack, so they are protected from the GC just as in the recursive code.
+	 */
+	private final int apply_iter(int op, int u1, int u2) {
+		int ret = terminal_iter(op, u1, u2);
+		if(ret != -1) return ret;
+
+		// every child has a larger top variable than its parent
+		int need = (num_vars + 2) * FRAME_WIDTH;
+		if(apply_frames == null || apply_frames.length < need) apply_frames = Allocator.allocateIntArray(need);
+		final int [] frames = apply_frames;
+		final int cache_op = (op == ITER_AND) ? CACHE_AND : CACHE_OR;
+
+		frames[F_U1] = u1;
+		frames[F_U2] = u2;
+		frames[F_STATE] = 0;
+		int sp = FRAME_WIDTH; // the first unused frame
+
+		while(sp > 0) {
+			int f = sp - FRAME_WIDTH;
+			int a = frames[f + F_U1], b = frames[f + F_U2], c1, c2;
+
+			switch(frames[f + F_STATE]) {
+				case 0:
+					if(op == ITER_NOT) {
+						if(not_cache.lookup(a)) { sp = f; nstack.push(not_cache.answer); continue; }
+						frames[f + F_HASH] = not_cache.hash_value;
+					} else {
+						if(getVar(a) > getVar(b)) { frames[f + F_U1] = b; frames[f + F_U2] = a; a = b; b = frames[f + F_U2]; }
+						if(op_cache.lookup(a, b, cache_op)) { sp = f; nstack.push(op_cache.answer); continue; }
+						frames[f + F_HASH] = op_cache.hash_value;
+					}
+					frames[f + F_STATE] = 1;
+					c1 = getLow(a);
+					c2 = (op == ITER_NOT || getVar(a) != getVar(b)) ? b : getLow(b);
+					break;
+
+				case 1:
+					frames[f + F_STATE] = 2;
+					c1 = getHigh(a);
+					c2 = (op == ITER_NOT || getVar(a) != getVar(b)) ? b : getHigh(b);
+					break;
+
+				default: {
+					// both children are on nstack, they must stay there while mk() runs
+					int [] data = nstack.getData();
+					int tos = nstack.getTOS();
+					int l = data[tos - 2], h = data[tos - 1];
+					if(l != h) l = mk(getVar(a), l, h);
+					nstack.drop(2);
+
+					if(op == ITER_NOT) not_cache.insert(frames[f + F_HASH], a, l);
+					else op_cache.insert(frames[f + F_HASH], a, b, cache_op, l);
+
+					sp = f;
+					nstack.push(l);
+					continue;
+				}
+			}
+
+			ret = terminal_iter(op, c1, c2);
+			if(ret != -1) {
+				nstack.push(ret);
+			} else {
+				frames[sp + F_U1] = c1;
+				frames[sp + F_U2] = c2;
+				frames[sp + F_STATE] = 0;
+				sp += FRAME_WIDTH;
+			}
+		}
+		return nstack.pop();
+	}
+
+	// ---- [ variable reordering ] ----------------------------------------
+
+	/**
+	 * reorder the variables by sifting.
+	 * <p>all BDDs stay valid and keep their meaning, only their size changes. afterwards, getVar()
+	 * returns the level of a node; use getVarAtLevel() to get the variable. vectors such as those of
+	 * cube(), minterm(), oneSat() and member() are still indexed by variable.
+	 * <p>must not be called during an operation. unreferenced BDDs are lost (a GC is done first)
+	 * @return the number of nodes after reordering
+	 */
+	public int reorder() {
+		Test.check(can_reorder(), "this BDD manager does not support reordering");
+		Test.check(nstack.getTOS() == 0, "cannot reorder during an operation");
+
+		long time = System.currentTimeMillis();
+		gc();
+		Sifting sifting = new Sifting(this, settings.bddReorderMaxGrowth);
+		int before = table_size - free_nodes_count - 2;
+		int after = sifting.run();
+
+		// node ids were reused for other functions, so nothing in the caches can be trusted
+		sat_cache.invalidate_cache();
+		relprod_cache.invalidate_cache();
+		replace_cache.invalidate_cache();
+		andnot_cache.invalidate_cache();
+		quant_cache.invalidate_cache();
+		ite_cache.invalidate_cache();
+		not_cache.invalidate_cache();
+		op_cache.invalidate_cache();
+		varset_last = -1;
+		for(Permutation p = firstPermutation; p != null; p = p.next) p.update(this);
+
+		reorder_trigger = 2 * table_size;
+		stat_reorder_count++;
+		stat_reorder_time += System.currentTimeMillis() - time;
+
+		if(Options.verbose) {
+			JDDConsole.out.printf("Reordering #%d: %d -> %d nodes, %d swaps, time=%d\n",
+					stat_reorder_count, before, after, sifting.swaps, stat_reorder_time);
+		}
+		return after;
+	}
+
+	/**
+	 * if automatic reordering is enabled and the node table has doubled since the last reordering,
+	 * reorder now. call this between operations, when all BDDs you need are referenced.
+	 * @return true if the variables were reordered
+	 * @see #setAutoReorder
+	 */
+	public boolean reorderIfNeeded() {
+		if(!auto_reorder || table_size < reorder_trigger || !can_reorder()) return false;
+		reorder();
+		return true;
+	}
+
+	/** enable automatic reordering, see reorderIfNeeded(). the default is taken from the settings of the manager */
+	public void setAutoReorder(boolean enable) { this.auto_reorder = enable; }
+	public boolean isAutoReorder() { return auto_reorder; }
+
+	/** can this manager reorder its variables? sub-classes with their own node layout should return false */
+	protected boolean can_reorder() { return base == null && !frozen; }
+
+	/** the level of a variable, equal to the variable until the first reordering */
+	public int getLevelOfVar(int var) { return var2level[var]; }
+
+	/** the variable at a level, equal to the level until the first reordering */
+	public int getVarAtLevel(int level) { return level2var[level]; }
+
+	// ---- [ cofactors ] ----------------------------------------
+
+	/**
+	 * the level of the function bdd. here this is getVar(), but a ComplementBDD also takes
+	 * complemented edges. getVar(), getLow() and getHigh() only see the stored nodes, so code that
+	 * walks the BDDs of either kind of manager should use these three
+	 */
+	public int topVar(int bdd) { return getVar(bdd); }
+
+	/** the low cofactor of the function bdd, see topVar() */
+	public int lowCofactor(int bdd) { return getLow(bdd); }
+
+	/** the high cofactor of the function bdd, see topVar() */
+	public int highCofactor(int bdd) { return getHigh(bdd); }
+
+	// ---- [ difference, subset and disjointness ] ----------------------------------------
+
+	/**
+	 * binary AND NOT, the set difference.
+	 * <p>equals <tt>and(u1, not(u2))</tt>, but NOT u2 is never built.
+	 * @return u1 AND NOT u2
+	 */
+	public int andNot(int u1, int u2) {
+		nstack.push(u1);
+		nstack.push(u2);
+		int ret = andNot_rec(u1,u2);
+		nstack.drop(2);
+		return ret;
+	}
+
+	private final int andNot_rec(int u1, int u2) {
+		if(u1 == 0 || u2 == 1 || u1 == u2) return 0;
+		if(u2 == 0) return u1;
+		if(u1 == 1) return not_rec(u2);
+
+		if(andnot_cache.lookup(u1, u2)) return andnot_cache.answer;
+		int hash = andnot_cache.hash_value;
+
+		int v1 = getVar(u1), v2 = getVar(u2), v = Math.min(v1, v2);
+		int l = nstack.push( andNot_rec( (v == v1) ? getLow(u1) : u1, (v == v2) ? getLow(u2) : u2));
+		int h = nstack.push( andNot_rec( (v == v1) ? getHigh(u1) : u1, (v == v2) ? getHigh(u2) : u2));
+		if(l != h) l = mk(v,l,h);
+		nstack.drop(2);
+
+		andnot_cache.insert(hash, u1, u2, l);
+		return l;
+	}
+
+	/**
+	 * returns true if every assignment of u1 is also in u2.
+	 * <p>same as <tt>and(u1, u2) == u1</tt>, but no nodes are created and it stops at the first counter-example.
+	 */
+	public boolean isSubset(int u1, int u2) {
+		return subset_rec(u1, u2);
+	}
+
+	private final boolean subset_rec(int u1, int u2) {
+		if(u1 == 0 || u2 == 1 || u1 == u2) return true;
+		if(u1 == 1 || u2 == 0) return false;
+
+		if(op_cache.lookup(u1, u2, CACHE_SUBSET)) return op_cache.answer == 1;
+		int hash = op_cache.hash_value;
+
+		int v1 = getVar(u1), v2 = getVar(u2), v = Math.min(v1, v2);
+		boolean ret = subset_rec( (v == v1) ? getLow(u1) : u1, (v == v2) ? getLow(u2) : u2) &&
+				subset_rec( (v == v1) ? getHigh(u1) : u1, (v == v2) ? getHigh(u2) : u2);
+
+		op_cache.insert(hash, u1, u2, CACHE_SUBSET, ret ? 1 : 0);
+		return ret;
+	}
+
+	/**
+	 * returns true if u1 and u2 have no assignment in common.
+	 * <p>same as <tt>and(u1, u2) == 0</tt>, but no nodes are created and it stops at the first common assignment.
+	 */
+	public boolean isDisjoint(int u1, int u2) {
+		return disjoint_rec(u1, u2);
+	}
+
+	private final boolean disjoint_rec(int u1, int u2) {
+		if(u1 == 0 || u2 == 0) return true;
+		if(u1 == 1 || u2 == 1 || u1 == u2) return false;
+
+		if(u1 > u2) { int tmp = u1; u1 = u2; u2 = tmp; } // symmetric
+		if(op_cache.lookup(u1, u2, CACHE_DISJOINT)) return op_cache.answer == 1;
+		int hash = op_cache.hash_value;
+
+		int v1 = getVar(u1), v2 = getVar(u2), v = Math.min(v1, v2);
+		boolean ret = disjoint_rec( (v == v1) ? getLow(u1) : u1, (v == v2) ? getLow(u2) : u2) &&
+				disjoint_rec( (v == v1) ? getHigh(u1) : u1, (v == v2) ? getHigh(u2) : u2);
+
+		op_cache.insert(hash, u1, u2, CACHE_DISJOINT, ret ? 1 : 0);
+		return ret;
+	}
+
+	private int split_and, split_diff; /** the two results of split_rec() */
+
+	/**
+	 * split u1 by u2: computes <tt>u1 AND u2</tt> and <tt>u1 AND NOT u2</tt> in one traversal.
+	 * <p>the results go into the AND and the AND-NOT caches, so a later and() or andNot() on the
+	 * same arguments is free. as with all operations, the results are not referenced.
+	 * <p>if buffer is null, a new vector is created otherwise buffer is used an returned
+	 * @return {u1 AND u2, u1 AND NOT u2}
+	 */
+	public int [] split(int u1, int u2, int [] buffer) {
+		if(buffer == null) buffer = new int[2];
+
+		nstack.push(u1);
+		nstack.push(u2);
+		split_rec(u1, u2);
+		nstack.drop(2);
+
+		buffer[0] = split_and;
+		buffer[1] = split_diff;
+		return buffer;
+	}
+
+	private final void split_rec(int u1, int u2) {
+		if(u1 == 0) { split_and = split_diff = 0; return; }
+		if(u2 == 0) { split_and = 0; split_diff = u1; return; }
+		if(u2 == 1 || u1 == u2) { split_and = u1; split_diff = 0; return; }
+		if(u1 == 1) {
+			split_diff = not_rec(u2);
+			split_and = u2;
+			return;
+		}
+
+		// the AND cache wants its arguments in the order used by and_rec
+		int a1 = u1, a2 = u2;
+		if(getVar(u1) > getVar(u2)) { a1 = u2; a2 = u1; }
+
+		boolean has_and = op_cache.lookup(a1, a2, CACHE_AND);
+		int and_hash = op_cache.hash_value, and_answer = op_cache.answer;
+		boolean has_diff = andnot_cache.lookup(u1, u2);
+		int diff_hash = andnot_cache.hash_value, diff_answer = andnot_cache.answer;
+
+		// if we have one of them, a single operation is enough
+		if(has_and) {
+			nstack.push(and_answer);
+			split_diff = has_diff ? diff_answer : andNot_rec(u1, u2);
+			nstack.pop();
+			split_and = and_answer;
+			return;
+		}
+		if(has_diff) {
+			nstack.push(diff_answer);
+			split_and = and_rec(a1, a2);
+			nstack.pop();
+			split_diff = diff_answer;
+			return;
+		}
+
+		int v1 = getVar(u1), v2 = getVar(u2), v = Math.min(v1, v2);
+		split_rec( (v == v1) ? getLow(u1) : u1, (v == v2) ? getLow(u2) : u2);
+		int la = nstack.push(split_and);
+		int ld = nstack.push(split_diff);
+		split_rec( (v == v1) ? getHigh(u1) : u1, (v == v2) ? getHigh(u2) : u2);
+		int ha = nstack.push(split_and);
+		int hd = nstack.push(split_diff);
+
+		int and = nstack.push( mk(v, la, ha));
+		int diff = mk(v, ld, hd);
+		nstack.drop(5);
+
+		op_cache.insert(and_hash, a1, a2, CACHE_AND, and);
+		andnot_cache.insert(diff_hash, u1, u2, diff);
+		split_and = and;
+		split_diff = diff;
+	}
+
 
 	// ---- [ sets of variables represented as a BDD tree ] -----------------------------------------
 
 	/** this prepares the varset_vec s.t. if it is true, then it is quantified */
-	private void varset(int bdd) {
+	protected void varset(int bdd) {
 		Test.check(bdd > 1, "BAD varset");
 
 		// for(int i = 0; i < num_vars; i++) varset_vec[i] = false;
@@ -824,7 +1315,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	}
 
 	/** same as varset, but this time bdd is not a positive cube. eg: v1 & ~v2, sogn_vec hold the sign */
-	private void varset_signed(int bdd) {
+	protected void varset_signed(int bdd) {
 		Test.check(bdd > 1, "BAD varset");
 
 		for(int i = 0; i < num_vars; i++) varset_vec[i] = false;
@@ -1200,7 +1691,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		if(last_sat_vars != -1 && last_sat_vars != num_vars) sat_cache.invalidate_cache();
 		last_sat_vars = num_vars;
 
-		return Math.pow(2, getVar(bdd)) * satCount_rec(bdd);
+		return Math.pow(2, topVar(bdd)) * satCount_rec(bdd);
 	}
 
 	protected double satCount_rec(int bdd) {
@@ -1243,7 +1734,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 
 
 	/** faster nodeCount, but doesn't take the shared child-trees into account */
-	public final int quasiReducedNodeCount(int bdd) {
+	public int quasiReducedNodeCount(int bdd) {
 		if(bdd < 2) return 0;
 		return 1 + quasiReducedNodeCount(getLow(bdd)) + quasiReducedNodeCount(getHigh(bdd));
 	}
@@ -1288,10 +1779,10 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		if( bdd < 2) return;
 
 		if(getLow(bdd) == 0) {
-			oneSat_buffer[ getVar(bdd) ] = 1;
+			oneSat_buffer[ level2var[getVar(bdd)] ] = 1;
 			oneSat_rec(getHigh(bdd));
 		} else {
-			oneSat_buffer[ getVar(bdd) ] = 0;
+			oneSat_buffer[ level2var[getVar(bdd)] ] = 0;
 			oneSat_rec(getLow(bdd));
 		}
 	}
@@ -1312,7 +1803,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		if(bdd < 2) return;
 
 		if( isNodeMarked(bdd) ) return;
-		support_buffer[ getVar(bdd) ] = true;
+		support_buffer[ level2var[getVar(bdd)] ] = true;
 		mark_node(bdd);
 
 		support_rec( getLow(bdd) );
@@ -1329,7 +1820,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	public boolean member(int bdd, boolean [] minterm ) {
 
 		while(bdd >= 2)
-			bdd = (minterm[getVar(bdd)]) ? getHigh(bdd) : getLow(bdd);
+			bdd = (minterm[ level2var[getVar(bdd)] ]) ? getHigh(bdd) : getLow(bdd);
 		return (bdd == 0) ? false : true;
 	}
 
@@ -1354,6 +1845,101 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		return tmp;
 	}
 
+	/**
+	 * the OR of all BDDs in <tt>bdds</tt> (0 if there are none).
+	 * <p>this is an n-ary apply: all operands are split on their top variable at once and the
+	 * result is built bottom-up. a fold with orTo() rebuilds the path of the growing result in
+	 * every step, here each node of the result is created once. for a set of prefixes this is
+	 * linear in the size of the prefixes.
+	 * <p>the operands are left as they are, the result is not referenced (as with or()).
+	 */
+	public int orAll(int [] bdds) {
+		return apply_all(bdds, true);
+	}
+
+	/**
+	 * the AND of all BDDs in <tt>bdds</tt> (1 if there are none).
+	 * @see #orAll
+	 */
+	public int andAll(int [] bdds) {
+		return apply_all(bdds, false);
+	}
+
+	private final int apply_all(int [] bdds, boolean disjunction) {
+		// the operands and the partial results are referenced while we work, so they survive a GC in mk()
+		for(int i = 0; i < bdds.length; i++) ref(bdds[i]);
+		HashMap<OperandSet, Integer> memo = new HashMap<>(); // local, several threads may be here in a ConcurrentBDD
+
+		int ret = ref( all_rec(Array.clone(bdds), bdds.length, disjunction, false, memo) );
+
+		for(int r : memo.values()) deref(r);
+		for(int i = 0; i < bdds.length; i++) deref(bdds[i]);
+		deref(ret);
+		return ret;
+	}
+
+	/**
+	 * the n-ary apply on the first <tt>count</tt> operands, which may be reordered.
+	 * <p>if no operand has reached both cofactors so far, each operand is on one path only and no
+	 * sub-problem can come up twice (pairs are left to the binary cache anyway). otherwise the
+	 * results are remembered in <tt>memo</tt>, or the work could grow exponentially.
+	 */
+	private final int all_rec(int [] ops, int count, boolean disjunction, boolean shared, HashMap<OperandSet, Integer> memo) {
+		final int decided = disjunction ? 1 : 0, neutral = 1 - decided;
+
+		// drop the neutral operands and the duplicates
+		int n = 0;
+		for(int i = 0; i < count; i++) {
+			if(ops[i] == decided) return decided;
+			if(ops[i] != neutral) ops[n++] = ops[i];
+		}
+		if(n == 0) return neutral;
+		Arrays.sort(ops, 0, n);
+		int m = 1;
+		for(int i = 1; i < n; i++) if(ops[i] != ops[m-1]) ops[m++] = ops[i];
+		if(m == 1) return ops[0];
+		if(m == 2) return disjunction ? or(ops[0], ops[1]) : and(ops[0], ops[1]);
+
+		OperandSet key = null;
+		if(shared) {
+			key = new OperandSet(Arrays.copyOf(ops, m));
+			Integer known = memo.get(key);
+			if(known != null) return known;
+		}
+
+		int v = topVar(ops[0]);
+		for(int i = 1; i < m; i++) v = Math.min(v, topVar(ops[i]));
+
+		int [] low = new int[m], high = new int[m];
+		boolean both = shared;
+		for(int i = 0; i < m; i++) {
+			int f = ops[i];
+			if(topVar(f) == v) {
+				low[i] = lowCofactor(f);
+				high[i] = highCofactor(f);
+			} else low[i] = high[i] = f;
+			if(low[i] != neutral && high[i] != neutral) both = true;
+		}
+
+		int l = ref( all_rec(low, m, disjunction, both, memo) );
+		int h = ref( all_rec(high, m, disjunction, both, memo) );
+		int ret = mk(v, l, h);
+		deref(l);
+		deref(h);
+
+		if(key != null) memo.put(key, ref(ret)); // released by apply_all()
+		return ret;
+	}
+
+	/** an operand set of all_rec(), as a memo key */
+	private static final class OperandSet {
+		private final int [] ops;
+		private final int hash;
+		OperandSet(int [] ops) { this.ops = ops; this.hash = Arrays.hashCode(ops); }
+		public int hashCode() { return hash; }
+		public boolean equals(Object o) { return o instanceof OperandSet && Arrays.equals(ops, ((OperandSet) o).ops); }
+	}
+
 	// --- [ debug ] ----------------------
 	public void showStats() {
 		super.showStats();
@@ -1361,6 +1947,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		not_cache.showStats();
 		quant_cache.showStats();
 		replace_cache.showStats();
+		andnot_cache.showStats();
 		ite_cache.showStats();
 		relprod_cache.showStats();
 		sat_cache.showStats();
@@ -1384,6 +1971,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		if(quant_cache != null) ret += quant_cache.getMemoryUsage();
 		if(sat_cache != null) ret += sat_cache.getMemoryUsage();
 		if(replace_cache != null) ret += replace_cache.getMemoryUsage();
+		if(andnot_cache != null) ret += andnot_cache.getMemoryUsage();
 
 		// permutations also use some memory
 		Permutation tmp = firstPermutation ;
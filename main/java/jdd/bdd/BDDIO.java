@@ -9,6 +9,10 @@ import jdd.util.*;
 import java.util.*;
 import java.util.zip.*;
 import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
  * BDDIO is used to save and load binary decision diagrams independent of the BDD managers.
@@ -26,12 +30,20 @@ import java.io.*;
  * <p>the first ID represents the saved BDD while the rest build the
  * involved table entries which the top BDD depends on.
  * To save space, the file is automatically compressed with "gzip".
+ *
+ * <p>Many BDDs that share nodes are better saved together with saveAll(), see there.
  */
 
 public class BDDIO {
 
 	// ------ [ internal stuff ] -------------------------------------
 	private static final String BDD_HEADER_MAGIC = "FORMAT:JDD.BDD";
+	private static final String BULK_HEADER_MAGIC = "JDD.BDDS"; /** saveAll() files */
+	private static final int BULK_VERSION = 2;
+	private static final int BULK_HEADER_SIZE = 28; /** magic, version, nodes, roots, vars, flags */
+	private static final int BULK_FLAG_COMPLEMENT = 1; /** some edges in the file are complemented */
+	private static final int BULK_NODE_SIZE = 12; /** var, low, high */
+	private static final int BULK_WINDOW = (1 << 26) * BULK_NODE_SIZE; /** bytes mapped at a time */
 
 	private static BDD manager;
 	private static OutputStream os;
@@ -239,6 +251,162 @@ public class BDDIO {
 		return ret;
 	}
 
+	// ----- [ SAVE/LOAD many BDDs ]---------------------------------------------
+	/**
+	 * Save many BDDs to one file. Each node is saved once, no matter how many of the BDDs share it.
+	 *
+	 * <p>The file is not compressed, so that loadAll() can map it into memory:
+	 * <pre>
+	 * MAGIC: "JDD.BDDS"
+	 * VERSION, NODES, ROOTS, VARS, FLAGS
+	 * VAR LOW HIGH (repeated NODES times, children before parents)
+	 * ROOT (repeated ROOTS times)
+	 * </pre>
+	 *
+	 * <p>where each element (besides magic) is a big-endian 32 bit number.
+	 * A node is named by its position: 0 and 1 are the constants and the n:th saved node is n + 2.
+	 * With complement edges, LOW, HIGH and ROOT may also have the EDGE_COMPLEMENT bit set,
+	 * FLAGS is then BULK_FLAG_COMPLEMENT (and 0 otherwise). Such a file can only be loaded into
+	 * a ComplementBDD.
+	 * VAR is the level of the node, as in save().
+	 *
+	 * @see #loadAll
+	 */
+	public static void saveAll(BDD manager, int [] roots, String filename)
+		throws IOException
+	{
+		// the position of each node in the file (plus 2), 0 if not seen yet. children are numbered first
+		int [] index = new int[manager.table_size];
+		int count = 0;
+		for(int i = 0; i < roots.length; i++) count = number_tree(manager, roots[i], index, count);
+
+		int [] order = new int[count]; // the nodes by position
+		for(int i = 2; i < manager.table_size; i++) if(index[i] != 0) order[index[i] - 2] = i;
+
+		int flags = 0;
+		for(int i = 0; i < count; i++) if(manager.getLow(order[i]) < 0 || manager.getHigh(order[i]) < 0) flags = BULK_FLAG_COMPLEMENT;
+		for(int i = 0; i < roots.length; i++) if(roots[i] < 0) flags = BULK_FLAG_COMPLEMENT;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+		try {
+			out.write(BULK_HEADER_MAGIC.getBytes(), 0, BULK_HEADER_MAGIC.length());
+			out.writeInt(BULK_VERSION);
+			out.writeInt(count);
+			out.writeInt(roots.length);
+			out.writeInt(manager.numberOfVariables());
+			out.writeInt(flags);
+			for(int i = 0; i < count; i++) {
+				int bdd = order[i];
+				out.writeInt(manager.getVarUnmasked(bdd));
+				out.writeInt(saved_name(index, manager.getLow(bdd)));
+				out.writeInt(saved_name(index, manager.getHigh(bdd)));
+			}
+			for(int i = 0; i < roots.length; i++) out.writeInt(saved_name(index, roots[i]));
+		} catch(IOException exx) {
+			JDDConsole.out.printf("BDDIO.saveAll Failed: %s\n", exx);
+			throw exx;
+		} finally {
+			out.close();
+		}
+	}
+
+	/** give the nodes of this tree their positions, children first. returns the new node count */
+	private static int number_tree(BDD manager, int bdd, int [] index, int count) {
+		bdd &= NodeTable.EDGE_REGULAR;
+		if(bdd < 2 || index[bdd] != 0) return count;
+		count = number_tree(manager, manager.getLow(bdd), index, count);
+		count = number_tree(manager, manager.getHigh(bdd), index, count);
+		index[bdd] = count + 2;
+		return count + 1;
+	}
+
+	/** the name of an edge in the file, the complement bit is kept */
+	private static int saved_name(int [] index, int bdd) {
+		int node = bdd & NodeTable.EDGE_REGULAR;
+		int name = node < 2 ? node : index[node];
+		return name | (bdd & NodeTable.EDGE_COMPLEMENT);
+	}
+
+	/**
+	 * Load all BDDs of a file created by saveAll().
+	 *
+	 * <p>The file is mapped into memory and read in one pass, each node is found or
+	 * created with a single mk(). Room for all nodes is made before we start, so no garbage
+	 * is collected while loading. Missing variables are created (not in an overlay).
+	 *
+	 * <p>Unlike load(), each of the returned BDDs is referenced once, deref them when done.
+	 * A file with complemented edges needs a ComplementBDD, use BDDTransfer to move such BDDs
+	 * into other managers.
+	 *
+	 * @return the BDDs in the order they were saved
+	 * @see #saveAll
+	 */
+	public static int [] loadAll(BDD manager, String filename)
+		throws IOException
+	{
+		try(FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long size = ch.size();
+			if(size < BULK_HEADER_SIZE) throw new IOException("immature end of file while reading the header");
+
+			IntBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, BULK_HEADER_SIZE).asIntBuffer();
+			byte [] magic = new byte[BULK_HEADER_MAGIC.length()];
+			ch.map(FileChannel.MapMode.READ_ONLY, 0, magic.length).get(magic);
+			if(! Array.equals(magic, BULK_HEADER_MAGIC.getBytes(), magic.length) )
+				throw new IOException("this is not a multi-BDD file in JDD format");
+			if(header.get(2) != BULK_VERSION) throw new IOException("unknown multi-BDD file version " + header.get(2));
+
+			int nodes = header.get(3), roots = header.get(4), vars = header.get(5), flags = header.get(6);
+			if(nodes < 0 || roots < 0 || size != BULK_HEADER_SIZE + (long) nodes * BULK_NODE_SIZE + roots * 4L)
+				throw new IOException("Corrupt BDD file");
+			boolean complemented = (flags & BULK_FLAG_COMPLEMENT) != 0;
+			if(complemented && !(manager instanceof ComplementBDD))
+				throw new IOException("the file has complemented edges, it can only be loaded into a ComplementBDD");
+
+			while(manager.numberOfVariables() < vars) manager.createVar();
+			manager.reserve(nodes);
+
+			// the new id of each saved node, the constants are the same everywhere
+			int [] map = new int[nodes + 2];
+			map[1] = 1;
+			long pos = BULK_HEADER_SIZE;
+			for(int done = 0; done < nodes; ) {
+				int todo = Math.min(nodes - done, BULK_WINDOW / BULK_NODE_SIZE);
+				IntBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, (long) todo * BULK_NODE_SIZE).asIntBuffer();
+				for(int i = 0, j = 0; i < todo; i++, j += 3) {
+					int var = buf.get(j);
+					if(var < 0 || var >= vars) throw new IOException("Corrupt BDD file");
+					int low = loaded_name(manager, complemented, map, buf.get(j + 1), done + 2);
+					int high = loaded_name(manager, complemented, map, buf.get(j + 2), done + 2);
+					map[done + 2] = manager.mk(var, low, high);
+					done++;
+				}
+				pos += (long) todo * BULK_NODE_SIZE;
+			}
+
+			IntBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, roots * 4L).asIntBuffer();
+			int [] ret = new int[roots];
+			for(int i = 0; i < roots; i++) ret[i] = manager.ref( loaded_name(manager, complemented, map, buf.get(i), nodes + 2) );
+			return ret;
+		} catch(IOException exx) {
+			JDDConsole.out.printf("BDDIO.loadAll Failed: %s\n", exx);
+			throw exx;
+		}
+	}
+
+	/**
+	 * the new id of a saved edge. only the nodes before <tt>limit</tt> are loaded.
+	 * complemented edges are only allowed if the header said so, the manager is then a ComplementBDD
+	 */
+	private static int loaded_name(BDD manager, boolean complemented, int [] map, int name, int limit)
+		throws IOException
+	{
+		int node = name & NodeTable.EDGE_REGULAR;
+		if(node >= limit) throw new IOException("Unknown child node " + node);
+		if(name >= 0) return map[node];
+		if(!complemented) throw new IOException("Corrupt BDD file");
+		return manager.not(map[node]); // O(1) with complement edges
+	}
+
 	// ----- [ SAVE BuDDy BDDs ]---------------------------------------------
 	/**
 	 * Save a BDD to a file. use the format BuDDy uses.
@@ -20,6 +20,7 @@ public class BDDPrinter {
 	}
 
 	private static final void print_unmark(int bdd, NodeTable nt) { // cleans up the marking
+		bdd &= NodeTable.EDGE_REGULAR; // complemented edges point to the same node
 		if(bdd == 0 || bdd == 1) return;
 		if(! nt.isNodeMarked(bdd)) return;
 
@@ -38,6 +39,7 @@ public class BDDPrinter {
 		helpGC();
 	}
 	public static void print_rec(int i, NodeTable nt) {
+		i &= NodeTable.EDGE_REGULAR;
 		if(i < 2) return;
 		// if( (v[i] & NODE_MARK) != 0) return;
 		if( nt.isNodeMarked(i)) return;
@@ -57,7 +59,7 @@ public class BDDPrinter {
 			had_0 = had_1 = false;
 			ps.println("digraph G {");
 			ps.println("\tinit__ [label=\"\", style=invis, height=0, width=0];");
-			ps.println("\tinit__ -> "  + bdd + ";");
+			ps.println("\tinit__ -> "  + (bdd & NodeTable.EDGE_REGULAR) + edge_style(bdd, null) + ";");
 
 			printDot_rec(bdd, nt, nn);
 
@@ -72,8 +74,16 @@ public class BDDPrinter {
 			JDDConsole.out.printf("BDDPrinter.printDOT failed: %s\n", exx);
 		}
 	}
+	/** dot attributes for an edge, complemented edges get a circle at the head */
+	private static String edge_style(int bdd, String style) {
+		boolean comp = bdd < 0; // EDGE_COMPLEMENT is the sign bit
+		if(style == null) return comp ? " [arrowhead=odot]" : "";
+		return comp ? " [style=" + style + ", arrowhead=odot]" : " [style=" + style + "]";
+	}
+
 	private static void printDot_rec(int bdd, NodeTable nt, NodeName nn) {
 		// if(bdd == 0 || bdd == 1) return;
+		bdd &= NodeTable.EDGE_REGULAR;
 		if(bdd == 0)  { had_0 = true; return; }
 		if(bdd == 1)  { had_1 = true; return; }
 
@@ -89,14 +99,14 @@ public class BDDPrinter {
 
 		// ps.println("" + bdd + "[label=\"v" + var + "\"];");
 		ps.println("" + bdd + "[label=\"" +nn.variable(var) + ":" + bdd+ "\"];");
-		ps.println("" + bdd + "-> " + low + " [style=dotted];");
-		ps.println("" + bdd + "-> " + high + " [style=filled];");
+		ps.println("" + bdd + "-> " + (low & NodeTable.EDGE_REGULAR) + edge_style(low, "dotted") + ";");
+		ps.println("" + bdd + "-> " + (high & NodeTable.EDGE_REGULAR) + edge_style(high, "filled") + ";");
 		printDot_rec(low, nt, nn);
 		printDot_rec(high, nt, nn);
 	}
 	// -----------------------------------------------------------------
 	public static void printSet(int bdd, int max, NodeTable nt, NodeName nn)  {
-		if( bdd < 2) {
+		if( bdd == 0 || bdd == 1) {
 			if(nn == null)
 				JDDConsole.out.printf("%s\n", (bdd == 0) ? "FALSE" : "TRUE");
 			else
@@ -114,7 +124,7 @@ public class BDDPrinter {
 
 	public static ArrayList<String> printSetString(int bdd, int max, NodeTable nt, NodeName nn)  {
 		ArrayList<String> r = new ArrayList<>();
-		if( bdd < 2) {
+		if( bdd == 0 || bdd == 1) {
 			if(nn == null)
 				if (bdd == 0) r.add("FALSE");
 				else r.add("TRUE");
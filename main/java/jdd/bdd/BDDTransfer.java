@@ -0,0 +1,355 @@
+package jdd.bdd;
+
+import jdd.util.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Copies BDDs from one manager into another.
+ * <p>A BDD can only be used in the manager that created it. A BDDTransfer rebuilds it bottom-up
+ * in the other manager and remembers the nodes it has already copied, so BDDs that share nodes
+ * are cheap to copy in batches. The managers may have different variable orders and one
+ * of them may use complement edges.
+ * <p>transferAnd() copies only the part of each BDD that lies inside a given set, without building
+ * the conjunction in src (which may be frozen).
+ * <p>toBytes() and fromBytes() do the same through a compact byte array, for managers that are
+ * not in the same process.
+ *
+ * @see BDDIO#saveAll
+ */
+
+// the memo is a hash table keyed by src node (open addressing, linear probing), so it is as large as
+// what has been copied and not as src: a slice engine copies a small part of a large src.
+// the memo holds one reference on each copied node, so they survive GCs in dst between batches.
+// it is released when src has garbage collected (src node ids may have been reused). while it holds
+// anything, the memo is registered with dst: a compaction moves its ids, a rollback releases it
+// (the copies made since the mark are gone, the older ones are dereferenced).
+
+public class BDDTransfer {
+	private final BDD src, dst;
+	private int [] memo_key = new int[64]; /** the copied src nodes, 0 for a free slot */
+	private int [] memo; /** the copy in dst of the node in the same slot of memo_key */
+	private int [] memo_not; /** the copy of the negation, only used from complement edges into a BDD without them */
+	private int memo_count; /** number of used slots, at most half of them */
+	private int src_epoch;
+	private boolean registered; /** is the memo registered with dst? */
+
+	/** keeps the memo valid when dst moves or frees its nodes */
+	private final NodeRemapper holder = new NodeRemapper() {
+		public void remap(IntUnaryOperator moved) {
+			// the copies are referenced, so they are all alive and have a new id
+			for(int i = 0; i < memo_key.length; i++) {
+				if(memo_key[i] == 0) continue;
+				memo[i] = moved.applyAsInt(memo[i]);
+				if(memo_not != null && memo_not[i] != 0) memo_not[i] = moved.applyAsInt(memo_not[i]);
+			}
+		}
+		public void rolledBack() { release(true); }
+	};
+
+	public BDDTransfer(BDD src, BDD dst) {
+		this.src = src;
+		this.dst = dst;
+		memo = new int[memo_key.length];
+		src_epoch = src.getEpoch();
+	}
+
+	/**
+	 * copy <tt>bdd</tt> from src into dst.
+	 * <p>the result is referenced once, the caller must deref it when done.
+	 */
+	public int transfer(int bdd) {
+		prepare();
+		return dst.ref( copy(bdd) );
+	}
+
+	/**
+	 * copy many BDDs at once. they share the memo, so each node is copied only once.
+	 * <p>each result is referenced once.
+	 */
+	public int [] transfer(int [] bdds) {
+		prepare();
+		int [] ret = new int[bdds.length];
+		for(int i = 0; i < bdds.length; i++) ret[i] = dst.ref( copy(bdds[i]) );
+		return ret;
+	}
+
+	/**
+	 * copy (bdds[i] AND with) from src into dst, for each i. src is only read, so this works on a frozen
+	 * manager and the conjunctions never exist in src.
+	 * <p>each result is referenced once, empty intersections are 0.
+	 */
+	public int [] transferAnd(int [] bdds, int with) {
+		prepare();
+		HashMap<Long, Integer> pairs = new HashMap<>(); // (a,b) -> copy of a AND b, each referenced once
+		int [] ret = new int[bdds.length];
+		for(int i = 0; i < bdds.length; i++) ret[i] = dst.ref( copy_and(bdds[i], with, pairs) );
+		for(int r : pairs.values()) dst.deref(r);
+		return ret;
+	}
+
+	/** forget what has been copied and release the memo's references in dst */
+	public void clear() {
+		release(false);
+		if(registered) {
+			dst.removeNodeRemapper(holder);
+			registered = false;
+		}
+	}
+
+	/**
+	 * deref the copies and empty the memo. after a rollback, the copies made since the mark have
+	 * been freed with their references and only the valid (older) ones are dereferenced.
+	 * <p>the table keeps its size, it is only as large as the most that has been copied at once
+	 */
+	private void release(boolean rolled_back) {
+		for(int i = 0; i < memo_key.length; i++) {
+			if(memo_key[i] == 0) continue;
+			memo_key[i] = 0;
+			if(!rolled_back || dst.isValid(memo[i] & NodeTable.EDGE_REGULAR)) dst.deref(memo[i]);
+			memo[i] = 0;
+			if(memo_not != null && memo_not[i] != 0) {
+				if(!rolled_back || dst.isValid(memo_not[i] & NodeTable.EDGE_REGULAR)) dst.deref(memo_not[i]);
+				memo_not[i] = 0;
+			}
+		}
+		memo_count = 0;
+	}
+
+	/** copy a single BDD with a temporary memo. the result is referenced once */
+	public static int transfer(BDD src, int bdd, BDD dst) {
+		BDDTransfer t = new BDDTransfer(src, dst);
+		int ret = t.transfer(bdd);
+		t.clear();
+		return ret;
+	}
+
+	// ---------------------------------------------------------------
+
+	/** drop the memo if it can be stale, create the missing variables */
+	private void prepare() {
+		if(src_epoch != src.getEpoch()) {
+			release(false);
+			src_epoch = src.getEpoch();
+		}
+		if(!registered) {
+			dst.addNodeRemapper(holder);
+			registered = true;
+		}
+		while(dst.numberOfVariables() < src.numberOfVariables()) dst.createVar();
+	}
+
+	private int copy(int bdd) {
+		int node = bdd & NodeTable.EDGE_REGULAR;
+		if(node < 2) return bdd == 0 ? 0 : 1; // a complemented constant is never stored
+
+		int slot = memo_slot(node);
+		int ret = memo_key[slot] == node ? memo[slot] : 0;
+		if(ret == 0) {
+			int var = src.level2var[src.getVar(node)];
+			int l = dst.ref( copy(src.getLow(node)) );
+			int h = dst.ref( copy(src.getHigh(node)) );
+			ret = dst.ref( make(dst, var, l, h) ); // held by the memo
+			dst.deref(l);
+			dst.deref(h);
+			slot = memo_add(node); // the recursion may have grown the table
+			memo[slot] = ret;
+		}
+		return bdd < 0 ? negate(node, ret) : ret;
+	}
+
+	/** a AND b in src, built in dst. terminal cases reuse the plain memo */
+	private int copy_and(int a, int b, HashMap<Long, Integer> pairs) {
+		if(a == 0 || b == 0) return 0;
+		if(a == 1 || a == b) return copy(b);
+		if(b == 1) return copy(a);
+
+		if(a > b) { int tmp = a; a = b; b = tmp; } // AND is commutative
+		Long key = ((long) a << 32) | (b & 0xFFFFFFFFL);
+		Integer known = pairs.get(key);
+		if(known != null) return known;
+
+		int va = src.topVar(a), vb = src.topVar(b), level = Math.min(va, vb);
+		int l = dst.ref( copy_and(va == level ? src.lowCofactor(a) : a, vb == level ? src.lowCofactor(b) : b, pairs) );
+		int h = dst.ref( copy_and(va == level ? src.highCofactor(a) : a, vb == level ? src.highCofactor(b) : b, pairs) );
+		int ret = (l == h) ? dst.ref(l) : dst.ref( make(dst, src.level2var[level], l, h) ); // held by pairs
+		dst.deref(l);
+		dst.deref(h);
+		pairs.put(key, ret);
+		return ret;
+	}
+
+	/** the negation of a copied node, free with complement edges, cached otherwise */
+	private int negate(int node, int copy) {
+		if(dst instanceof ComplementBDD) return dst.not(copy);
+		if(memo_not == null) memo_not = new int[memo_key.length];
+		int slot = memo_slot(node); // copy() has just added it
+		if(memo_not[slot] == 0) memo_not[slot] = dst.ref( dst.not(copy) );
+		return memo_not[slot];
+	}
+
+	/** the slot of node in the memo, or the free slot where it would go */
+	private int memo_slot(int node) {
+		int mask = memo_key.length - 1;
+		int h = node * 0x9E3779B9;
+		int i = (h ^ (h >>> 16)) & mask;
+		while(memo_key[i] != 0 && memo_key[i] != node) i = (i + 1) & mask;
+		return i;
+	}
+
+	/** add node to the memo, returns its slot. the table is doubled when half full */
+	private int memo_add(int node) {
+		if(2 * (memo_count + 1) > memo_key.length) memo_grow();
+		int slot = memo_slot(node);
+		memo_key[slot] = node;
+		memo_count++;
+		return slot;
+	}
+
+	private void memo_grow() {
+		int [] old_key = memo_key, old = memo, old_not = memo_not;
+		memo_key = new int[old_key.length * 2];
+		memo = new int[memo_key.length];
+		memo_not = old_not == null ? null : new int[memo_key.length];
+		for(int i = 0; i < old_key.length; i++) {
+			if(old_key[i] == 0) continue;
+			int slot = memo_slot(old_key[i]);
+			memo_key[slot] = old_key[i];
+			memo[slot] = old[i];
+			if(old_not != null) memo_not[slot] = old_not[i];
+		}
+	}
+
+	/**
+	 * the node (var, l, h) in the manager m. if var is above both children in the order of m, this
+	 * is just mk(), otherwise the orders differ and we need an ITE to put the variable in its place
+	 */
+	private static int make(BDD m, int var, int l, int h) {
+		int level = m.var2level[var];
+		if(level < m.topVar(l) && level < m.topVar(h)) return m.mk(level, l, h);
+		return m.ite( m.mk(level, 0, 1), h, l);
+	}
+
+	// ---- [ byte array form ] -----------------------------------------------
+
+	private static final int BYTES_VERSION = 1;
+
+	/**
+	 * the BDDs as a byte array that fromBytes() can load into any manager.
+	 * <p>the nodes are listed once, children first, with variable numbers (not levels).
+	 * all numbers are varints (7 bits per byte, low bits first):
+	 * <pre>
+	 * VERSION NODES ROOTS VARS
+	 * VAR LOW HIGH  (NODES times)
+	 * ROOT          (ROOTS times)
+	 * </pre>
+	 * a node is named by its position, 0 and 1 are the constants and the n:th node is n + 2.
+	 * LOW and HIGH are ((node - child) &lt;&lt; 1 | complement), so near children take one byte.
+	 * ROOT is (name &lt;&lt; 1 | complement).
+	 */
+	public static byte [] toBytes(BDD src, int [] roots) {
+		int [] index = new int[src.table_size]; // position + 2 of each node, 0 if not numbered yet
+		int count = 0;
+		for(int i = 0; i < roots.length; i++) count = number_tree(src, roots[i], index, count);
+
+		int [] order = new int[count];
+		for(int i = 2; i < src.table_size; i++) if(index[i] != 0) order[index[i] - 2] = i;
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(16 + count * 4 + roots.length * 3);
+		write_varint(out, BYTES_VERSION);
+		write_varint(out, count);
+		write_varint(out, roots.length);
+		write_varint(out, src.numberOfVariables());
+		for(int i = 0; i < count; i++) {
+			int bdd = order[i], pos = i + 2;
+			write_varint(out, src.level2var[src.getVar(bdd)]);
+			write_varint(out, edge_name(index, src.getLow(bdd), pos));
+			write_varint(out, edge_name(index, src.getHigh(bdd), pos));
+		}
+		for(int i = 0; i < roots.length; i++) write_varint(out, edge_name(index, roots[i], 0));
+		return out.toByteArray();
+	}
+
+	/**
+	 * load BDDs created by toBytes(). missing variables are created (not in an overlay).
+	 * <p>each of the returned BDDs is referenced once.
+	 */
+	public static int [] fromBytes(BDD dst, byte [] data) {
+		int [] pos = new int[1]; // read position
+		Test.check(read_varint(data, pos) == BYTES_VERSION, "unknown BDD byte array version");
+		int nodes = read_varint(data, pos), roots = read_varint(data, pos), vars = read_varint(data, pos);
+		while(dst.numberOfVariables() < vars) dst.createVar();
+
+		// each loaded node (and negation) is referenced until we are done, as make() may need an ITE and can collect garbage
+		int [] map = new int[nodes + 2];
+		int [] map_not = new int[nodes + 2];
+		map[1] = 1;
+		map_not[0] = 1;
+		for(int i = 0; i < nodes; i++) {
+			int p = i + 2;
+			int var = read_varint(data, pos);
+			Test.check(var < vars, "corrupt BDD byte array");
+			int l = loaded_edge(dst, map, map_not, read_varint(data, pos), p);
+			int h = loaded_edge(dst, map, map_not, read_varint(data, pos), p);
+			map[p] = dst.ref( make(dst, var, l, h) );
+		}
+
+		int [] ret = new int[roots];
+		for(int i = 0; i < roots; i++) {
+			int r = read_varint(data, pos);
+			ret[i] = dst.ref( loaded_edge(dst, map, map_not, r, 0) );
+		}
+		for(int i = 2; i < map.length; i++) {
+			dst.deref(map[i]);
+			if(map_not[i] != 0) dst.deref(map_not[i]);
+		}
+		return ret;
+	}
+
+	/** give the nodes of this tree their positions, children first. returns the new node count */
+	private static int number_tree(BDD m, int bdd, int [] index, int count) {
+		bdd &= NodeTable.EDGE_REGULAR;
+		if(bdd < 2 || index[bdd] != 0) return count;
+		count = number_tree(m, m.getLow(bdd), index, count);
+		count = number_tree(m, m.getHigh(bdd), index, count);
+		index[bdd] = count + 2;
+		return count + 1;
+	}
+
+	/** an edge relative to the node at <tt>pos</tt> (absolute if pos is 0), with the complement bit */
+	private static int edge_name(int [] index, int bdd, int pos) {
+		int node = bdd & NodeTable.EDGE_REGULAR;
+		int name = node < 2 ? node : index[node];
+		int comp = bdd < 0 ? 1 : 0;
+		return pos == 0 ? (name << 1) | comp : ((pos - name) << 1) | comp;
+	}
+
+	/** the loaded node of an edge, see edge_name() */
+	private static int loaded_edge(BDD dst, int [] map, int [] map_not, int edge, int pos) {
+		int name = pos == 0 ? (edge >>> 1) : pos - (edge >>> 1);
+		Test.check(name >= 0 && name < map.length && (pos == 0 || name < pos), "corrupt BDD byte array");
+		if((edge & 1) == 0) return map[name];
+		if(map_not[name] == 0) map_not[name] = dst.ref( dst.not(map[name]) );
+		return map_not[name];
+	}
+
+	private static void write_varint(ByteArrayOutputStream out, int v) {
+		while((v & ~0x7F) != 0) {
+			out.write((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+
+	private static int read_varint(byte [] data, int [] pos) {
+		int ret = 0;
+		for(int shift = 0; ; shift += 7) {
+			Test.check(pos[0] < data.length && shift < 32, "corrupt BDD byte array");
+			int b = data[pos[0]++];
+			ret |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return ret;
+		}
+	}
+}
@@ -0,0 +1,576 @@
+package jdd.bdd;
+
+import jdd.util.*;
+
+/**
+ * A BDD manager with complement edges.
+ * <p>A BDD with the <tt>EDGE_COMPLEMENT</tt> bit set is the negation of the node it points to.
+ * Hence <tt>not()</tt> is O(1) and a function and its negation share all their nodes.
+ * The constants are the same as in BDD: 0 is FALSE and 1 is TRUE.
+ * To keep the representation canonical, the high edge of a stored node is never complemented
+ * and never 0 (the low edge may be both).
+ * <p>getVar, getLow and getHigh only work on the stored nodes. topVar, lowCofactor and highCofactor
+ * also work on complemented BDDs, they return the cofactors of the function. Note that a
+ * complemented BDD is a negative number, so "bdd &lt; 2" is not a test for the constants anymore.
+ * <p>The node table is the same as in BDD, only the algorithms differ. All BDD operations
+ * are overridden here, since the BDD versions are wrong for complemented edges.
+ *
+ * @see BDD
+ * @see NodeTable#EDGE_COMPLEMENT
+ */
+
+public class ComplementBDD extends BDD {
+	private int [] perm_vec; /** replace() stuff, see BDD */
+	private int perm_last, perm_id;
+	private int node_count_int; /** used by nodeCount() */
+
+	/**
+	 * create a BDD manager with initially <tt>nodesize</tt> nodes.
+	 */
+	public ComplementBDD(int nodesize) {
+		this(nodesize, Configuration.DEFAULT_BDD_CACHE_SIZE);
+	}
+
+	/**
+	 * create a BDD manager with initially <tt>nodesize</tt> nodes
+	 * and <tt>cache_size</tt> cache elements.
+	 */
+	public ComplementBDD(int nodesize, int cache_size) {
+		super(nodesize, cache_size);
+	}
+
+	/** create a manager with its own parameters */
+	public ComplementBDD(int nodesize, int cache_size, Settings settings) {
+		super(nodesize, cache_size, settings);
+	}
+
+	/**
+	 * create an overlay on top of the frozen manager <tt>base</tt>.
+	 * @see BDD#BDD(BDD, int, int)
+	 */
+	public ComplementBDD(ComplementBDD base, int nodesize, int cache_size) {
+		super(base, nodesize, cache_size);
+	}
+
+	/** create an overlay manager with its own parameters */
+	public ComplementBDD(ComplementBDD base, int nodesize, int cache_size, Settings settings) {
+		super(base, nodesize, cache_size, settings);
+	}
+
+	/** a copy of <tt>src</tt>, see snapshot() */
+	protected ComplementBDD(ComplementBDD src, boolean keep_caches) {
+		super(src, keep_caches);
+	}
+
+	public BDD snapshot(boolean keep_caches) {
+		return new ComplementBDD(this, keep_caches);
+	}
+
+	// ---- [ edges ] -----------------------------------------------------
+
+	/** the negation of a BDD: 0 and 1 are swapped, other BDDs get their complement bit flipped */
+	private static final int neg(int bdd) {
+		return (bdd >>> 1) == 0 ? bdd ^ 1 : bdd ^ EDGE_COMPLEMENT;
+	}
+
+	/** true if bdd is one of the constants 0 and 1 */
+	private static final boolean isConst(int bdd) {
+		return (bdd >>> 1) == 0;
+	}
+
+	// the node table only knows about regular nodes
+	public int ref(int bdd) { super.ref(bdd & EDGE_REGULAR); return bdd; }
+	public int deref(int bdd) { super.deref(bdd & EDGE_REGULAR); return bdd; }
+	public void saturate(int bdd) { super.saturate(bdd & EDGE_REGULAR); }
+	public short getRef(int bdd) { return super.getRef(bdd & EDGE_REGULAR); }
+
+	/** a level swap would have to complement edges to parents we don't know of */
+	protected boolean can_reorder() { return false; }
+
+	// the node table accessors only see stored nodes. these take complemented edges and push the
+	// complement bit down to the children, so they return the cofactors of the function
+	private final int var(int bdd) { return getVar(bdd & EDGE_REGULAR); }
+	private final int low(int bdd) { return bdd < 0 ? neg(getLow(bdd ^ EDGE_COMPLEMENT)) : getLow(bdd); }
+	private final int high(int bdd) { return bdd < 0 ? neg(getHigh(bdd ^ EDGE_COMPLEMENT)) : getHigh(bdd); }
+
+	public int topVar(int bdd) { return var(bdd); }
+	public int lowCofactor(int bdd) { return low(bdd); }
+	public int highCofactor(int bdd) { return high(bdd); }
+
+	/** mk with the canonical form: if the high edge would be complemented, store the negation instead */
+	public int mk(int i, int l, int h) {
+		if(l == h) return l;
+		if(h <= 0) return neg( add(i, neg(l), neg(h)) ); // h is 0 or complemented
+		return add(i,l,h);
+	}
+
+	// ---- [ ITE ] -------------------------------------------------------
+
+	public int ite(int f, int then_, int else_) {
+		nstack.push(f);
+		nstack.push(then_);
+		nstack.push(else_);
+		int ret = ite_rec(f, then_, else_);
+		nstack.drop(3);
+		return ret;
+	}
+
+	private final int ite_rec(int f, int g, int h) {
+		if(f == 1) return g;
+		if(f == 0) return h;
+
+		// ite(f, f, h) = ite(f, 1, h) etc.
+		if(g == f) g = 1;
+		else if(g == neg(f)) g = 0;
+		if(h == f) h = 0;
+		else if(h == neg(f)) h = 1;
+
+		if(g == h) return g;
+		if(g == 1) return (h == 0) ? f : neg( and_rec( neg(f), neg(h))); // f OR h
+		if(g == 0) return (h == 1) ? neg(f) : and_rec( neg(f), h);
+		if(h == 0) return and_rec(f, g);
+		if(h == 1) return neg( and_rec(f, neg(g))); // NOT f OR g
+		if(g == neg(h)) return neg( xor_rec(f, g));
+
+		// ite(NOT f, g, h) = ite(f, h, g) and ite(f, NOT g, NOT h) = NOT ite(f, g, h)
+		if(f < 0) { f = neg(f); int tmp = g; g = h; h = tmp; }
+		boolean comp = g < 0;
+		if(comp) { g = neg(g); h = neg(h); }
+
+		if(ite_cache.lookup(f,g,h)) return comp ? neg(ite_cache.answer) : ite_cache.answer;
+		int hash = ite_cache.hash_value;
+
+		int vf = var(f), vg = var(g), vh = var(h);
+		int v = Math.min(vf, Math.min(vg, vh));
+		int l = nstack.push( ite_rec(
+				(v == vf) ? low(f) : f, (v == vg) ? low(g) : g, (v == vh) ? low(h) : h));
+		int H = nstack.push( ite_rec(
+				(v == vf) ? high(f) : f, (v == vg) ? high(g) : g, (v == vh) ? high(h) : h));
+
+		l = mk(v, l, H);
+		nstack.drop(2);
+
+		ite_cache.insert(hash, f, g, h, l);
+		return comp ? neg(l) : l;
+	}
+
+	// ---- [ binary operations ] -----------------------------------------
+	// all binary operations are AND or XOR on (possibly negated) arguments, so they share the cache
+
+	public int and(int u1, int u2) {
+		nstack.push(u1);
+		nstack.push(u2);
+		int ret = and_rec(u1, u2);
+		nstack.drop(2);
+		return ret;
+	}
+
+	private final int and_rec(int u1, int u2) {
+		if(u1 == u2 || u2 == 1) return u1;
+		if(u1 == 0 || u2 == 0) return 0;
+		if(u1 == 1) return u2;
+		if(u1 == neg(u2)) return 0;
+
+		if(u1 > u2) { int tmp = u1; u1 = u2; u2 = tmp; } // one cache entry for (a,b) and (b,a)
+
+		if(op_cache.lookup(u1, u2, CACHE_AND)) return op_cache.answer;
+		int hash = op_cache.hash_value;
+
+		int v1 = var(u1), v2 = var(u2), v = Math.min(v1, v2);
+		int l = nstack.push( and_rec( (v == v1) ? low(u1) : u1, (v == v2) ? low(u2) : u2));
+		int h = nstack.push( and_rec( (v == v1) ? high(u1) : u1, (v == v2) ? high(u2) : u2));
+
+		l = mk(v, l, h);
+		nstack.drop(2);
+
+		op_cache.insert(hash, u1, u2, CACHE_AND, l);
+		return l;
+	}
+
+	public int nand(int u1, int u2) { return neg( and(u1, u2)); }
+	public int or(int u1, int u2) { return neg( and( neg(u1), neg(u2))); }
+	public int nor(int u1, int u2) { return and( neg(u1), neg(u2)); }
+	public int imp(int u1, int u2) { return neg( and(u1, neg(u2))); }
+	public int andNot(int u1, int u2) { return and(u1, neg(u2)); }
+
+	/** with complement edges, the subset test is a disjointness test against NOT u2 */
+	public boolean isSubset(int u1, int u2) { return disjoint_rec(u1, neg(u2)); }
+	public boolean isDisjoint(int u1, int u2) { return disjoint_rec(u1, u2); }
+
+	private final boolean disjoint_rec(int u1, int u2) {
+		if(u1 == 0 || u2 == 0 || u1 == neg(u2)) return true;
+		if(u1 == 1 || u2 == 1 || u1 == u2) return false;
+
+		if(u1 > u2) { int tmp = u1; u1 = u2; u2 = tmp; }
+		if(op_cache.lookup(u1, u2, CACHE_DISJOINT)) return op_cache.answer == 1;
+		int hash = op_cache.hash_value;
+
+		int v1 = var(u1), v2 = var(u2), v = Math.min(v1, v2);
+		boolean ret = disjoint_rec( (v == v1) ? low(u1) : u1, (v == v2) ? low(u2) : u2) &&
+				disjoint_rec( (v == v1) ? high(u1) : u1, (v == v2) ? high(u2) : u2);
+
+		op_cache.insert(hash, u1, u2, CACHE_DISJOINT, ret ? 1 : 0);
+		return ret;
+	}
+
+	/** both halves are ANDs here, so they share the AND cache */
+	public int [] split(int u1, int u2, int [] buffer) {
+		if(buffer == null) buffer = new int[2];
+		nstack.push(u1);
+		nstack.push(u2);
+		buffer[0] = nstack.push( and_rec(u1, u2));
+		buffer[1] = and_rec(u1, neg(u2));
+		nstack.drop(3);
+		return buffer;
+	}
+
+	public int xor(int u1, int u2) {
+		nstack.push(u1);
+		nstack.push(u2);
+		int ret = xor_rec(u1, u2);
+		nstack.drop(2);
+		return ret;
+	}
+
+	public int biimp(int u1, int u2) { return neg( xor(u1, u2)); }
+
+	private final int xor_rec(int u1, int u2) {
+		if(u1 == u2) return 0;
+		if(u1 == 0) return u2;
+		if(u2 == 0) return u1;
+		if(u1 == 1) return neg(u2);
+		if(u2 == 1) return neg(u1);
+		if(u1 == neg(u2)) return 1;
+
+		// (NOT a) XOR b = NOT (a XOR b), so only regular nodes go into the cache
+		boolean comp = (u1 < 0) != (u2 < 0);
+		u1 &= EDGE_REGULAR;
+		u2 &= EDGE_REGULAR;
+		if(u1 > u2) { int tmp = u1; u1 = u2; u2 = tmp; }
+
+		int l;
+		if(op_cache.lookup(u1, u2, CACHE_XOR)) {
+			l = op_cache.answer;
+		} else {
+			int hash = op_cache.hash_value;
+			int v1 = var(u1), v2 = var(u2), v = Math.min(v1, v2);
+			l = nstack.push( xor_rec( (v == v1) ? low(u1) : u1, (v == v2) ? low(u2) : u2));
+			int h = nstack.push( xor_rec( (v == v1) ? high(u1) : u1, (v == v2) ? high(u2) : u2));
+
+			l = mk(v, l, h);
+			nstack.drop(2);
+			op_cache.insert(hash, u1, u2, CACHE_XOR, l);
+		}
+		return comp ? neg(l) : l;
+	}
+
+	/** O(1), no new nodes are created */
+	public int not(int u1) {
+		return neg(u1);
+	}
+
+	// ---- [ quantification ] --------------------------------------------
+
+	public int exists(int bdd, int cube) {
+		if(cube == 1) return bdd;
+		Test.check(cube != 0, "Empty cube");
+		quant_id = CACHE_EXISTS;
+		quant_cube = cube;
+
+		varset(cube);
+		return quant_rec(bdd);
+	}
+
+	/** FORALL x. f = NOT EXISTS x. NOT f */
+	public int forall(int bdd, int cube) {
+		return neg( exists( neg(bdd), cube));
+	}
+
+	private final int quant_rec(int bdd) {
+		int var = var(bdd);
+		if(var > varset_last) return bdd; // this includes the constants
+
+		if(quant_cache.lookup(bdd, quant_cube, quant_id)) return quant_cache.answer;
+		int hash = quant_cache.hash_value;
+
+		int l = low(bdd);
+		int h = high(bdd);
+		if(varset_vec[ var ]) {
+			// we want the one closes to a terminal as l, so we can get an terminal answer earlier:
+			if(var(h) > var(l)) { int tmp = l; l = h; h = tmp; }
+
+			l = quant_rec(l);
+			if(l != 1) { // 1 OR x = 1
+				nstack.push(l);
+				h = nstack.push( quant_rec(h));
+				l = neg( and_rec( neg(l), neg(h)));
+				nstack.drop(2);
+			}
+		} else {
+			l = nstack.push( quant_rec(l));
+			h = nstack.push( quant_rec(h));
+			l = mk(var, l, h);
+			nstack.drop(2);
+		}
+
+		quant_cache.insert(hash, bdd, quant_cube, quant_id, l);
+		return l;
+	}
+
+	public int relProd(int u1, int u2, int c) {
+		if(c < 2) return and(u1, u2);
+
+		varset(c);
+		quant_id = CACHE_EXISTS;
+		quant_cube = c;
+		return relProd_rec(u1, u2);
+	}
+
+	private final int relProd_rec(int u1, int u2) {
+		if(u1 == 0 || u2 == 0) return 0;
+		if(u1 == u2 || u2 == 1) return quant_rec(u1);
+		if(u1 == 1) return quant_rec(u2);
+		if(u1 == neg(u2)) return 0;
+
+		if(u1 > u2) { int tmp = u1; u1 = u2; u2 = tmp; }
+		int v1 = var(u1), v2 = var(u2), v = Math.min(v1, v2);
+		if(v > varset_last) return and_rec(u1, u2);
+
+		if(relprod_cache.lookup(u1, u2, quant_cube)) return relprod_cache.answer;
+		int hash = relprod_cache.hash_value;
+
+		int l = nstack.push( relProd_rec( (v == v1) ? low(u1) : u1, (v == v2) ? low(u2) : u2));
+		if(!varset_vec[v] || l != 1) { // 1 OR x = 1
+			int h = nstack.push( relProd_rec( (v == v1) ? high(u1) : u1, (v == v2) ? high(u2) : u2));
+			l = varset_vec[v] ? neg( and_rec( neg(l), neg(h))) : mk(v, l, h);
+			nstack.pop();
+		}
+		nstack.pop();
+
+		relprod_cache.insert(hash, u1, u2, quant_cube, l);
+		return l;
+	}
+
+	// ---- [ replace ] ---------------------------------------------------
+
+	public int replace(int bdd, Permutation perm) {
+		perm_vec = perm.perm;
+		perm_last = perm.last;
+		perm_id = perm.id;
+		int ret = replace_rec(bdd);
+		perm_vec = null; // help GC ?
+		return ret;
+	}
+
+	private final int replace_rec(int bdd) {
+		if(var(bdd) > perm_last) return bdd;
+		if(bdd < 0) return neg( replace_rec( neg(bdd))); // replace(NOT f) = NOT replace(f)
+
+		if(replace_cache.lookup(bdd, perm_id)) return replace_cache.answer;
+		int hash = replace_cache.hash_value;
+
+		int l = nstack.push( replace_rec( low(bdd)));
+		int h = nstack.push( replace_rec( high(bdd)));
+		l = mkAndOrder(perm_vec[ var(bdd) ], l, h);
+		nstack.drop(2);
+
+		replace_cache.insert(hash, bdd, perm_id, l);
+		return l;
+	}
+
+	/** mk but with possible bad order between var and l or h */
+	private final int mkAndOrder(int var, int l, int h) {
+		int vl = var(l);
+		int vh = var(h);
+		if(var < vl && var < vh) return mk(var, l, h);
+
+		Test.check(var != vl && var != vh, "Replacing to a variable already in the BDD");
+
+		int x, y, v = vl;
+		if(vl == vh) {
+			x = nstack.push( mkAndOrder(var, low(l), low(h)));
+			y = nstack.push( mkAndOrder(var, high(l), high(h)));
+		} else if(vl < vh) {
+			x = nstack.push( mkAndOrder(var, low(l), h));
+			y = nstack.push( mkAndOrder(var, high(l), h));
+		} else {
+			x = nstack.push( mkAndOrder(var, l, low(h)));
+			y = nstack.push( mkAndOrder(var, l, high(h)));
+			v = vh;
+		}
+		x = mk(v, x, y);
+		nstack.drop(2);
+		return x;
+	}
+
+	// ---- [ restrict & simplify ] ---------------------------------------
+
+	public int restrict(int u, int v) {
+		if(v == 1) return u;
+
+		varset_signed(v);
+		restrict_careset = v;
+		return restrict_rec(u);
+	}
+
+	/** varset_signed() of BDD, but the literals of v may be complemented edges */
+	protected void varset_signed(int bdd) {
+		Test.check(!isConst(bdd), "BAD varset");
+
+		for(int i = 0; i < num_vars; i++) varset_vec[i] = false;
+		while(!isConst(bdd)) {
+			varset_last = var(bdd);
+			varset_vec[varset_last] = true;
+			sign_vec[varset_last] = (low(bdd) == 0);
+			bdd = sign_vec[varset_last] ? high(bdd) : low(bdd);
+		}
+	}
+
+	private final int restrict_rec(int u) {
+		if(var(u) > varset_last) return u;
+		if(u < 0) return neg( restrict_rec( neg(u))); // restrict(NOT u) = NOT restrict(u)
+
+		if(op_cache.lookup(u, restrict_careset, CACHE_RESTRICT)) return op_cache.answer;
+		int hash = op_cache.hash_value;
+
+		int ret, var = var(u);
+		if(varset_vec[var]) {
+			ret = restrict_rec( sign_vec[var] ? high(u) : low(u));
+		} else {
+			int l = nstack.push( restrict_rec( low(u)));
+			int h = nstack.push( restrict_rec( high(u)));
+			ret = mk(var, l, h);
+			nstack.drop(2);
+		}
+
+		op_cache.insert(hash, u, restrict_careset, CACHE_RESTRICT, ret);
+		return ret;
+	}
+
+	/** BDD.simplify() on complemented edges: both d and u are split with low()/high(), which push the complement down */
+	public int simplify(int d, int u) {
+		if(d == 0) return 0;
+		if(isConst(u)) return u;
+
+		int vd = var(d), vu = var(u), l, h;
+		if(d == 1 || vd > vu) {
+			l = nstack.push( simplify(d, low(u)));
+			h = nstack.push( simplify(d, high(u)));
+			h = mk(vu, l, h);
+		} else if(vd == vu) {
+			if(low(d) == 0) return simplify( high(d), high(u));
+			if(high(d) == 0) return simplify( low(d), low(u));
+
+			l = nstack.push( simplify( low(d), low(u)));
+			h = nstack.push( simplify( high(d), high(u)));
+			h = mk(vu, l, h);
+		} else { // vd < vu
+			l = nstack.push( simplify( low(d), u));
+			h = nstack.push( simplify( high(d), u));
+			h = mk(vd, l, h);
+		}
+		nstack.drop(2);
+		return h;
+	}
+
+	// ---- [ SAT stuff ] -------------------------------------------------
+
+	protected double satCount_rec(int bdd) {
+		if(isConst(bdd)) return bdd;
+
+		// only regular nodes in the cache. NOT f has all the assignments below its variable that f has not
+		if(bdd < 0) return Math.pow(2, num_vars - var(bdd)) - satCount_rec( neg(bdd));
+
+		if(sat_cache.lookup(bdd)) return sat_cache.answer;
+		int hash = sat_cache.hash_value;
+
+		int low = low(bdd);
+		int high = high(bdd);
+
+		double ret = (satCount_rec(low) * Math.pow(2, var(low)  - var(bdd)  -1)) +
+				(satCount_rec(high) * Math.pow(2, var(high) - var(bdd)  -1));
+
+		sat_cache.insert(hash, bdd, ret);
+		return ret;
+	}
+
+	public int oneSat(int bdd) {
+		if(isConst(bdd)) return bdd;
+
+		if(low(bdd) == 0) {
+			int high = nstack.push( oneSat( high(bdd)));
+			int u = mk( var(bdd), 0, high);
+			nstack.pop();
+			return u;
+		} else {
+			int low = nstack.push( oneSat( low(bdd)));
+			int u = mk( var(bdd), low, 0);
+			nstack.pop();
+			return u;
+		}
+	}
+
+	protected void oneSat_rec(int bdd) {
+		if(isConst(bdd)) return;
+
+		if(low(bdd) == 0) {
+			oneSat_buffer[ var(bdd) ] = 1;
+			oneSat_rec( high(bdd));
+		} else {
+			oneSat_buffer[ var(bdd) ] = 0;
+			oneSat_rec( low(bdd));
+		}
+	}
+
+	public boolean member(int bdd, boolean [] minterm) {
+		while(!isConst(bdd))
+			bdd = (minterm[var(bdd)]) ? high(bdd) : low(bdd);
+		return bdd == 1;
+	}
+
+	// ---- [ node count & support ] --------------------------------------
+	// these work on the stored nodes: f and NOT f have the same nodes
+
+	public int nodeCount(int bdd) {
+		node_count_int = 0;
+		nodeCount_mark(bdd);
+		unmark_tree(bdd);
+		return node_count_int;
+	}
+
+	private final void nodeCount_mark(int bdd) {
+		bdd &= EDGE_REGULAR;
+		if(bdd < 2) return;
+
+		if( isNodeMarked(bdd)) return;
+		mark_node(bdd);
+		node_count_int++;
+		nodeCount_mark( low(bdd));
+		nodeCount_mark( high(bdd));
+	}
+
+	public int quasiReducedNodeCount(int bdd) {
+		if(isConst(bdd)) return 0;
+		return 1 + quasiReducedNodeCount( low(bdd)) + quasiReducedNodeCount( high(bdd));
+	}
+
+	public int support(int bdd) {
+		Array.set(support_buffer, false);
+
+		support_rec(bdd);
+		unmark_tree(bdd);
+		return cube(support_buffer);
+	}
+
+	private final void support_rec(int bdd) {
+		bdd &= EDGE_REGULAR;
+		if(bdd < 2) return;
+
+		if( isNodeMarked(bdd)) return;
+		support_buffer[ var(bdd) ] = true;
+		mark_node(bdd);
+
+		support_rec( low(bdd));
+		support_rec( high(bdd));
+	}
+}
@@ -0,0 +1,686 @@
+package jdd.bdd;
+
+import jdd.util.*;
+import jdd.util.math.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A BDD manager that can be shared by many threads.
+ * <p>All threads work in one node space, so node ids are comparable between threads.
+ * New nodes are allocated with a bump pointer and published in a lock-free (CAS based)
+ * open addressing unique table. Each thread has its own operation cache, or all threads
+ * share one lock-free cache if bddSharedCache was set in the settings of the manager.
+ * <p>The operations and, or, xor, biimp, not, ite, exists, forall, mk and nodeCount are thread-safe.
+ * The other operations inherited from BDD are not, they may only be used when no other thread
+ * is working on the manager.
+ * <p>Nodes are never freed: <tt>ref</tt>/<tt>deref</tt> are allowed but have no effect and <tt>gc()</tt> does nothing.
+ * When the node table is full, the running operations are aborted, the table is grown
+ * (this is the only time all threads are stopped) and the operations are restarted.
+ * Since node ids never change, the caches remain valid after a grow.
+ * <p>and, or and ite can also run in parallel: the two cofactor recursions of the
+ * top <tt>parallel_depth</tt> levels are forked onto a work-stealing pool, below that
+ * the sequential code is used. This is for speeding up single large operations.
+ *
+ * @see #setParallelDepth
+ * @see BDD
+ */
+
+public class ConcurrentBDD extends BDD {
+
+	/** thrown from inside an operation when there is no room for a new node */
+	private static final class TableFull extends RuntimeException {
+		TableFull() { super(null, null, false, false); }
+	}
+	private static final TableFull TABLE_FULL = new TableFull();
+
+	/** for the per-thread cache */
+	private static final int OP_AND = 0, OP_OR = 1, OP_XOR = 2, OP_BIIMP = 3, OP_NOT = 4;
+	private static final int OP_ITE = 5, OP_EXISTS = 6, OP_FORALL = 7;
+	private static final int OP_ANDNOT = 8, OP_SUBSET = 9, OP_DISJOINT = 10;
+
+	/**
+	 * per-thread state: a direct mapped operation cache and a node left over from a lost CAS race.
+	 * if the cache is shared, the own arrays are not used
+	 */
+	private static final class Worker {
+		final int [] keys; /** (a, b, c, op) for each entry */
+		final int [] values;
+		final int mask;
+		final ConcurrentCache shared;
+		int spare = -1;
+
+		Worker(int size, ConcurrentCache shared) {
+			this.shared = shared;
+			if(shared != null) size = 1;
+			size = Integer.highestOneBit(Math.max(size, 64) - 1) << 1; // power of two
+			mask = size - 1;
+			keys = Allocator.allocateIntArray(size * 4);
+			values = Allocator.allocateIntArray(size);
+			Arrays.fill(keys, -1);
+		}
+
+		final int hash(int a, int b, int c, int op) {
+			if(shared != null) return shared.hash(a, b, c, op);
+			return HashFunctions.mix_wang(HashFunctions.hash_prime(a, b, c) + op) & mask;
+		}
+
+		/** @return the cached result or -1 */
+		final int lookup(int hash, int a, int b, int c, int op) {
+			if(shared != null) return shared.lookup(hash, a, b, c, op);
+			int o = hash * 4;
+			if(keys[o] == a && keys[o+1] == b && keys[o+2] == c && keys[o+3] == op) return values[hash];
+			return -1;
+		}
+
+		final void insert(int hash, int a, int b, int c, int op, int ret) {
+			if(shared != null) {
+				shared.insert(hash, a, b, c, op, ret);
+				return;
+			}
+			int o = hash * 4;
+			keys[o] = a; keys[o+1] = b; keys[o+2] = c; keys[o+3] = op;
+			values[hash] = ret;
+		}
+	}
+
+	private final ReentrantReadWriteLock rw_lock = new ReentrantReadWriteLock();
+	private AtomicIntegerArray u_table; /** the unique table, 0 means empty */
+	private int u_mask;
+	private final AtomicInteger next_node; /** the next never-used node */
+	private final int worker_cache_size;
+	private final ConcurrentCache shared_cache; /** the cache of all threads, null if each has its own */
+	private final ThreadLocal<Worker> workers;
+	private ForkJoinPool fork_pool;
+	private volatile int parallel_depth; /** number of levels to fork, 0 = sequential */
+
+	public ConcurrentBDD(int nodesize) { this(nodesize, Configuration.DEFAULT_BDD_CACHE_SIZE); }
+
+	public ConcurrentBDD(int nodesize, int cache_size) {
+		this(nodesize, cache_size, new Settings());
+	}
+
+	public ConcurrentBDD(int nodesize, int cache_size, Settings settings) {
+		super(nodesize, cache_size, settings);
+
+		t_list = null; o_list = null; // we use our own unique table
+		next_node = new AtomicInteger(2);
+		create_unique_table(table_size);
+
+		worker_cache_size = cache_size;
+		// the shared cache gets the room that the per-thread caches would have had together
+		shared_cache = settings.bddSharedCache
+				? new ConcurrentCache(cache_size * Runtime.getRuntime().availableProcessors()) : null;
+		workers = new ThreadLocal<Worker>() {
+			protected Worker initialValue() { return new Worker(worker_cache_size, shared_cache); }
+		};
+	}
+
+	/** returns true if all threads use the same operation cache */
+	public boolean isCacheShared() { return shared_cache != null; }
+
+	/** allocate an empty unique table for at least <tt>nodes</tt> nodes, it is never more than half full */
+	private void create_unique_table(int nodes) {
+		int size = Integer.highestOneBit(nodes) << 2;
+		u_table = new AtomicIntegerArray(size);
+		u_mask = size - 1;
+	}
+
+	// ---------------------------------------------------------------
+	// node allocation
+
+	private final int u_hash(int v, int l, int h) {
+		return HashFunctions.mix_wang(HashFunctions.hash_prime(v, l, h)) & u_mask;
+	}
+
+	/**
+	 * find or create the node (v,l,h). must be called with the read lock held.
+	 * @return the node, or -1 if the node table is full
+	 */
+	private int insert(Worker w, int v, int l, int h) {
+		final AtomicIntegerArray table = u_table;
+		int pos = u_hash(v, l, h);
+		int node = -1; // our new node, not yet visible to the others
+
+		for(;;) {
+			int curr = table.get(pos);
+			if(curr == 0) {
+				if(node == -1) {
+					node = w.spare;
+					w.spare = -1;
+					if(node == -1) {
+						node = next_node.getAndIncrement();
+						if(node >= table_size) return -1;
+					}
+					setAll(node, v, l, h, MAX_REFCOUNT); // written before it is published below
+				}
+				if(table.compareAndSet(pos, 0, node)) return node;
+				continue; // someone else got this slot, look at it again
+			}
+
+			if(match_table(curr, v, l, h)) {
+				if(node != -1) w.spare = node; // lost the race, keep the node for later
+				return curr;
+			}
+			pos = (pos + 1) & u_mask;
+		}
+	}
+
+	/** mk() for the recursive operations */
+	private final int mk_rec(Worker w, int v, int l, int h) {
+		if(l == h) return l;
+		int ret = insert(w, v, l, h);
+		if(ret == -1) throw TABLE_FULL;
+		return ret;
+	}
+
+	/** the single-threaded code paths in BDD (and mk) end up here */
+	public int add(int v, int l, int h) {
+		Worker w = workers.get();
+		for(;;) {
+			rw_lock.readLock().lock();
+			try {
+				int ret = insert(w, v, l, h);
+				if(ret != -1) return ret;
+			} finally {
+				rw_lock.readLock().unlock();
+			}
+			grow_shared();
+		}
+	}
+
+	/** grow the node table and rebuild the unique table. all operations are stopped meanwhile */
+	private void grow_shared() {
+		rw_lock.writeLock().lock();
+		try {
+			int old_size = table_size;
+			if(next_node.get() < old_size) return; // someone else has already done it
+
+			long time = System.currentTimeMillis();
+			stat_nt_grow++;
+
+			// nothing is ever freed here, so we grow geometrically to keep the number of re-hashes down
+			int new_size = old_size + Math.max(old_size, compute_increase_limit(old_size));
+
+			// nothing can be collected either, so at the budget the only way out is to give up
+			if(max_nodes > 0 && new_size > max_nodes) {
+				if(old_size >= max_nodes) {
+					stat_overflow_count++;
+					throw new NodeTableFullException(old_size, max_nodes);
+				}
+				new_size = max_nodes;
+			}
+			resize_nodes(old_size, new_size);
+			table_size = new_size;
+			next_node.set(old_size); // forget the ids handed out after the table got full
+
+			// re-insert everything. spare nodes are not in the table, so they are skipped
+			AtomicIntegerArray old_table = u_table;
+			create_unique_table(new_size);
+			for(int i = old_table.length(); i != 0; ) {
+				i--;
+				int node = old_table.get(i);
+				if(node == 0) continue;
+				int pos = u_hash(getVar(node), getLow(node), getHigh(node));
+				while(u_table.get(pos) != 0) pos = (pos + 1) & u_mask;
+				u_table.set(pos, node);
+			}
+
+			update_grow_parameters();
+			stat_grow_time += System.currentTimeMillis() - time;
+
+			if(Options.verbose) {
+				JDDConsole.out.printf("Concurrent node-table grown to %d nodes, time=%d\n", table_size, stat_grow_time);
+			}
+		} finally {
+			rw_lock.writeLock().unlock();
+		}
+	}
+
+	// ---------------------------------------------------------------
+	// parallel apply
+
+	/**
+	 * fork the cofactor recursions of and/or/ite in the top <tt>depth</tt> levels.
+	 * 0 (the default) disables the parallel mode.
+	 * <p>this pays off for a few very large operations, not for many small ones in many threads.
+	 */
+	public void setParallelDepth(int depth) {
+		if(depth > 0 && fork_pool == null) fork_pool = ForkJoinPool.commonPool();
+		parallel_depth = Math.max(depth, 0);
+	}
+
+	public int getParallelDepth() { return parallel_depth; }
+
+	/** one forked cofactor recursion */
+	private final class ParallelApply extends RecursiveTask<Integer> {
+		private final int op, f, g, h, depth;
+
+		ParallelApply(int op, int f, int g, int h, int depth) {
+			this.op = op; this.f = f; this.g = g; this.h = h; this.depth = depth;
+		}
+
+		protected Integer compute() {
+			return par_rec(workers.get(), op, f, g, h, depth);
+		}
+	}
+
+	/** start a parallel operation, the caller holds the read lock during the whole operation */
+	private int par_apply(Worker w, int op, int f, int g, int h) {
+		if(ForkJoinTask.inForkJoinPool()) return par_rec(w, op, f, g, h, 0);
+		return fork_pool.invoke(new ParallelApply(op, f, g, h, 0));
+	}
+
+	private int par_rec(Worker w, int op, int f, int g, int h, int depth) {
+		// below the cut-off and for the terminal cases we use the sequential code
+		if(depth >= parallel_depth || f < 2 || g < 2 || f == g || (op == OP_ITE && (h < 2 || g == h)))
+			return seq_rec(w, op, f, g, h);
+
+		if(op != OP_ITE && f > g) { int tmp = f; f = g; g = tmp; }
+		int hash = w.hash(f, g, h, op);
+		int ret = w.lookup(hash, f, g, h, op);
+		if(ret != -1) return ret;
+
+		int v = Math.min(getVar(f), getVar(g));
+		if(op == OP_ITE) v = Math.min(v, getVar(h));
+		int f0 = f, f1 = f, g0 = g, g1 = g, h0 = h, h1 = h;
+		if(getVar(f) == v) { f0 = getLow(f); f1 = getHigh(f); }
+		if(getVar(g) == v) { g0 = getLow(g); g1 = getHigh(g); }
+		if(op == OP_ITE && getVar(h) == v) { h0 = getLow(h); h1 = getHigh(h); }
+
+		ParallelApply low = new ParallelApply(op, f0, g0, h0, depth + 1);
+		low.fork();
+		int high;
+		try {
+			high = par_rec(w, op, f1, g1, h1, depth + 1);
+		} catch(TableFull full) {
+			low.quietlyJoin(); // no task may be running when we give up the read lock
+			throw full;
+		}
+		int l = low.join();
+
+		ret = mk_rec(w, v, l, high);
+		w.insert(hash, f, g, h, op, ret);
+		return ret;
+	}
+
+	private final int seq_rec(Worker w, int op, int f, int g, int h) {
+		switch(op) {
+			case OP_AND: return and_rec(w, f, g);
+			case OP_OR: return or_rec(w, f, g);
+			default: return ite_rec(w, f, g, h);
+		}
+	}
+
+	// ---------------------------------------------------------------
+	// thread-safe operations
+
+	public int and(int u1, int u2) { return apply(OP_AND, u1, u2, 0); }
+	public int or(int u1, int u2) { return apply(OP_OR, u1, u2, 0); }
+	public int xor(int u1, int u2) { return apply(OP_XOR, u1, u2, 0); }
+	public int biimp(int u1, int u2) { return apply(OP_BIIMP, u1, u2, 0); }
+	public int not(int u1) { return apply(OP_NOT, u1, 0, 0); }
+	public int ite(int f, int then_, int else_) { return apply(OP_ITE, f, then_, else_); }
+	public int andNot(int u1, int u2) { return apply(OP_ANDNOT, u1, u2, 0); }
+	public boolean isSubset(int u1, int u2) { return apply(OP_SUBSET, u1, u2, 0) == 1; }
+	public boolean isDisjoint(int u1, int u2) { return apply(OP_DISJOINT, u1, u2, 0) == 1; }
+
+	/** we have our own unique table */
+	protected boolean can_reorder() { return false; }
+
+	/** two operations here, but they share the per-thread cache with and() and andNot() */
+	public int [] split(int u1, int u2, int [] buffer) {
+		if(buffer == null) buffer = new int[2];
+		buffer[0] = apply(OP_AND, u1, u2, 0);
+		buffer[1] = apply(OP_ANDNOT, u1, u2, 0);
+		return buffer;
+	}
+
+	public int exists(int bdd, int cube) {
+		if(cube == 1) return bdd;
+		Test.check(cube != 0, "Empty cube");
+		return apply(OP_EXISTS, bdd, cube, 0);
+	}
+
+	public int forall(int bdd, int cube) {
+		if(cube == 1) return bdd;
+		Test.check(cube != 0, "Empty cube");
+		return apply(OP_FORALL, bdd, cube, 0);
+	}
+
+	/** run an operation under the read lock, grow and restart it if the node table gets full */
+	private int apply(int op, int a, int b, int c) {
+		Worker w = workers.get();
+		for(;;) {
+			rw_lock.readLock().lock();
+			try {
+				if(parallel_depth > 0 && (op == OP_AND || op == OP_OR || op == OP_ITE))
+					return par_apply(w, op, a, b, c);
+
+				switch(op) {
+					case OP_AND: return and_rec(w, a, b);
+					case OP_OR: return or_rec(w, a, b);
+					case OP_XOR: return xor_rec(w, a, b);
+					case OP_BIIMP: return not_rec(w, xor_rec(w, a, b));
+					case OP_NOT: return not_rec(w, a);
+					case OP_ITE: return ite_rec(w, a, b, c);
+					case OP_EXISTS: return quant_rec(w, a, b, false);
+					case OP_FORALL: return quant_rec(w, a, b, true);
+					case OP_ANDNOT: return andnot_rec(w, a, b);
+					case OP_SUBSET: return subset_rec(w, a, b) ? 1 : 0;
+					case OP_DISJOINT: return disjoint_rec(w, a, b) ? 1 : 0;
+				}
+			} catch(TableFull full) {
+				// fall through and grow
+			} finally {
+				rw_lock.readLock().unlock();
+			}
+			grow_shared();
+		}
+	}
+
+	private final int and_rec(Worker w, int u1, int u2) {
+		if(u1 == u2 || u2 == 1) return u1;
+		if(u1 == 0 || u2 == 0) return 0;
+		if(u1 == 1) return u2;
+
+		if(u1 > u2) { int tmp = u1; u1 = u2; u2 = tmp; }
+		int hash = w.hash(u1, u2, 0, OP_AND);
+		int ret = w.lookup(hash, u1, u2, 0, OP_AND);
+		if(ret != -1) return ret;
+
+		int v1 = getVar(u1), v2 = getVar(u2), l, h, v;
+		if(v1 == v2) {
+			v = v1;
+			l = and_rec(w, getLow(u1), getLow(u2));
+			h = and_rec(w, getHigh(u1), getHigh(u2));
+		} else if(v1 < v2) {
+			v = v1;
+			l = and_rec(w, getLow(u1), u2);
+			h = and_rec(w, getHigh(u1), u2);
+		} else {
+			v = v2;
+			l = and_rec(w, u1, getLow(u2));
+			h = and_rec(w, u1, getHigh(u2));
+		}
+
+		ret = mk_rec(w, v, l, h);
+		w.insert(hash, u1, u2, 0, OP_AND, ret);
+		return ret;
+	}
+
+	private final int or_rec(Worker w, int u1, int u2) {
+		if(u1 == u2 || u2 == 0) return u1;
+		if(u1 == 1 || u2 == 1) return 1;
+		if(u1 == 0) return u2;
+
+		if(u1 > u2) { int tmp = u1; u1 = u2; u2 = tmp; }
+		int hash = w.hash(u1, u2, 0, OP_OR);
+		int ret = w.lookup(hash, u1, u2, 0, OP_OR);
+		if(ret != -1) return ret;
+
+		int v1 = getVar(u1), v2 = getVar(u2), l, h, v;
+		if(v1 == v2) {
+			v = v1;
+			l = or_rec(w, getLow(u1), getLow(u2));
+			h = or_rec(w, getHigh(u1), getHigh(u2));
+		} else if(v1 < v2) {
+			v = v1;
+			l = or_rec(w, getLow(u1), u2);
+			h = or_rec(w, getHigh(u1), u2);
+		} else {
+			v = v2;
+			l = or_rec(w, u1, getLow(u2));
+			h = or_rec(w, u1, getHigh(u2));
+		}
+
+		ret = mk_rec(w, v, l, h);
+		w.insert(hash, u1, u2, 0, OP_OR, ret);
+		return ret;
+	}
+
+	private final int xor_rec(Worker w, int u1, int u2) {
+		if(u1 == u2) return 0;
+		if(u1 == 0) return u2;
+		if(u2 == 0) return u1;
+		if(u1 == 1) return not_rec(w, u2);
+		if(u2 == 1) return not_rec(w, u1);
+
+		if(u1 > u2) { int tmp = u1; u1 = u2; u2 = tmp; }
+		int hash = w.hash(u1, u2, 0, OP_XOR);
+		int ret = w.lookup(hash, u1, u2, 0, OP_XOR);
+		if(ret != -1) return ret;
+
+		int v1 = getVar(u1), v2 = getVar(u2), l, h, v;
+		if(v1 == v2) {
+			v = v1;
+			l = xor_rec(w, getLow(u1), getLow(u2));
+			h = xor_rec(w, getHigh(u1), getHigh(u2));
+		} else if(v1 < v2) {
+			v = v1;
+			l = xor_rec(w, getLow(u1), u2);
+			h = xor_rec(w, getHigh(u1), u2);
+		} else {
+			v = v2;
+			l = xor_rec(w, u1, getLow(u2));
+			h = xor_rec(w, u1, getHigh(u2));
+		}
+
+		ret = mk_rec(w, v, l, h);
+		w.insert(hash, u1, u2, 0, OP_XOR, ret);
+		return ret;
+	}
+
+	private final int andnot_rec(Worker w, int u1, int u2) {
+		if(u1 == 0 || u2 == 1 || u1 == u2) return 0;
+		if(u2 == 0) return u1;
+		if(u1 == 1) return not_rec(w, u2);
+
+		int hash = w.hash(u1, u2, 0, OP_ANDNOT);
+		int ret = w.lookup(hash, u1, u2, 0, OP_ANDNOT);
+		if(ret != -1) return ret;
+
+		int v1 = getVar(u1), v2 = getVar(u2), v = Math.min(v1, v2);
+		int l = andnot_rec(w, (v == v1) ? getLow(u1) : u1, (v == v2) ? getLow(u2) : u2);
+		int h = andnot_rec(w, (v == v1) ? getHigh(u1) : u1, (v == v2) ? getHigh(u2) : u2);
+
+		ret = mk_rec(w, v, l, h);
+		w.insert(hash, u1, u2, 0, OP_ANDNOT, ret);
+		return ret;
+	}
+
+	/** no nodes are created here, so these never throw TableFull */
+	private final boolean subset_rec(Worker w, int u1, int u2) {
+		if(u1 == 0 || u2 == 1 || u1 == u2) return true;
+		if(u1 == 1 || u2 == 0) return false;
+
+		int hash = w.hash(u1, u2, 0, OP_SUBSET);
+		int ret = w.lookup(hash, u1, u2, 0, OP_SUBSET);
+		if(ret != -1) return ret == 1;
+
+		int v1 = getVar(u1), v2 = getVar(u2), v = Math.min(v1, v2);
+		boolean sub = subset_rec(w, (v == v1) ? getLow(u1) : u1, (v == v2) ? getLow(u2) : u2) &&
+				subset_rec(w, (v == v1) ? getHigh(u1) : u1, (v == v2) ? getHigh(u2) : u2);
+
+		w.insert(hash, u1, u2, 0, OP_SUBSET, sub ? 1 : 0);
+		return sub;
+	}
+
+	private final boolean disjoint_rec(Worker w, int u1, int u2) {
+		if(u1 == 0 || u2 == 0) return true;
+		if(u1 == 1 || u2 == 1 || u1 == u2) return false;
+
+		if(u1 > u2) { int tmp = u1; u1 = u2; u2 = tmp; }
+		int hash = w.hash(u1, u2, 0, OP_DISJOINT);
+		int ret = w.lookup(hash, u1, u2, 0, OP_DISJOINT);
+		if(ret != -1) return ret == 1;
+
+		int v1 = getVar(u1), v2 = getVar(u2), v = Math.min(v1, v2);
+		boolean dis = disjoint_rec(w, (v == v1) ? getLow(u1) : u1, (v == v2) ? getLow(u2) : u2) &&
+				disjoint_rec(w, (v == v1) ? getHigh(u1) : u1, (v == v2) ? getHigh(u2) : u2);
+
+		w.insert(hash, u1, u2, 0, OP_DISJOINT, dis ? 1 : 0);
+		return dis;
+	}
+
+	private final int not_rec(Worker w, int u) {
+		if(u < 2) return 1 - u;
+
+		int hash = w.hash(u, 0, 0, OP_NOT);
+		int ret = w.lookup(hash, u, 0, 0, OP_NOT);
+		if(ret != -1) return ret;
+
+		int l = not_rec(w, getLow(u));
+		int h = not_rec(w, getHigh(u));
+		ret = mk_rec(w, getVar(u), l, h);
+		w.insert(hash, u, 0, 0, OP_NOT, ret);
+		return ret;
+	}
+
+	private final int ite_rec(Worker w, int f, int g, int h) {
+		if(f == 1) return g;
+		if(f == 0) return h;
+		if(g == h) return g;
+		if(g == 1 && h == 0) return f;
+		if(g == 0 && h == 1) return not_rec(w, f);
+		if(g == 1) return or_rec(w, f, h);
+		if(h == 0) return and_rec(w, f, g);
+
+		int hash = w.hash(f, g, h, OP_ITE);
+		int ret = w.lookup(hash, f, g, h, OP_ITE);
+		if(ret != -1) return ret;
+
+		int v = Math.min(getVar(f), Math.min(getVar(g), getVar(h)));
+		int l = ite_rec(w,
+				getVar(f) == v ? getLow(f) : f,
+				getVar(g) == v ? getLow(g) : g,
+				getVar(h) == v ? getLow(h) : h);
+		int hi = ite_rec(w,
+				getVar(f) == v ? getHigh(f) : f,
+				getVar(g) == v ? getHigh(g) : g,
+				getVar(h) == v ? getHigh(h) : h);
+
+		ret = mk_rec(w, v, l, hi);
+		w.insert(hash, f, g, h, OP_ITE, ret);
+		return ret;
+	}
+
+	/** exists (conj = false) or forall (conj = true) */
+	private final int quant_rec(Worker w, int bdd, int cube, boolean conj) {
+		if(bdd < 2) return bdd;
+
+		// skip the cube variables above bdd
+		int var = getVar(bdd);
+		while(cube > 1 && getVar(cube) < var) cube = getHigh(cube);
+		if(cube < 2) return bdd;
+
+		int op = conj ? OP_FORALL : OP_EXISTS;
+		int hash = w.hash(bdd, cube, 0, op);
+		int ret = w.lookup(hash, bdd, cube, 0, op);
+		if(ret != -1) return ret;
+
+		if(getVar(cube) == var) {
+			int next = getHigh(cube);
+			int l = quant_rec(w, getLow(bdd), next, conj);
+			if((conj && l == 0) || (!conj && l == 1)) {
+				ret = l; // early termination
+			} else {
+				int h = quant_rec(w, getHigh(bdd), next, conj);
+				ret = conj ? and_rec(w, l, h) : or_rec(w, l, h);
+			}
+		} else {
+			int l = quant_rec(w, getLow(bdd), cube, conj);
+			int h = quant_rec(w, getHigh(bdd), cube, conj);
+			ret = mk_rec(w, var, l, h);
+		}
+
+		w.insert(hash, bdd, cube, 0, op, ret);
+		return ret;
+	}
+
+	/** count the nodes without using the (shared) mark bits */
+	public int nodeCount(int bdd) {
+		BitSet seen = new BitSet();
+		NodeStack stack = new NodeStack(32);
+		int count = 0;
+
+		if(bdd > 1) stack.push(bdd);
+		while(stack.getTOS() > 0) {
+			int u = stack.pop();
+			if(seen.get(u)) continue;
+			seen.set(u);
+			count++;
+
+			int l = getLow(u), h = getHigh(u);
+			if(stack.getTOS() + 2 > stack.getCapacity()) stack.grow(stack.getCapacity() * 2);
+			if(l > 1 && !seen.get(l)) stack.push(l);
+			if(h > 1 && !seen.get(h)) stack.push(h);
+		}
+		return count;
+	}
+
+	// ---------------------------------------------------------------
+
+	/** variables are created with all other threads stopped */
+	public int createVar() {
+		rw_lock.writeLock().lock();
+		try {
+			return super.createVar();
+		} finally {
+			rw_lock.writeLock().unlock();
+		}
+	}
+
+	/** the hash chains are not used here, a packed node would only waste its next member */
+	protected boolean use_packed_layout() { return false; }
+
+	/** we have our own (lock-free) open addressing table, chains are set up by NodeTable and then dropped */
+	protected boolean use_open_addressing() { return false; }
+
+	/** nodes are never freed in a shared manager */
+	public int gc() { return 0; }
+
+	/** nothing is ever freed, so nothing can be moved either */
+	public int compact(NodeRemapper remapper) { return 0; }
+
+	/** add() grows the table by itself when it is full, and nothing is collected meanwhile */
+	public void reserve(int nodes) { }
+
+	public void freeze() {
+		Test.check(false, "a ConcurrentBDD is already shared and cannot be used as an overlay base");
+	}
+
+	/** nodes are never freed one by one, the workers may hold any of them */
+	public void mark() {
+		Test.check(false, "a ConcurrentBDD cannot be rolled back");
+	}
+
+	public int rollback() {
+		Test.check(false, "a ConcurrentBDD cannot be rolled back");
+		return 0;
+	}
+
+	public BDD snapshot(boolean keep_caches) {
+		Test.check(false, "a ConcurrentBDD is already shared and cannot be copied");
+		return null;
+	}
+
+	public long getMemoryUsage() {
+		long ret = super.getMemoryUsage();
+		if(u_table != null) ret += u_table.length() * 4L;
+		if(shared_cache != null) ret += shared_cache.getMemoryUsage();
+		return ret;
+	}
+
+	public void cleanup() {
+		super.cleanup();
+		u_table = null;
+	}
+}
@@ -0,0 +1,80 @@
+package jdd.bdd;
+
+import jdd.util.math.*;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * An operation cache that many threads can use at the same time, without locks.
+ * <p>Unlike SimpleCache, a lookup returns its result (or -1) instead of leaving it in a shared
+ * field, and the hash value is handed back to the caller. Entries are (a, b, c, op) =&gt; value.
+ * <p>Nothing is ever invalidated, so this is only for managers that never free nodes.
+ *
+ * @see ConcurrentBDD
+ * @see SimpleCache
+ */
+
+// each entry is four longs: [seq, a:b, c:op, value]. it is written under its own sequence
+// number (a seqlock): the writer makes seq odd, writes the entry and makes it even again.
+// a reader that sees an odd seq, or a different seq after reading the entry, reports a miss.
+// a writer that finds the entry busy just drops its insert, it is only a cache after all.
+
+public final class ConcurrentCache {
+	private static final int WIDTH = 4, SEQ = 0, KEY1 = 1, KEY2 = 2, VALUE = 3;
+	private static final long EMPTY = -1L; /** the key of an unused entry, (-1,-1) is never looked up */
+
+	private final AtomicLongArray data;
+	private final int mask, cache_size;
+
+	public ConcurrentCache(int size) {
+		cache_size = Integer.highestOneBit(Math.max(size, 64) - 1) << 1; // power of two
+		mask = cache_size - 1;
+		data = new AtomicLongArray(cache_size * WIDTH);
+		for(int i = 0; i < cache_size; i++) data.setPlain(i * WIDTH + KEY1, EMPTY);
+	}
+
+	private static final long pack(int hi, int lo) {
+		return ((long) hi << 32) | (lo & 0xFFFFFFFFL);
+	}
+
+	/** the entry (a, b, c, op) belongs to */
+	public final int hash(int a, int b, int c, int op) {
+		return HashFunctions.mix_wang(HashFunctions.hash_prime(a, b, c) + op) & mask;
+	}
+
+	/** @return the cached result or -1 */
+	public final int lookup(int hash, int a, int b, int c, int op) {
+		final int o = hash * WIDTH;
+		long seq = data.getAcquire(o + SEQ);
+		if((seq & 1) != 0) return -1; // someone is writing it
+
+		long k1 = data.getPlain(o + KEY1), k2 = data.getPlain(o + KEY2), value = data.getPlain(o + VALUE);
+		VarHandle.acquireFence(); // the entry is read before seq is checked again
+		if(data.getPlain(o + SEQ) != seq) return -1;
+
+		if(k1 != pack(a, b) || k2 != pack(c, op)) return -1;
+		return (int) value;
+	}
+
+	public final void insert(int hash, int a, int b, int c, int op, int value) {
+		final int o = hash * WIDTH;
+		long seq = data.getPlain(o + SEQ);
+		if((seq & 1) != 0 || !data.compareAndSet(o + SEQ, seq, seq + 1)) return; // busy, skip it
+		VarHandle.storeStoreFence(); // nobody may see the new entry with the old seq
+
+		data.setPlain(o + KEY1, pack(a, b));
+		data.setPlain(o + KEY2, pack(c, op));
+		data.setPlain(o + VALUE, value);
+		data.setRelease(o + SEQ, seq + 2);
+	}
+
+	// --------------------------------------------------------------
+
+	/** number of entries */
+	public int getSize() { return cache_size; }
+
+	/** the amount of allocated memory in bytes */
+	public long getMemoryUsage() { return data.length() * 8L; }
+}
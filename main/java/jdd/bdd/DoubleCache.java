@@ -27,6 +27,7 @@ public final class DoubleCache extends CacheBase implements Cloneable, Serializa
 	private int possible_bins_count, num_clears, num_partial_clears, num_grows;
 	private long  num_access, partial_count, partial_kept;
 	private long hit,miss, last_hit, last_access; // cache hits and misses, hit/access-count since last grow
+	private Settings settings = new Settings(); /** the grow parameters, those of the last table we were cleaned for */
 
 
 	@Override
@@ -40,6 +41,17 @@ public final class DoubleCache extends CacheBase implements Cloneable, Serializa
 		return copy;
 	}
 
+	/** a copy with its own data, with or without the entries. see BDD#snapshot */
+	/* package */ DoubleCache copy(boolean entries) {
+		DoubleCache ret = (DoubleCache) clone();
+		ret.in = entries ? Array.clone(in) : Allocator.allocateIntArray(in.length);
+		ret.out = entries ? out.clone() : Allocator.allocateDoubleArray(out.length);
+		if(entries) return ret;
+		Array.set(ret.in, -1);
+		ret.possible_bins_count = 0;
+		return ret;
+	}
+
 	public DoubleCache(){
 
 	}
@@ -90,18 +102,18 @@ public final class DoubleCache extends CacheBase implements Cloneable, Serializa
 	 */
 
 	private boolean may_grow() {
-		if(num_grows < Configuration.maxSimplecacheGrows) {
+		if(num_grows < settings.maxSimplecacheGrows) {
 			long acs = (num_access - last_access);
 
 			// only when we have "MIN_SIMPLECACHE_ACCESS_TO_GROW %" or more access', we have enough information to decide
 			// whether we can grow cache or not (beside, if acs == 0, we will get a div by 0 below :)
-			if( (acs * 100 )  < cache_size * Configuration.minSimplecacheAccessToGrow) return false;
+			if( (acs * 100 )  < cache_size * settings.minSimplecacheAccessToGrow) return false;
 
 
 			// compute hitrate (in procent) since the LAST grow, not the overall hitrate
 			int rate = (int)( ((hit - last_hit) * 100.0 ) / acs);
 
-			if(rate > Configuration.minSimplecacheHitrateToGrow) {
+			if(rate > settings.minSimplecacheHitrateToGrow) {
 				// store information needed to compute the next after-last-grow-hitrate
 				last_hit = hit;
 				last_access = num_access;
@@ -155,6 +167,7 @@ public final class DoubleCache extends CacheBase implements Cloneable, Serializa
 	 * @see #free_or_grow
 	 */
 	public void free_or_grow(NodeTable nt) {
+		settings = nt.getSettings();
 		if(may_grow())	grow_and_invalidate_cache(); // no way to partially invalidate, as the size and thus the hashes chagnes
 		else			invalidate_cache(nt);
 	}
@@ -0,0 +1,27 @@
+package jdd.bdd;
+
+import java.util.function.IntUnaryOperator;
+
+
+/**
+ * Holders of node ids implement this to survive a compaction (or a rollback) of their NodeTable.
+ * <p>
+ * Compaction moves the live nodes, so every id someone keeps outside the table
+ * (referenced or not) must be replaced by its new one.
+ *
+ * @see NodeTable#compact
+ */
+
+public interface NodeRemapper {
+	/**
+	 * called once after all nodes have moved.
+	 * @param moved returns the new id of an old node (or edge), -1 if the node was not alive
+	 */
+	void remap(IntUnaryOperator moved);
+
+	/**
+	 * called once after rollback() has freed the nodes allocated since mark(), before any of
+	 * their ids can be reused. only the holders registered with BDD.addNodeRemapper() are told.
+	 */
+	default void rolledBack() { }
+}
@@ -6,7 +6,11 @@ import jdd.util.math.*;
 import jdd.bdd.debug.*;
 
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntUnaryOperator;
 
 
 /**
@@ -20,15 +24,53 @@ import java.util.*;
 // we divide the node list and the linked-list into to parts (t_nodes, t_list).
 // this gives a bad cache performance (CPU cache, not BDD operation caches),
 // but it might help to keep  the memory peek down a little bit.
+//
+// overlay tables: a NodeTable can be layered on top of another, frozen NodeTable ("base").
+// nodes [0, base_size) are read directly from the base, which is shared between all its
+// overlays and never written to. the overlay only owns the nodes it creates itself,
+// these are stored in the (small) local arrays at index (node - base_size).
+// base nodes never point to overlay nodes, so GC and grow only need to look at the local part.
+//
+// off-heap mode: if settings.nodetableOffHeap is set when the table is created, t_nodes and t_list
+// are kept outside the Java heap (o_nodes, o_list). they then grow segment by segment, without copying.
+//
+// packed mode: if settings.nodetablePacked is set when the table is created, the next pointer is
+// stored in t_nodes together with var/low/high (16 bytes per node, so a node never straddles a cache line)
+// and t_list only holds the hash bucket heads. a lookup in add() then touches one record per chain step.
+// the mark bit is always stored in the var member.
+//
+// open addressing: if settings.nodetableOpenAddressing is set when the table is created, there are no
+// hash chains and no t_list. the unique table is t_hash, a power-of-two array of node ids (0 = empty) that is
+// at most half full, searched by linear probing. GC and grow rebuild it, a single node is removed by moving
+// the rest of its cluster back (see hash_remove). the free list is kept in the low member of the free nodes.
+//
+// incremental rehash: grow() does not rehash the nodes at once. the old bucket heads are saved in r_heads
+// (the old t_hash in r_hash with open addressing) and each add() moves r_step of the old buckets to the new
+// ones. until that is done, a lookup that misses in the new table also looks at the old one. a GC rebuilds
+// everything anyway and ends the migration, a Sifting or a copy finishes it first (see finish_rehash).
+//
+// stat_probes is a histogram of the number of nodes add() had to compare, in both organisations.
+//
+// complement edges: a subclass may store complemented edges (EDGE_COMPLEMENT set) in low/high. the marking
+// functions below strip that bit, everything else is handled by overriding the accessors.
+//
+// stamps: every GC starts a new epoch. t_stamp holds the epoch in which a node was last allocated or freed,
+// so a cache entry made in epoch e is still good if none of its nodes has a stamp above e (see SimpleCache).
+//
+// reordering: the var member of a node is really its level. Sifting swaps two levels by rewriting
+// nodes in place (see hash_remove/hash_insert/free_node), so node ids and their functions never change.
 
 public class NodeTable implements Serializable {
 
 	/** used to mark/unmark BDD nodes */
 	public static final int NODE_MARK = 0x80000000, NODE_UNMARK = 0x7FFFFFFF;
+
+	/** complemented edges (only in ComplementBDD), the node id is in the lower bits */
+	public static final int EDGE_COMPLEMENT = 0x80000000, EDGE_REGULAR = 0x7FFFFFFF;
 	public static final short MAX_REFCOUNT = 32767; /** the largest possible ref-count */
 
 	// monolithic nodetable stuff
-	private static final int NODE_WIDTH = 3; // how many ints a node occupy
+	/* package */ static final int NODE_WIDTH = 3; // how many ints a node occupy
 	private static final int OFFSET_VAR = 1; // offset of the var member
 	private static final int OFFSET_LOW = 0; // offset of the low member
 	private static final int OFFSET_HIGH = 2; // offset of the high member
@@ -38,6 +80,14 @@ public class NodeTable implements Serializable {
 	private static final int OFFSET_NEXT = 0; // offset of the next pointer
 	private static final int OFFSET_PREV = 1; // offset of the prev pointer
 
+	// packed stuff: (var, low, high, next) in one 16-byte record, only the bucket heads are in t_list
+	private static final int PACKED_NODE_WIDTH = 4; // how many ints a packed node occupy
+	private static final int OFFSET_PACKED_NEXT = 3; // offset of the next pointer in a packed node
+
+	protected boolean packed; /** true if the nodes use the packed layout */
+	protected boolean open_addressing; /** true if the unique table is t_hash instead of the chains in t_list */
+	protected int node_width = NODE_WIDTH, list_width = LIST_WIDTH, offset_prev = OFFSET_PREV;
+
 
 	/** the "debuggers" connected to this NodeTable. see for example ProfibedBDD2 */
 	protected Collection debugers;
@@ -48,23 +98,62 @@ public class NodeTable implements Serializable {
 	public int [] t_nodes;	 /** for monolithic nodetable */
 	public int [] t_list;	 /** for the linked list */
 	public short [] t_ref; /** the reference counter */
+	protected int [] t_stamp; /** the epoch in which the node was last allocated or freed */
+	protected int gc_epoch; /** the current epoch, incremented by each GC */
+	protected SegmentedIntArray o_nodes, o_list; /** t_nodes and t_list in off-heap mode, null otherwise */
+	protected int [] t_hash; /** the open addressing unique table, null if the chains are used */
+	protected int hash_mask; /** t_hash.length - 1 */
 	public int first_free_node, free_nodes_count;
 	public boolean stack_marking_enabled; /** if true, we will use the faster version of mark_tree() */
 
 
 	// GC/grow stuff
-	public int stat_gc_count, stat_lookup_count;
+	public int stat_gc_count, stat_lookup_count, stat_compact_count;
 	public long stat_gc_freed, stat_gc_time, stat_grow_time, stat_notify_time;
 	public long ht_chain;
+	public static final int PROBE_HISTOGRAM_SIZE = 16; /** the last bucket counts all longer lookups */
+	public long [] stat_probes = new long[PROBE_HISTOGRAM_SIZE]; /** number of add() lookups by nodes compared */
+
+	// incremental rehash stuff
+	private int [] r_heads; /** the not yet moved bucket heads of the old chains, null if not rehashing */
+	private int [] r_hash; /** the old open addressing table, null if not rehashing */
+	private int r_size, r_pos, r_step; /** number of old buckets (or slots), the next one to move and how many per add() */
 //	final protected NodeStack nstack = new NodeStack(32);
 	public NodeStack nstack = new NodeStack(32);
 //	final private NodeStack mstack = new NodeStack(32);
 	public NodeStack mstack = new NodeStack(32);
 
+	// overlay stuff
+	protected NodeTable base; /** the frozen table we are layered on, null if none */
+	protected int base_size; /** nodes below this id belong to base, 0 if we have no base */
+	private int gc_floor; /** the first node id that GC and grow are allowed to touch */
+	private int [] b_marks; /** private mark bits for the base nodes, allocated on demand */
+	public boolean frozen; /** if true, this table is shared read-only and must not change anymore */
+
+	// mark/rollback stuff
+	private int [] m_log; /** the nodes allocated since mark(), null if there is no mark */
+	private int m_count; /** number of nodes in m_log */
+	public int stat_rollback_count;
+
+	// node budget stuff
+	/* package */ int max_nodes; /** the largest local table grow() may create, 0 if unbounded */
+	private OverflowPolicy overflow_policy = OverflowPolicy.COLLECT_FIRST; /** what grow() does at the budget */
+	private int room_wanted; /** free nodes reserve() asks the overflow policy for, 0 otherwise */
+	/* package */ boolean budget_warned; /** see OverflowPolicy.GROW */
+	public int stat_overflow_count;
+	protected Settings settings = new Settings(); /** the parameters of this table, fixed when it is created */
+
 	public NodeTable(){
 
 	}
 	public NodeTable(int nodesize) {
+		this(nodesize, new Settings());
+	}
+
+	/** create a table with its own parameters instead of those in Configuration */
+	public NodeTable(int nodesize, Settings settings) {
+		this.settings = settings;
+		max_nodes = settings.nodetableMaxNodes;
 		debugers = new LinkedList();
 
 		// we dont like nodetables that are too small
@@ -73,18 +162,16 @@ public class NodeTable implements Serializable {
 		// allocate the initial arraus
 		table_size = nodesize;
 //		System.out.println("nodeSize +    " + nodesize);
-		t_ref = Allocator.allocateShortArray(table_size);
-		t_nodes = Allocator.allocateIntArray(table_size * NODE_WIDTH);
-		t_list = Allocator.allocateIntArray(table_size * LIST_WIDTH);
+		allocate_storage(table_size);
 
 
 		first_free_node = 2;
 		free_nodes_count = nodesize -2;
 		for(int i = 0; i < nodesize; i++) {
 			invalidate(i);
-			setPrev(i, 0);
 			setNext(i, i+1);
 		}
+		hash_clear(nodesize);
 
 		setNext(nodesize-1, 0);
 
@@ -103,14 +190,165 @@ public class NodeTable implements Serializable {
 		stat_gc_freed = stat_gc_time = stat_grow_time = stat_notify_time = 0L;
 		ht_chain = 0;
 		stack_marking_enabled = false; // disable by default
+		base = null;
+		base_size = 0;
+		gc_floor = 2;
+		frozen = false;
+	}
+
+	/**
+	 * create an overlay table on top of the frozen table <tt>base</tt>.
+	 * <p>all nodes of base are visible (and considered permanently referenced) in the overlay,
+	 * new nodes are allocated in a private table of initially <tt>nodesize</tt> nodes.
+	 * @see #freeze
+	 */
+	public NodeTable(NodeTable base, int nodesize) {
+		this(base, nodesize, new Settings());
+	}
+
+	/** create an overlay table with its own parameters */
+	public NodeTable(NodeTable base, int nodesize, Settings settings) {
+		Test.check(base.frozen, "NodeTable must be frozen before it can be shared");
+		Test.check(base.base == null, "cannot create an overlay of an overlay");
+
+		this.settings = settings;
+		max_nodes = settings.nodetableMaxNodes;
+		debugers = new LinkedList();
+		if(nodesize < Configuration.MIN_NODETABLE_SIZE) nodesize = Configuration.MIN_NODETABLE_SIZE;
+
+		this.base = base;
+		base_size = base.table_size;
+		gc_floor = base_size;
+		frozen = false;
+
+		// allocate the local arrays, they only hold our own nodes
+		table_size = base_size + nodesize;
+		allocate_storage(nodesize);
+
+		first_free_node = base_size;
+		free_nodes_count = nodesize;
+		for(int i = base_size; i < table_size; i++) {
+			invalidate(i);
+			setNext(i, i+1);
+		}
+		hash_clear(nodesize);
+		setNext(table_size-1, 0);
+
+		update_grow_parameters();
+		stat_nt_grow = 0;
+		dead_nodes = 0;
+
+		stat_gc_count = stat_lookup_count = 0;
+		stat_gc_freed = stat_gc_time = stat_grow_time = stat_notify_time = 0L;
+		ht_chain = 0;
+		stack_marking_enabled = base.stack_marking_enabled;
+	}
+
+	/**
+	 * create a copy of <tt>src</tt> with the same node ids (an overlay copy shares the base).
+	 * <p>only the nodes up to the last one in use are copied, the rest of the table is set up as
+	 * free nodes. the free list is rebuilt, so the copy allocates its nodes lowest id first.
+	 * @see BDD#snapshot
+	 */
+	protected NodeTable(NodeTable src) {
+		src.finish_rehash(); // we copy complete buckets
+
+		settings = src.settings.copy();
+		max_nodes = src.max_nodes;
+		overflow_policy = src.overflow_policy;
+		debugers = new LinkedList();
+		packed = src.packed;
+		open_addressing = src.open_addressing;
+		node_width = src.node_width;
+		list_width = src.list_width;
+		offset_prev = src.offset_prev;
+
+		base = src.base;
+		base_size = src.base_size;
+		gc_floor = src.gc_floor;
+		frozen = false;
+		table_size = src.table_size;
+		gc_epoch = src.gc_epoch;
+
+		int local = table_size - base_size, used = src.high_water() - base_size;
+		t_ref = Allocator.allocateShortArray(local);
+		System.arraycopy(src.t_ref, 0, t_ref, 0, used);
+		t_stamp = Allocator.allocateIntArray(local);
+		System.arraycopy(src.t_stamp, 0, t_stamp, 0, used);
+		Arrays.fill(t_stamp, used, local, gc_epoch); // cached entries from older epochs must not use them
+
+		if(src.o_nodes != null) {
+			o_nodes = src.o_nodes.copy(used * node_width);
+			o_nodes.ensureCapacity(local * node_width);
+			if(src.o_list != null) o_list = src.o_list.copy(local * list_width); // bucket heads are everywhere
+		} else {
+			t_nodes = Allocator.allocateIntArray(local * node_width);
+			System.arraycopy(src.t_nodes, 0, t_nodes, 0, used * node_width);
+			if(src.t_list != null) t_list = Arrays.copyOf(src.t_list, local * list_width);
+		}
+		if(src.t_hash != null) {
+			t_hash = Arrays.copyOf(src.t_hash, src.t_hash.length);
+			hash_mask = src.hash_mask;
+		}
+
+		// the free nodes below 'used' are already invalid, the rest have never been written
+		int head = 0, count = 0;
+		for(int i = table_size; i > gc_floor; ) {
+			i--;
+			if(i - base_size >= used || !isValid(i)) {
+				invalidate(i);
+				setNext(i, head);
+				head = i;
+				count++;
+			}
+		}
+		first_free_node = head;
+		free_nodes_count = count;
+
+		dead_nodes = src.dead_nodes;
+		update_grow_parameters();
+		stat_nt_grow = 0;
+		stat_gc_count = stat_lookup_count = 0;
+		stat_gc_freed = stat_gc_time = stat_grow_time = stat_notify_time = 0L;
+		ht_chain = 0;
+		stack_marking_enabled = src.stack_marking_enabled;
+		nstack = new NodeStack(src.nstack.getCapacity());
+		mstack = new NodeStack(src.mstack.getCapacity());
+	}
+
+	/** one past the last valid node, all nodes above it are free */
+	/* package */ final int high_water() {
+		int i = table_size;
+		while(i > gc_floor && !isValid(i - 1)) i--;
+		return i;
+	}
+
+	/**
+	 * freeze this table, so it can be shared by overlay tables.
+	 * <p>a frozen table is read-only: no nodes can be added, collected or resized anymore.
+	 * since it is never written again, it can be read from any number of threads.
+	 */
+	public void freeze() {
+		finish_rehash(); // lookup() in the base must not change anything
+		frozen = true;
+	}
+
+	/** returns true if this table is an overlay on top of a frozen table */
+	public boolean isOverlay() {
+		return base != null;
 	}
 
 	// --------------------------------------------------------------------
 	public void cleanup() { // to help GC
 		stopDebuggers();
 		t_ref = null;
+		t_stamp = null;
 		t_nodes = null;
 		t_list = null;
+		t_hash = null;
+		o_nodes = o_list = null;
+		b_marks = null;
+		base = null; // the base itself is shared, dont touch it
 	}
 
 	/**
@@ -125,7 +363,7 @@ public class NodeTable implements Serializable {
 	// compute hash for the triple (i,l,h)
 	// this function can change very much between the releases :)
 	private final int compute_hash(int i, int l, int h) {
-		return (HashFunctions.hash_prime(i,l,h) & 0x7FFFFFFF) %  table_size;
+		return (HashFunctions.hash_prime(i,l,h) & 0x7FFFFFFF) %  (table_size - base_size);
 	}
 
 
@@ -135,23 +373,23 @@ public class NodeTable implements Serializable {
 	 *
 	 * <p>TODO: we should also check how much free memory we have!
 	 */
-	private final int compute_increase_limit(int current_size) {
+	protected final int compute_increase_limit(int current_size) {
 		// limit disabled?
-		if(Configuration.nodetableSmallSize <= 0 || Configuration.nodetableLargeSize <= 0) return current_size;
+		if(settings.nodetableSmallSize <= 0 || settings.nodetableLargeSize <= 0) return current_size;
 
-		if(current_size <= Configuration.nodetableSmallSize) return Configuration.nodetableGrowMax;
-		if(current_size >= Configuration.nodetableLargeSize) return Configuration.nodetableGrowMin;
+		if(current_size <= settings.nodetableSmallSize) return settings.nodetableGrowMax;
+		if(current_size >= settings.nodetableLargeSize) return settings.nodetableGrowMin;
 
 
 		// avoid division by zero, when badly configured
-		if(Configuration.nodetableLargeSize == Configuration.nodetableSmallSize)
-			return (Configuration.nodetableGrowMax + Configuration.nodetableGrowMin) / 2;
+		if(settings.nodetableLargeSize == settings.nodetableSmallSize)
+			return (settings.nodetableGrowMax + settings.nodetableGrowMin) / 2;
 
 		// anywhere between the two limits, we use a linear interpolation of them.
-		return Configuration.nodetableGrowMax -
-				( (current_size - Configuration.nodetableSmallSize) *
-						(Configuration.nodetableGrowMax - Configuration.nodetableGrowMin)) /
-						(Configuration.nodetableLargeSize - Configuration.nodetableSmallSize);
+		return settings.nodetableGrowMax -
+				( (current_size - settings.nodetableSmallSize) *
+						(settings.nodetableGrowMax - settings.nodetableGrowMin)) /
+						(settings.nodetableLargeSize - settings.nodetableSmallSize);
 	}
 
 	/**
@@ -163,6 +401,9 @@ public class NodeTable implements Serializable {
 	 */
 	protected void post_removal_callbak() { /* do nothing */ }
 
+	/** drop everything the caches hold, not only the stale entries. see emergencyGc() */
+	protected void wipe_caches() { /* do nothing */ }
+
 	protected final void signal_removed() {
 		long time = System.currentTimeMillis();
 		post_removal_callbak();
@@ -180,32 +421,42 @@ public class NodeTable implements Serializable {
 	 * we might to choose to call signal_removed() not here but at a later point.
 	 */
 	private int gc(boolean call_callback) {
+		Test.check(!frozen, "cannot garbage collect a frozen NodeTable");
 		long time = System.currentTimeMillis();
 		stat_gc_count ++;
+		gc_epoch ++;
+		r_heads = r_hash = null; // all chains are rebuilt below
+		r_size = r_pos = 0;
 
 
-		// 0. mark nodes in use
-		mark_nodes_in_use();
-
-		// 1. free or re-hash and unmark
 		int old_free = free_nodes_count;
-		first_free_node = free_nodes_count = 0;
-
-		// 1.5 go backward to get the list in correct direction. doesnt really matter :(
-		for(int i = table_size; i > 2; ) {
-			i--;
-			if(isValid(i) && isNodeMarked(i)) {
-				unmark_node(i);
-				int pos = compute_hash( getVar(i), getLow(i), getHigh(i));
-				connect_list(i, pos);
-			} else {
-				invalidate(i);
-				setNext(i, first_free_node);
-				first_free_node = i;
-				free_nodes_count ++;
+		if(use_parallel_gc()) {
+			// 0+1. the same as below, but by all threads. see ParallelGC
+			new ParallelGC(this, gc_floor).collect();
+		} else {
+			// 0. mark nodes in use
+			mark_nodes_in_use();
+
+			// 1. free or re-hash and unmark
+			first_free_node = free_nodes_count = 0;
+
+			// 1.5 go backward to get the list in correct direction. doesnt really matter :(
+			for(int i = table_size; i > gc_floor; ) {
+				i--;
+				if(isValid(i) && isNodeMarked(i)) {
+					unmark_node(i);
+					link(i);
+				} else {
+					free_link(i, first_free_node);
+					first_free_node = i;
+					free_nodes_count ++;
+				}
 			}
 		}
 
+		// 1.6 the mark log keeps only the nodes that are still there, or it would grow with every allocation
+		if(m_log != null) trim_log();
+
 		// 2. ok, we have removed things, inform others [caches ?] about it
 		if(call_callback) signal_removed();
 
@@ -222,6 +473,13 @@ public class NodeTable implements Serializable {
 		return new_free;
 	}
 
+	/** parallel GC only pays off for large tables, and it needs the on-heap arrays for its atomic updates */
+	private final boolean use_parallel_gc() {
+		return settings.nodetableParallelGc && o_nodes == null &&
+			table_size - gc_floor >= settings.nodetableParallelGcThreshold &&
+			ForkJoinPool.getCommonPoolParallelism() > 1;
+	}
+
 	/**
 	 * this functions marks the nodes in use AND cleans the <tt>prev</tt> link.
 	 * we had a version that used t_list as stack and avoided recursive calls
@@ -235,11 +493,12 @@ public class NodeTable implements Serializable {
 
 		// and referenced nodes.
 		// it looks inefficient, but you cant do it much faster than this :(
-		for(int i = table_size; i != 0; ) {
+		// (in an overlay, the base nodes are always alive and need not to be marked)
+		for(int i = table_size; i != base_size; ) {
 			i--;
 			if( isValid(i)  && getRefPlain(i) > 0) mark_tree(i);
-			setPrev(i, 0);
 		}
+		hash_clear(table_size - base_size);
 	}
 
 	/**
@@ -247,12 +506,15 @@ public class NodeTable implements Serializable {
 	 * make more room by a garbage collection. if that fails, the node table is resized
 	 */
 	protected void grow() {
+		Test.check(!frozen, "cannot grow a frozen NodeTable");
 
 		// if we have no dead nodes, we dont bother to collect garbage,
 		// but the dead-node counter is bot always accurate
-		if(dead_nodes > 0 || table_size > Configuration.nodetableSimpleDeadcountThreshold) {
+		boolean collected = false;
+		if(dead_nodes > 0 || table_size - base_size > settings.nodetableSimpleDeadcountThreshold) {
 
 			int got = gc(false);
+			collected = true;
 			dead_nodes = 0;
 
 			// we might have had DEAD NODES, but that doesnt mean that we can always
@@ -265,84 +527,352 @@ public class NodeTable implements Serializable {
 		}
 
 		// could  not GC, start growing:
-		long time = System.currentTimeMillis();
-
-		// 1. grow node table:
-		stat_nt_grow++;
-
-		// 1.b) compute the new size.
 		// this snippet is not very intelligent. I just don't feel like re-writing it right now
 		// int new_size = table_size + Math.min(table_size, compute_increase_limit(table_size) );
-		int new_size = table_size + compute_increase_limit(nodesminfree) ;
+		int new_size = table_size + compute_increase_limit(nodesminfree);
+
+		// never past the budget, unless the overflow policy lets us
+		if(max_nodes > 0 && new_size - base_size > max_nodes) {
+			if(collected) signal_removed();
+			collected = false; // the caches have been told
+			new_size = budget_size(new_size, 2 + nodesminfree / 4);
+			if(new_size == -1) return;
+		}
+		grow_to(new_size);
+
+		// node ids did not change, so the caches only need to know if the GC above freed something
+		if(collected) signal_removed();
+	}
+
+	/**
+	 * the size grow() or reserve() may grow to instead of <tt>new_size</tt>, given the budget.
+	 * the last nodes of the budget are used first, after that the overflow policy is asked.
+	 * @param needed the free nodes the caller wants
+	 * @return -1 if the policy has made room for <tt>needed</tt> free nodes
+	 */
+	private int budget_size(int new_size, int needed) {
+		if(max_nodes <= 0 || new_size - base_size <= max_nodes) return new_size;
+		if(max_nodes - (table_size - base_size) >= needed - free_nodes_count) return base_size + max_nodes;
+		if(free_nodes_count >= needed) return -1;
+
+		stat_overflow_count++;
+		room_wanted = needed;
+		try {
+			overflow_policy.overflow(this, max_nodes);
+		} catch(NodeTableFullException e) {
+			nstack.reset(); // the aborted operation will not pop its nodes
+			mstack.reset();
+			throw e;
+		} finally {
+			room_wanted = 0;
+		}
+		return free_nodes_count >= needed ? -1 : new_size;
+	}
+
+	/** enough free nodes to go on without growing: at least two, and some more so we do not collect after each node */
+	private final boolean has_room() {
+		return free_nodes_count >= Math.max(2 + nodesminfree / 4, room_wanted);
+	}
+
+	/**
+	 * the last resort before the table is over its budget: collect all garbage, even if we
+	 * think there is none, and wipe the caches. meant to be called from an OverflowPolicy.
+	 * @return true if there is room for the next nodes now
+	 */
+	public boolean emergencyGc() {
+		gc(false);
+		dead_nodes = 0;
+		signal_removed();
+		wipe_caches();
+		return has_room();
+	}
+
+	/**
+	 * limit the number of nodes this table may grow to (the local part of an overlay).
+	 * when it is reached, grow() hands over to <tt>policy</tt>.
+	 * @param max_nodes the node budget, 0 for none
+	 * @param policy what to do at the budget, null to keep the current one
+	 * @see OverflowPolicy
+	 */
+	public void setOverflowPolicy(int max_nodes, OverflowPolicy policy) {
+		this.max_nodes = max_nodes;
+		if(policy != null) overflow_policy = policy;
+		budget_warned = false;
+	}
 
+	/** the node budget, 0 if there is none */
+	public int getNodeBudget() {
+		return max_nodes;
+	}
+
+	/** the number of nodes in this table, without the base of an overlay */
+	public int getLocalSize() {
+		return table_size - base_size;
+	}
 
+	/**
+	 * make room for <tt>nodes</tt> new nodes at once, so that the next <tt>nodes</tt> calls
+	 * to add() neither collect garbage nor grow the table. useful before a bulk load.
+	 * <p>the node budget holds here as in grow(): past it the overflow policy decides, and
+	 * NodeTableFullException is thrown if it can not make room.
+	 */
+	public void reserve(int nodes) {
+		Test.check(!frozen, "cannot grow a frozen NodeTable");
+		if(free_nodes_count >= nodes + 2) return; // add() wants two free nodes
+		int new_size = budget_size(table_size + nodes + 2 - free_nodes_count, nodes + 2);
+		if(new_size != -1) grow_to(new_size);
+	}
 
-		// 2. resize tables
+	/** grow the table to <tt>new_size</tt> nodes, the node ids do not change */
+	private void grow_to(int new_size) {
+		long time = System.currentTimeMillis();
+		stat_nt_grow++;
+
+		// 1. resize tables. the last rehash must be done before we start a new one
+		finish_rehash();
 		int old_size = table_size;
 		resize(new_size);
 		table_size = new_size;
 
-		// 3.a) start clean
-		first_free_node =  free_nodes_count = 0;
-
-		// 3.b) invalidate the new nodes and insert them into the linked list
+		// 2. invalidate the new nodes and put them in front of the free list, the old free nodes stay there.
+		//    they are stamped since compact() may have cut off ids that old cache entries still hold
 		for(int i = new_size; i > old_size; )  {
 			i--;
 			invalidate(i);
-			setPrev(i, 0);
+			t_stamp[i - base_size] = gc_epoch;
 			setNext(i, first_free_node);
 			first_free_node = i;
 			free_nodes_count++;
 		}
 
-		// 3.c) clear the rest.
-		clearPrev(0, old_size); // XXX: how do we embed this in the loop below??
+		// 2.b) start moving the nodes to their new buckets, add() will do the rest
+		start_rehash(old_size - base_size, new_size - base_size);
 
-		// 3.d) now separate the old and new invalid nodes
-		for(int i = old_size; i > 2; ) {
-			i--;
-			if(isValid(i)) {
-				int hash = compute_hash( getVar(i), getLow(i), getHigh(i));
-				connect_list(i, hash);
-			} else {
-				setNext(i, first_free_node);
-				first_free_node = i;
-				free_nodes_count++;
-			}
+		// 3. update internal variables that need to be upated...
+		update_grow_parameters();
+
+		// 4. and statistics...
+		time = System.currentTimeMillis() - time;
+		stat_grow_time += time;
+
+		if(Options.verbose) {
+			JDDConsole.out.printf("Node-table grown #%d: %d -> %d nodes, time=%d\n",
+					stat_nt_grow, old_size, new_size, stat_grow_time);
 		}
+	}
 
+	/**
+	 * move all live nodes to the front of the table and shrink it, so a table that has been
+	 * large once does not stay large. the nodes keep their order, dead nodes are collected first.
+	 * <p>BEWARE: the live nodes get new ids! everyone holding a node (referenced or not) must
+	 * ask <tt>remapper</tt> for its new id. in an overlay, the base nodes do not move.
+	 * @param remapper is told about the new ids once the table is consistent again, may be null
+	 * @return the number of nodes the table has shrunk by
+	 * @see NodeRemapper
+	 */
+	public int compact(NodeRemapper remapper) {
+		Test.check(!frozen, "cannot compact a frozen NodeTable");
+		Test.check(nstack.getTOS() == 0, "cannot compact a NodeTable during an operation");
 
-		//4. update internal variables that need to be upated...
+		gc(false); // now only the live nodes are valid
+		long time = System.currentTimeMillis();
+
+		// 1. the new ids: the live nodes in their current order, -1 for the others
+		final int [] moved = new int[table_size - gc_floor];
+		int used = gc_floor;
+		for(int i = gc_floor; i < table_size; i++)
+			moved[i - gc_floor] = isValid(i) ? used++ : -1;
+
+		// 2. move the nodes and their children. a node never moves up, so nobody is
+		//    overwritten before it has been moved itself
+		for(int i = gc_floor; i < table_size; i++) {
+			int to = moved[i - gc_floor];
+			if(to == -1) continue;
+			setAll(to, getVar(i), moved_id(moved, getLow(i)), moved_id(moved, getHigh(i)), getRefPlain(i));
+		}
+
+		// 3. shrink, but keep enough free nodes to not grow again at once
+		int old_size = table_size, live = used - base_size;
+		int room = Math.max(Configuration.MIN_NODETABLE_SIZE,
+				(live * settings.minFreeNodesProcent) / Math.max(1, 100 - settings.minFreeNodesProcent) + 1);
+		int new_size = Math.min(old_size, used + room);
+		resize(new_size);
+		table_size = new_size;
+		if(open_addressing) t_hash = null; // hash_clear() would keep the large one
+
+		// 4. every node is new as far as the caches are concerned
+		gc_epoch++;
+		Arrays.fill(t_stamp, 0, new_size - base_size, gc_epoch);
+
+		// 5. rebuild the unique table and the free list
+		hash_clear(new_size - base_size);
+		for(int i = gc_floor; i < used; i++) link(i);
+
+		first_free_node = 0;
+		free_nodes_count = new_size - used;
+		for(int i = new_size; i > used; ) {
+			i--;
+			invalidate(i);
+			setNext(i, first_free_node);
+			first_free_node = i;
+		}
+		dead_nodes = 0;
 		update_grow_parameters();
+		stat_compact_count++;
+		if(m_log != null) { // the nodes allocated since the mark that are still alive
+			int n = 0;
+			for(int i = 0; i < m_count; i++) {
+				int to = moved_id(moved, m_log[i]);
+				if(to != -1) m_log[n++] = to;
+			}
+			m_count = n;
+		}
 
-		// 5. force all caches to be wiped out!
+		// 6. tell our sub-classes and the others about the new ids
+		IntUnaryOperator mapping = bdd -> moved_id(moved, bdd);
 		signal_removed();
+		post_compaction_callback(mapping);
+		if(remapper != null) remapper.remap(mapping);
 
-		// 6. and statistics...
 		time = System.currentTimeMillis() - time;
-		stat_grow_time += time;
+		if(Options.verbose) {
+			JDDConsole.out.printf("Node-table compacted #%d: %d -> %d nodes, %d live, time=%d\n",
+					stat_compact_count, old_size, new_size, live, time);
+		}
+		return old_size - new_size;
+	}
+
+	/** the new id of a node (or edge) after compaction, -1 if the node was not alive */
+	private final int moved_id(int [] moved, int bdd) {
+		int node = bdd & EDGE_REGULAR;
+		if(node < gc_floor) return bdd; // terminals and base nodes stay where they are
+		int to = moved[node - gc_floor];
+		return to == -1 ? -1 : to | (bdd & EDGE_COMPLEMENT);
+	}
+
+	/**
+	 * called by compact() after the nodes have moved, before the NodeRemapper.
+	 * sub-classes that keep node ids of their own must update them here
+	 */
+	protected void post_compaction_callback(IntUnaryOperator moved) { /* do nothing */ }
+
+	// ---- [ mark/rollback ] ---------------------------------------------------
+
+	/**
+	 * remember the current state of the table, so rollback() can return to it.
+	 * <p>from now on, every node that is allocated is logged. a new mark replaces the old one.
+	 * @see #rollback
+	 */
+	public void mark() {
+		Test.check(!frozen, "cannot mark a frozen NodeTable");
+		if(m_log == null) m_log = Allocator.allocateIntArray(1024);
+		m_count = 0;
+	}
+
+	/** returns true if mark() has been called */
+	public boolean isMarked() {
+		return m_log != null;
+	}
+
+	/**
+	 * free all nodes allocated since the last mark(), referenced or not. the mark stays.
+	 * <p>this takes time in the number of nodes allocated since the mark, not in the size of the table.
+	 * the nodes from before the mark are kept as they are, with their current reference counts.
+	 * none of them can point to a newer node, so the table stays consistent.
+	 * <p>BEWARE: all BDDs created since the mark are gone, anyone still holding them must drop them.
+	 * @return number of freed nodes
+	 */
+	public int rollback() {
+		Test.check(m_log != null, "rollback() without mark()");
+		Test.check(nstack.getTOS() == 0, "cannot roll back during an operation");
+
+		gc_epoch++; // the cache entries that hold the freed nodes are dropped by their stamps
+		int freed = 0;
+		for(int i = m_count; i > 0; ) {
+			int bdd = m_log[--i];
+			if(!isValid(bdd)) continue; // collected since, and maybe logged again later
+			if(getRefPlain(bdd) == 0 && dead_nodes > 0) dead_nodes--;
+			hash_remove(bdd);
+			free_node(bdd);
+			freed++;
+		}
+		m_count = 0;
+		stat_rollback_count++;
+		post_rollback_callback();
 
 		if(Options.verbose) {
-			JDDConsole.out.printf("Node-table grown #%d: %d -> %d nodes, time=%d\n",
-					stat_nt_grow, old_size, new_size, stat_grow_time);
+			JDDConsole.out.printf("Node-table rollback #%d: %d nodes freed\n", stat_rollback_count, freed);
 		}
+		return freed;
+	}
+
+	/**
+	 * called by rollback() after the nodes have been freed.
+	 * sub-classes that keep node ids outside the stamped caches must drop them here
+	 */
+	protected void post_rollback_callback() { /* do nothing */ }
+
+	/**
+	 * drop the freed nodes from the log of mark(), called after each GC. between two GCs a node id is
+	 * allocated at most once, so the log is no larger than the live nodes allocated since the mark
+	 */
+	private final void trim_log() {
+		int n = 0;
+		for(int i = 0; i < m_count; i++) if(isValid(m_log[i])) m_log[n++] = m_log[i];
+		m_count = n;
+	}
+
+	/** add a new node to the log of mark() */
+	private final void log_node(int bdd) {
+		if(m_count == m_log.length) m_log = Array.resize(m_log, m_count, m_count * 2);
+		m_log[m_count++] = bdd;
 	}
 
 	public int add(int v, int l, int h) {
 
+		// in an overlay, the node might already exist in the base table
+		if(base != null) {
+			int found = base.lookup(v,l,h);
+			if(found != -1) return found;
+		}
+
+		if(r_size != 0) rehash_step();
+		if(open_addressing) return oa_add(v,l,h);
+
 		int hash = compute_hash(v,l,h);
-		int curr = getPrev(hash);
+		int curr = getPrev(hash), probes = 0;
 
 		// look it up in the cache
 		stat_lookup_count++;
 		while(curr != 0) {
 //			System.out.println("currr" + curr);
-			if( match_table(curr, v,l,h))	return curr; // tuple found in the table!
+			probes++;
+			if( match_table(curr, v,l,h)) { // tuple found in the table!
+				count_probes(probes);
+				return curr;
+			}
 			curr = getNext(curr);
 			ht_chain++;
 //			System.out.println("ht_chain  " + ht_chain);
 		}
 
+		// not moved yet?
+		if(r_heads != null) {
+			int old = old_hash(v,l,h);
+			if(old >= r_pos) {
+				for(curr = r_heads[old]; curr != 0; curr = getNext(curr)) {
+					probes++;
+					if( match_table(curr, v,l,h)) {
+						count_probes(probes);
+						return curr;
+					}
+				}
+			}
+		}
+		count_probes(probes);
+
+
+		Test.check(!frozen, "cannot add nodes to a frozen NodeTable");
 
 		// see if we have room for it!
 		if(free_nodes_count < 2 ) { // dont change "2" to "0" !
@@ -357,11 +887,160 @@ public class NodeTable implements Serializable {
 
 		// adjust and write node
 		setAll(curr, v,l,h, (short)-1);
+		t_stamp[curr - base_size] = gc_epoch;
+		if(m_log != null) log_node(curr);
 
 		connect_list(curr, hash);
 		return curr;
 	}
 
+	/** add() for the open addressing table */
+	private final int oa_add(int v, int l, int h) {
+		int pos = oa_hash(v,l,h), probes = 0, curr;
+
+		stat_lookup_count++;
+		while( (curr = t_hash[pos]) != 0) {
+			probes++;
+			if( match_table(curr, v,l,h)) {
+				count_probes(probes);
+				return curr;
+			}
+			pos = (pos + 1) & hash_mask;
+			ht_chain++;
+		}
+
+		// the old table is complete until the rehash is done
+		if(r_hash != null) {
+			for(int p = old_hash(v,l,h); (curr = r_hash[p]) != 0; p = (p + 1) & (r_size - 1)) {
+				probes++;
+				if( match_table(curr, v,l,h)) {
+					count_probes(probes);
+					return curr;
+				}
+			}
+		}
+		count_probes(probes);
+
+		Test.check(!frozen, "cannot add nodes to a frozen NodeTable");
+
+		if(free_nodes_count < 2 ) { // dont change "2" to "0" !
+			grow();
+			pos = oa_free_slot(v,l,h); // the table has been rebuilt
+		}
+
+		curr = first_free_node;
+		first_free_node = getNext(first_free_node);
+		free_nodes_count--;
+
+		setAll(curr, v,l,h, (short)-1);
+		t_stamp[curr - base_size] = gc_epoch;
+		if(m_log != null) log_node(curr);
+
+		t_hash[pos] = curr;
+		return curr;
+	}
+
+	private final void count_probes(int probes) {
+		stat_probes[ Math.min(probes, PROBE_HISTOGRAM_SIZE - 1) ]++;
+	}
+
+	/**
+	 * the number of add() lookups that compared 0, 1, 2, ... nodes before they found the node or an empty slot.
+	 * the last element counts PROBE_HISTOGRAM_SIZE - 1 or more nodes.
+	 */
+	public long [] getProbeHistogram() {
+		return stat_probes.clone();
+	}
+
+	/**
+	 * read-only lookup of the node (v,l,h).
+	 * it does not touch any statistics, so it is safe to call on a frozen table from many threads.
+	 * @return the node, or -1 if it does not exist
+	 */
+	/* package */ final int lookup(int v, int l, int h) {
+		if(open_addressing) {
+			for(int pos = oa_hash(v,l,h), curr; (curr = t_hash[pos]) != 0; pos = (pos + 1) & hash_mask)
+				if( match_table(curr, v,l,h)) return curr;
+			if(r_hash != null)
+				for(int pos = old_hash(v,l,h), curr; (curr = r_hash[pos]) != 0; pos = (pos + 1) & (r_size - 1))
+					if( match_table(curr, v,l,h)) return curr;
+			return -1;
+		}
+
+		int curr = getPrev( compute_hash(v,l,h) );
+		while(curr != 0) {
+			if( match_table(curr, v,l,h))	return curr;
+			curr = getNext(curr);
+		}
+		if(r_heads != null) {
+			int old = old_hash(v,l,h);
+			if(old >= r_pos)
+				for(curr = r_heads[old]; curr != 0; curr = getNext(curr))
+					if( match_table(curr, v,l,h)) return curr;
+		}
+		return -1;
+	}
+
+	// ---- [ incremental rehash ] ----
+
+	/**
+	 * the table has grown from <tt>old_local</tt> to <tt>new_local</tt> nodes: save the old buckets
+	 * and start with empty new ones.
+	 */
+	private final void start_rehash(int old_local, int new_local) {
+		if(open_addressing) {
+			if(t_hash.length >= 2 * new_local) return; // still at most half full, nothing moves
+			r_hash = t_hash;
+			r_size = t_hash.length;
+			t_hash = null; // hash_clear() must not reuse it
+		} else {
+			r_heads = Allocator.allocateIntArray(old_local);
+			for(int i = 0; i < old_local; i++) r_heads[i] = getPrev(i);
+			r_size = old_local;
+		}
+		hash_clear(new_local);
+		r_pos = 0;
+
+		// be done before half of the new nodes are used, so we never have two rehashes at once
+		int adds = Math.max(1, (new_local - old_local) / 2);
+		r_step = (r_size + adds - 1) / adds;
+	}
+
+	/** the bucket (or slot) of (v,l,h) in the old table */
+	private final int old_hash(int v, int l, int h) {
+		if(open_addressing) return HashFunctions.mix_wang( HashFunctions.hash_prime(v,l,h) ) & (r_size - 1);
+		return (HashFunctions.hash_prime(v,l,h) & 0x7FFFFFFF) % r_size;
+	}
+
+	/** move the next r_step old buckets to the new table */
+	private final void rehash_step() {
+		int end = Math.min(r_pos + r_step, r_size);
+		for(; r_pos < end; r_pos++) {
+			if(open_addressing) {
+				int node = r_hash[r_pos];
+				if(node != 0) link(node);
+			} else {
+				int curr = r_heads[r_pos];
+				while(curr != 0) {
+					int next = getNext(curr);
+					link(curr);
+					curr = next;
+				}
+			}
+		}
+		if(r_pos == r_size) {
+			r_heads = r_hash = null;
+			r_size = r_pos = 0;
+		}
+	}
+
+	/** finish a running rehash, for code that walks or changes the buckets directly */
+	/* package */ final void finish_rehash() {
+		if(r_size == 0) return;
+		r_step = r_size;
+		rehash_step();
+	}
+
 	// --------------------------------------------------------------------
 
 	/**
@@ -395,18 +1074,64 @@ public class NodeTable implements Serializable {
 	 * update some internal parameters
 	 */
 	protected void update_grow_parameters() {
-		nodesminfree = Math.min( (table_size * Configuration.minFreeNodesProcent) / 100, Configuration.maxNodeFree -1);
+		// only the local part of an overlay is considered here
+		nodesminfree = Math.min( ((table_size - base_size) * settings.minFreeNodesProcent) / 100, settings.maxNodeFree -1);
 	}
 
 	// ---- [resizeing algo] ---------------------------------------------------
 
-	/** resize the tables */
+	/** resize the tables, they shrink if <tt>new_size</tt> is smaller */
 	private void resize(int new_size) {
+		// an overlay only resizes its local part
+		int old_local = table_size - base_size, new_local = new_size - base_size;
+
+		resize_nodes(old_local, new_local);
+		try {
+			if(o_list != null) o_list.setCapacity(list_width * new_local);
+			else if(t_list != null) t_list = Array.resize(t_list, list_width * old_local, list_width * new_local);
+		} catch(OutOfMemoryError e) {
+			fatal(e, "NodeTable.resize failed...");
+		}
+	}
+
+	/** should this table use the packed node layout? called from the constructor */
+	protected boolean use_packed_layout() {
+		return settings.nodetablePacked;
+	}
+
+	/** should this table use open addressing instead of hash chains? called from the constructor */
+	protected boolean use_open_addressing() {
+		return settings.nodetableOpenAddressing;
+	}
+
+	/** allocate the storage for <tt>count</tt> (local) nodes, on or off the heap */
+	private void allocate_storage(int count) {
+		open_addressing = use_open_addressing();
+		packed = !open_addressing && use_packed_layout(); // there is no next pointer to pack
+		node_width = packed ? PACKED_NODE_WIDTH : NODE_WIDTH;
+		list_width = packed ? 1 : LIST_WIDTH;
+		offset_prev = packed ? 0 : OFFSET_PREV;
+
+		t_ref = Allocator.allocateShortArray(count);
+		t_stamp = Allocator.allocateIntArray(count);
+		t_nodes = t_list = null;
+		o_nodes = o_list = null;
+		if(settings.nodetableOffHeap) {
+			o_nodes = new SegmentedIntArray(count * node_width);
+			if(!open_addressing) o_list = new SegmentedIntArray(count * list_width);
+		} else {
+			t_nodes = Allocator.allocateIntArray(count * node_width);
+			if(!open_addressing) t_list = Allocator.allocateIntArray(count * list_width);
+		}
+	}
 
-		t_ref = Array.resize(t_ref, table_size, new_size);
+	/** resize (or shrink) the node data and the ref-counts. off the heap, the old data is not copied */
+	protected final void resize_nodes(int old_count, int new_count) {
+		t_ref = Array.resize(t_ref, old_count, new_count);
+		t_stamp = Array.resize(t_stamp, old_count, new_count);
 		try {
-			t_nodes = Array.resize(t_nodes, NODE_WIDTH * table_size, NODE_WIDTH * new_size);
-			t_list = Array.resize(t_list, LIST_WIDTH * table_size, LIST_WIDTH * new_size);
+			if(o_nodes != null) o_nodes.setCapacity(node_width * new_count);
+			else t_nodes = Array.resize(t_nodes, node_width * old_count, node_width * new_count);
 		} catch(OutOfMemoryError e) {
 			fatal(e, "NodeTable.resize failed...");
 		}
@@ -417,7 +1142,8 @@ public class NodeTable implements Serializable {
 	 * increase the reference-count of this BDD once
 	 * @return bdd
 	 */
-	public final int ref(int bdd) {
+	public int ref(int bdd) {
+		if(bdd < base_size) return bdd; // base nodes are always alive in an overlay
 		short ref = getRefPlain(bdd);
 		if(ref == -1) ref = 1;
 		else if(ref == 0) {
@@ -431,7 +1157,8 @@ public class NodeTable implements Serializable {
 	 * decrease the reference-count of this BDD once.
 	 * @return bdd
 	 */
-	public final int deref(int bdd) {
+	public int deref(int bdd) {
+		if(bdd < base_size) return bdd;
 		short ref = getRefPlain(bdd);
 		if(ref == 1) {
 			ref = (short) 0;
@@ -449,7 +1176,7 @@ public class NodeTable implements Serializable {
 	 * after that, the ref-count cant be changed and the node cannot be garbage collected anymore.
 	 * <p>DO NOT USE, unless you know what you are doing (note: you probably don't).
 	 */
-	public final void saturate(int bdd) {
+	public void saturate(int bdd) {
 		setRef(bdd, MAX_REFCOUNT);
 	}
 
@@ -458,15 +1185,16 @@ public class NodeTable implements Serializable {
 
 
 	// low-level access to the ref-counter
-	/* package */ final short getRefPlain(int bdd) { return t_ref[bdd]; }	/** just return the number */
-	private final void setRef(final int bdd, final short r) {		t_ref[bdd] = r;	}
+	/* package */ final short getRefPlain(int bdd) { return bdd < base_size ? MAX_REFCOUNT : t_ref[bdd - base_size]; }	/** just return the number */
+	private final void setRef(final int bdd, final short r) {		t_ref[bdd - base_size] = r;	}
 
 	/**
 	 * get the number of references to this BDD.
 	 */
-	public final short getRef(int bdd) {
-		if(t_ref[bdd] == -1) return 0;
-		return t_ref[bdd];
+	public short getRef(int bdd) {
+		short ref = getRefPlain(bdd);
+		if(ref == -1) return 0;
+		return ref;
 	}
 
 
@@ -474,76 +1202,245 @@ public class NodeTable implements Serializable {
 
 	// -----------------------------------------------------------------------------------------
 	// low-level access to the node table
-	private final void setVar(final int bdd, int v) { t_nodes[OFFSET_VAR + NODE_WIDTH * bdd] = v; }
-	private final void setLow(int bdd, int v) { t_nodes[OFFSET_LOW + NODE_WIDTH * bdd] = v; }
-	private final void setHigh(int bdd, int v) { t_nodes[OFFSET_HIGH + NODE_WIDTH * bdd] = v; }
+	// (in an overlay, the nodes below base_size are read from the base. they are never written)
+	private final int n_get(int i) { return o_nodes == null ? t_nodes[i] : o_nodes.get(i); }
+	private final void n_set(int i, int v) { if(o_nodes == null) t_nodes[i] = v; else o_nodes.set(i, v); }
+
+	private final void setVar(final int bdd, int v) { n_set(OFFSET_VAR + node_width * (bdd - base_size), v); }
+	private final void setLow(int bdd, int v) { n_set(OFFSET_LOW + node_width * (bdd - base_size), v); }
+	private final void setHigh(int bdd, int v) { n_set(OFFSET_HIGH + node_width * (bdd - base_size), v); }
 
-	public final int getVar(final int bdd) {	return t_nodes[OFFSET_VAR + NODE_WIDTH * bdd];	}
-	public final int getLow(final int bdd) {	return t_nodes[OFFSET_LOW + NODE_WIDTH * bdd];	}
-	public final int getHigh(final int bdd) {	return t_nodes[OFFSET_HIGH + NODE_WIDTH * bdd];	}
+	public final int getVar(final int bdd) {
+		return bdd < base_size ? base.getVar(bdd) : n_get(OFFSET_VAR + node_width * (bdd - base_size));
+	}
+	public final int getLow(final int bdd) {
+		return bdd < base_size ? base.getLow(bdd) : n_get(OFFSET_LOW + node_width * (bdd - base_size));
+	}
+	public final int getHigh(final int bdd) {
+		return bdd < base_size ? base.getHigh(bdd) : n_get(OFFSET_HIGH + node_width * (bdd - base_size));
+	}
 
-	/** return the associated variable. works even when the table is marked */
-	public final int getVarUnmasked(int bdd) {	return t_nodes[OFFSET_VAR + NODE_WIDTH * bdd] & NODE_UNMARK; }
+	/** return the associated variable. works even when the table is marked, and on complemented edges */
+	public final int getVarUnmasked(int bdd) {	return getVar(bdd & EDGE_REGULAR) & NODE_UNMARK; }
 
 	/** returns true if this bdd is a valid bdd */
-	public final boolean isValid(int bdd) {	return t_nodes[OFFSET_VAR + NODE_WIDTH * bdd] != -1; }
+	public final boolean isValid(int bdd) {	return getVar(bdd) != -1; }
 
 	/** make the node invalid */
-	protected final void invalidate(int bdd) {		t_nodes[OFFSET_VAR + NODE_WIDTH * bdd] = -1; }
+	protected final void invalidate(int bdd) {		setVar(bdd, -1); }
 
 
 
 	// set multiple members (including ref) at the same time. not called very often
 	protected final void setAll(final int bdd, final int v, final int l, final int h, final short r) {
-		t_nodes[NODE_WIDTH * bdd + OFFSET_VAR]= v;
-		t_nodes[NODE_WIDTH * bdd + OFFSET_LOW]= l;
-		t_nodes[NODE_WIDTH * bdd + OFFSET_HIGH]= h;
-		t_ref[bdd] = r;
+		setAll(bdd, v, l, h);
+		t_ref[bdd - base_size] = r;
 	}
 
 	// set multiple members at the same time. not called very often
 	protected final void setAll(final int bdd, final int v, final int l, final int h) {
-		t_nodes[NODE_WIDTH * bdd + OFFSET_VAR]= v;
-		t_nodes[NODE_WIDTH * bdd + OFFSET_LOW]= l;
-		t_nodes[NODE_WIDTH * bdd + OFFSET_HIGH]= h;
+		int offset = node_width * (bdd - base_size);
+		if(o_nodes != null) {
+			o_nodes.set(offset + OFFSET_VAR, v);
+			o_nodes.set(offset + OFFSET_LOW, l);
+			o_nodes.set(offset + OFFSET_HIGH, h);
+			return;
+		}
+		t_nodes[offset + OFFSET_VAR]= v;
+		t_nodes[offset + OFFSET_LOW]= l;
+		t_nodes[offset + OFFSET_HIGH]= h;
 	}
 
-	/** returns true of the bdd <tt>bdd</tt> is the same as (var,low,high) */
+	/** returns true of the bdd <tt>bdd</tt> is the same as (var,low,high). only for local nodes */
 	protected final boolean match_table(final int bdd, final int var, final int low, final int high) {
 		// WAS: return getVar(bdd) == var && getLow(bdd) == low && getHigh(bdd) == high;
 
-		int offset = bdd * NODE_WIDTH;
+		int offset = (bdd - base_size) * node_width;
+		if(o_nodes != null)
+			return o_nodes.get(offset + OFFSET_VAR) == var && o_nodes.get(offset + OFFSET_LOW) == low &&
+				o_nodes.get(offset + OFFSET_HIGH) == high;
+
 		return t_nodes[offset + OFFSET_VAR] == var && t_nodes[offset + OFFSET_LOW] == low &&
 				t_nodes[offset + OFFSET_HIGH] == high;
 	}
 
 
 	// -----------------------------------------------------------------------------------------
-	// low-level access to the linked list
-	private final void setNext(int bdd, int v) { t_list[OFFSET_NEXT + LIST_WIDTH * bdd] = v; }
-	private final void setPrev(int bdd, int v) { t_list[OFFSET_PREV + LIST_WIDTH * bdd] = v; }
-	private final int getNext(final int bdd) {	return t_list[OFFSET_NEXT + LIST_WIDTH * bdd];	}
-	private final int getPrev(final int bdd) {	return t_list[OFFSET_PREV + LIST_WIDTH * bdd];	}
+	// low-level access to the linked list.
+	// next is indexed by node, prev (the hash bucket head) by hash value. both are local to an overlay
+	private final int l_get(int i) { return o_list == null ? t_list[i] : o_list.get(i); }
+	private final void l_set(int i, int v) { if(o_list == null) t_list[i] = v; else o_list.set(i, v); }
+
+	// with open addressing, next is only used for the free list and stored in the low member
+	/* package */ final void setNext(int bdd, int v) {
+		if(packed) n_set(OFFSET_PACKED_NEXT + node_width * (bdd - base_size), v);
+		else if(open_addressing) n_set(OFFSET_LOW + node_width * (bdd - base_size), v);
+		else l_set(OFFSET_NEXT + list_width * (bdd - base_size), v);
+	}
+	private final int getNext(final int bdd) {
+		if(open_addressing) return n_get(OFFSET_LOW + node_width * (bdd - base_size));
+		return packed ? n_get(OFFSET_PACKED_NEXT + node_width * (bdd - base_size)) : l_get(OFFSET_NEXT + list_width * (bdd - base_size));
+	}
+	private final int getPrev(final int hash) {	return l_get(offset_prev + list_width * hash);	}
+
+	// ---- [ used by Sifting, which rewrites nodes in place ] ----
+
+	/** unlink a node from its hash chain. var/low/high must not have changed since it was linked */
+	/* package */ final void hash_remove(int bdd) {
+		finish_rehash();
+		if(open_addressing) {
+			oa_remove(bdd);
+			return;
+		}
+
+		int o = list_width * compute_hash( getVar(bdd), getLow(bdd), getHigh(bdd)) + offset_prev;
+		int curr = l_get(o);
+		if(curr == bdd) {
+			l_set(o, getNext(bdd));
+			return;
+		}
+		while(curr != 0) {
+			int next = getNext(curr);
+			if(next == bdd) {
+				setNext(curr, getNext(bdd));
+				return;
+			}
+			curr = next;
+		}
+		Test.check(false, "node " + bdd + " is not in the hash table");
+	}
 
-	/** a more clever way to set all the prev members up to <tt>upto</tt> to 0 */
+	/** the parameters this table was created with. changing them later only affects grow and GC */
+	public final Settings getSettings() { return settings; }
+
+	/** the current GC epoch */
+	/* package */ final int getEpoch() { return gc_epoch; }
+
+	/** the epoch in which this node was last allocated or freed. base nodes are never freed */
+	/* package */ final int getStamp(int bdd) {
+		bdd &= EDGE_REGULAR;
+		if(bdd >= table_size) return Integer.MAX_VALUE; // gone since compact() shrunk the table
+		return bdd < base_size ? 0 : t_stamp[bdd - base_size];
+	}
+
+	/** link a node into the hash chain given by its current var/low/high */
+	/* package */ final void hash_insert(int bdd) {
+		finish_rehash();
+		link(bdd);
+	}
+
+	// ---- [ used by ParallelGC, many threads at once ] ----
+
+	private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int [].class);
+
+	/** set the mark bit of a (local, on-heap) node. @return false if it was already set */
+	/* package */ final boolean mark_atomic(int bdd) {
+		int o = OFFSET_VAR + node_width * (bdd - base_size);
+		if((t_nodes[o] & NODE_MARK) != 0) return false; // the cheap test first
+		return ((int) INTS.getAndBitwiseOr(t_nodes, o, NODE_MARK) & NODE_MARK) == 0;
+	}
+
+	/** link() for an on-heap table, the bucket heads (or slots) are shared with the other threads */
+	/* package */ final void link_atomic(int bdd) {
+		int v = getVar(bdd), l = getLow(bdd), h = getHigh(bdd);
+		if(open_addressing) {
+			for(int pos = oa_hash(v,l,h); ; pos = (pos + 1) & hash_mask)
+				if(t_hash[pos] == 0 && INTS.compareAndSet(t_hash, pos, 0, bdd)) return;
+		}
+
+		int o = list_width * compute_hash(v,l,h) + offset_prev, head;
+		do {
+			head = (int) INTS.getVolatile(t_list, o);
+			setNext(bdd, head);
+		} while(!INTS.compareAndSet(t_list, o, head, bdd));
+	}
+
+	private final void link(int bdd) {
+		int v = getVar(bdd), l = getLow(bdd), h = getHigh(bdd);
+		if(open_addressing) t_hash[ oa_free_slot(v,l,h) ] = bdd;
+		else connect_list(bdd, compute_hash(v,l,h));
+	}
+
+	/** return an unlinked node to the free list */
+	/* package */ final void free_node(int bdd) {
+		free_link(bdd, first_free_node);
+		first_free_node = bdd;
+		free_nodes_count++;
+	}
+
+	/** invalidate a node and put it in front of the free list starting at <tt>next</tt> */
+	/* package */ final void free_link(int bdd, int next) {
+		invalidate(bdd);
+		t_stamp[bdd - base_size] = gc_epoch;
+		setNext(bdd, next);
+	}
+
+	/** empty the unique table, which must have room for <tt>nodes</tt> (local) nodes */
+	/* package */ final void hash_clear(int nodes) {
+		if(!open_addressing) {
+			clearPrev(0, nodes);
+			return;
+		}
+
+		int size = Integer.highestOneBit(Math.max(nodes, 16) - 1) << 2; // at least twice as large
+		if(t_hash == null || t_hash.length < size) {
+			t_hash = null; // let the old one go first
+			t_hash = Allocator.allocateIntArray(size);
+			hash_mask = size - 1;
+		} else Arrays.fill(t_hash, 0);
+	}
+
+	// ---- [ open addressing ] ----
+
+	private final int oa_hash(int v, int l, int h) {
+		return HashFunctions.mix_wang( HashFunctions.hash_prime(v,l,h) ) & hash_mask;
+	}
+
+	/** the first empty slot for (v,l,h), which is not in the table */
+	private final int oa_free_slot(int v, int l, int h) {
+		int pos = oa_hash(v,l,h);
+		while(t_hash[pos] != 0) pos = (pos + 1) & hash_mask;
+		return pos;
+	}
+
+	/** remove a node and move the rest of its cluster back, so no lookup is cut short by the hole */
+	private final void oa_remove(int bdd) {
+		int hole = oa_hash( getVar(bdd), getLow(bdd), getHigh(bdd));
+		while(t_hash[hole] != bdd) {
+			Test.check(t_hash[hole] != 0, "node " + bdd + " is not in the hash table");
+			hole = (hole + 1) & hash_mask;
+		}
+
+		for(int pos = (hole + 1) & hash_mask, node; (node = t_hash[pos]) != 0; pos = (pos + 1) & hash_mask) {
+			int home = oa_hash( getVar(node), getLow(node), getHigh(node));
+			// the node can fill the hole unless its home is (cyclically) in (hole, pos]
+			boolean stays = (hole < pos) ? (home > hole && home <= pos) : (home > hole || home <= pos);
+			if(!stays) {
+				t_hash[hole] = node;
+				hole = pos;
+			}
+		}
+		t_hash[hole] = 0;
+	}
+
+	/** a more clever way to set all the prev members (hash buckets) from <tt>from</tt> up to <tt>upto</tt> to 0 */
 	private final void clearPrev(int from, int upto) {
-		from = from * LIST_WIDTH + OFFSET_PREV;
-		upto = upto * LIST_WIDTH + OFFSET_PREV;
+		from = from * list_width + offset_prev;
+		upto = upto * list_width + offset_prev;
 
 		// TODO: we should unroll this at least once!
 		while(from < upto) {
-			t_list[from] = 0;
-			from += LIST_WIDTH;
+			l_set(from, 0);
+			from += list_width;
 		}
 	}
 
-	/** put <tt>a</tt> before <tt>b</tt> in the linked list */
+	/** put <tt>a</tt> before (the bucket) <tt>b</tt> in the linked list */
 	private final void connect_list(int a, int b) {
-		int o1 = a * LIST_WIDTH;
-		int o2 = b * LIST_WIDTH;
+		int o2 = b * list_width + offset_prev;
 
-		t_list[o1 + OFFSET_NEXT] = t_list[o2 + OFFSET_PREV];
-		t_list[o2 + OFFSET_PREV] = a;
+		setNext(a, l_get(o2));
+		l_set(o2, a);
 	}
 
 
@@ -572,7 +1469,8 @@ public class NodeTable implements Serializable {
 
 	/** the recursive version f mark_tree */
 	private final void mark_tree_rec(int bdd) {
-		if(bdd < 2) return;
+		bdd &= EDGE_REGULAR;
+		if(bdd < gc_floor) return;
 		if( isNodeMarked(bdd)) return;
 		mark_node(bdd);
 		mark_tree( getLow(bdd) );
@@ -596,8 +1494,9 @@ public class NodeTable implements Serializable {
 		// recursive_mark_tree() as soon as the tree depth changes
 
 
-		// if its terminal, then we are already done
-		if(bdd < 2 ) return;
+		// if its terminal (or a base node in an overlay), then we are already done
+		bdd &= EDGE_REGULAR;
+		if(bdd < gc_floor ) return;
 
 		// insert the first one
 		mstack.reset();
@@ -607,14 +1506,14 @@ public class NodeTable implements Serializable {
 		// here we go, recursively mark the nodes in this tree:
 		while(mstack.getTOS() > 0) {
 			int next = mstack.pop();
-			int tmp = getLow(next);
-			if( tmp > 1 && !isNodeMarked(tmp)) {
+			int tmp = getLow(next) & EDGE_REGULAR;
+			if( tmp >= gc_floor && !isNodeMarked(tmp)) {
 				mark_node(tmp);
 				mstack.push(tmp);
 			}
 
-			tmp = getHigh(next);
-			if( tmp > 1 && !isNodeMarked(tmp)) {
+			tmp = getHigh(next) & EDGE_REGULAR;
+			if( tmp >= gc_floor && !isNodeMarked(tmp)) {
 				mark_node(tmp);
 				mstack.push(tmp);
 			}
@@ -625,6 +1524,7 @@ public class NodeTable implements Serializable {
 
 	/** recursively unmark nodes, used by some internal functions */
 	public final void unmark_tree(int bdd) {
+		bdd &= EDGE_REGULAR;
 		if(bdd < 2) return;
 		if( !isNodeMarked(bdd)) return;
 		unmark_node(bdd);
@@ -632,16 +1532,25 @@ public class NodeTable implements Serializable {
 		unmark_tree( getHigh(bdd) );
 	}
 
+	// base nodes are shared with other overlays, so their mark bits are kept in b_marks
 	public final void mark_node(int bdd) {
-		t_nodes[OFFSET_VAR + NODE_WIDTH*bdd] |= NODE_MARK;
+		if(bdd < base_size) {
+			if(b_marks == null) b_marks = Allocator.allocateIntArray( (base_size + 31) / 32);
+			b_marks[bdd >>> 5] |= (1 << (bdd & 31));
+		} else if(o_nodes != null) o_nodes.or(OFFSET_VAR + node_width*(bdd - base_size), NODE_MARK);
+		else t_nodes[OFFSET_VAR + node_width*(bdd - base_size)] |= NODE_MARK;
 	}
 
 	public final void unmark_node(int bdd) {
-		t_nodes[OFFSET_VAR + NODE_WIDTH*bdd] &= NODE_UNMARK;
+		if(bdd < base_size) {
+			if(b_marks != null) b_marks[bdd >>> 5] &= ~(1 << (bdd & 31));
+		} else if(o_nodes != null) o_nodes.and(OFFSET_VAR + node_width*(bdd - base_size), NODE_UNMARK);
+		else t_nodes[OFFSET_VAR + node_width*(bdd - base_size)] &= NODE_UNMARK;
 	}
 
 	public final boolean isNodeMarked(int bdd) {
-		return (t_nodes[OFFSET_VAR + NODE_WIDTH*bdd] & NODE_MARK) != 0;
+		if(bdd < base_size) return b_marks != null && (b_marks[bdd >>> 5] & (1 << (bdd & 31))) != 0;
+		return (n_get(OFFSET_VAR + node_width*(bdd - base_size)) & NODE_MARK) != 0;
 	}
 
 	// ------- [ debug ] -----------------------------------------------------------------------
@@ -652,7 +1561,11 @@ public class NodeTable implements Serializable {
 
 		if (t_nodes!= null) ret += t_nodes.length * 4;
 		if (t_list!= null) ret += t_list.length * 4;
+		if (t_hash != null) ret += t_hash.length * 4;
+		if (o_nodes != null) ret += o_nodes.getMemoryUsage();
+		if (o_list != null) ret += o_list.getMemoryUsage();
 		if (t_ref != null) ret += t_ref.length * 2;
+		if (b_marks != null) ret += b_marks.length * 4;
 		if (nstack != null) ret += nstack.getCapacity() * 4;
 		if (mstack != null) ret += mstack.getCapacity() * 4;
 
@@ -718,8 +1631,15 @@ public class NodeTable implements Serializable {
 				table_size, free_nodes_count, stat_nt_grow, stat_grow_time,
 				dead_nodes, debug_compute_root_nodes() );
 
-		JDDConsole.out.printf("HT chain=%d access=%d\n",
-				ht_chain, stat_lookup_count);
+		JDDConsole.out.printf("HT chain=%d access=%d%s\n",
+				ht_chain, stat_lookup_count, open_addressing ? " (open addressing)" : "");
+
+		int last = PROBE_HISTOGRAM_SIZE - 1;
+		while(last > 0 && stat_probes[last] == 0) last--;
+		JDDConsole.out.printf("HT probes:");
+		for(int i = 0; i <= last; i++)
+			JDDConsole.out.printf(" %d%s=%d", i, i == PROBE_HISTOGRAM_SIZE - 1 ? "+" : "", stat_probes[i]);
+		JDDConsole.out.printf("\n");
 
 		JDDConsole.out.printf("GC count=%d #freed=%d time=%d signal-time=%d\n",
 				stat_gc_count, stat_gc_freed, stat_gc_time, stat_notify_time);
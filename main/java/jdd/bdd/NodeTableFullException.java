@@ -0,0 +1,23 @@
+package jdd.bdd;
+
+
+/**
+ * thrown when a node-table has used up its node budget and its OverflowPolicy gives up.
+ * <p>the operation that needed the node is aborted. the table itself stays consistent,
+ * but the caller should drop the results of that operation (and usually the manager)
+ * and run the work again somewhere with more room.
+ *
+ * @see OverflowPolicy
+ * @see jdd.util.Settings#nodetableMaxNodes
+ */
+
+public class NodeTableFullException extends RuntimeException {
+	public final int nodes; /** the size of the table (its local part in an overlay) */
+	public final int budget; /** the node budget it has reached */
+
+	public NodeTableFullException(int nodes, int budget) {
+		super("node-table is full: " + nodes + " nodes, budget " + budget);
+		this.nodes = nodes;
+		this.budget = budget;
+	}
+}
@@ -0,0 +1,40 @@
+package jdd.bdd;
+
+import jdd.util.JDDConsole;
+
+
+/**
+ * what a node-table does when it needs to grow past its node budget.
+ * <p>it is called from inside an operation, with the table at its budget and too few free
+ * nodes left after the usual garbage collection. when it returns, the table grows anyway
+ * unless the policy has made room (see NodeTable.emergencyGc). it may also throw
+ * NodeTableFullException to abort the operation.
+ *
+ * @see NodeTable#setOverflowPolicy
+ * @see jdd.util.Settings#nodetableMaxNodes
+ */
+
+public interface OverflowPolicy {
+	void overflow(NodeTable table, int budget);
+
+
+	/** abort the operation right away */
+	OverflowPolicy FAIL = (table, budget) -> {
+		throw new NodeTableFullException(table.getLocalSize(), budget);
+	};
+
+	/** collect all garbage and wipe the caches, abort the operation only if that did not help */
+	OverflowPolicy COLLECT_FIRST = (table, budget) -> {
+		if(!table.emergencyGc()) throw new NodeTableFullException(table.getLocalSize(), budget);
+	};
+
+	/** the budget is only a warning: say so once and grow past it */
+	OverflowPolicy GROW = new OverflowPolicy() {
+		public void overflow(NodeTable table, int budget) {
+			if(!table.budget_warned) {
+				table.budget_warned = true;
+				JDDConsole.out.printf("WARNING: node-table has passed its budget of %d nodes\n", budget);
+			}
+		}
+	};
+}
@@ -0,0 +1,127 @@
+package jdd.bdd;
+
+import jdd.util.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+
+/**
+ * garbage collection of a NodeTable by all threads of a fork-join pool.
+ * <p>the table is cut into ranges. each range first marks the trees of its referenced
+ * nodes, then (once everything is marked) re-hashes its live nodes and builds its own
+ * free list. the free lists are joined at the end, so the result is the same as the
+ * sequential gc() would give, except for the order of the nodes in a hash chain.
+ * @see NodeTable#gc
+ * @see Configuration#nodetableParallelGc
+ */
+
+// the trees of two roots often share nodes, so a node is marked with an atomic OR and only
+// the thread that set the bit goes on to its children. every other write during the sweep
+// is to a node of the own range, except the bucket heads (or slots) which are CAS:ed.
+
+final class ParallelGC {
+	private static final int RANGES_PER_THREAD = 8; /** more ranges than threads to even out the marking */
+
+	private final NodeTable nt;
+	private final int floor, size, ranges;
+	private final int [] free_head, free_tail, free_count; /** the free list of each range */
+
+	/* package */ ParallelGC(NodeTable nt, int floor) {
+		this.nt = nt;
+		this.floor = floor;
+		this.size = nt.table_size;
+		this.ranges = ForkJoinPool.getCommonPoolParallelism() * RANGES_PER_THREAD;
+		free_head = new int[ranges];
+		free_tail = new int[ranges];
+		free_count = new int[ranges];
+	}
+
+	/** the first node of this range */
+	private int range_start(int r) {
+		return floor + (int) ((long) (size - floor) * r / ranges);
+	}
+
+	/** mark, sweep and merge. the free list of the NodeTable is replaced */
+	/* package */ void collect() {
+		final int [] roots = nt.nstack.getData();
+		final int tos = nt.nstack.getTOS();
+
+		run_all(r -> {
+			NodeStack stack = new NodeStack(64);
+			if(r == 0) for(int i = 0; i < tos; i++) mark_tree(roots[i], stack); // the stuff we are working on
+			for(int i = range_start(r + 1); i > range_start(r); ) {
+				i--;
+				if(nt.isValid(i) && nt.getRefPlain(i) > 0) mark_tree(i, stack);
+			}
+		});
+
+		nt.hash_clear(size - nt.base_size);
+		run_all(this::sweep);
+
+		// join the lists, lowest range first
+		int first = 0, count = 0;
+		for(int r = ranges; r > 0; ) {
+			r--;
+			if(free_count[r] == 0) continue;
+			nt.setNext(free_tail[r], first);
+			first = free_head[r];
+			count += free_count[r];
+		}
+		nt.first_free_node = first;
+		nt.free_nodes_count = count;
+	}
+
+	/** mark a tree with our own stack, the nodes other threads have marked are skipped */
+	private void mark_tree(int bdd, NodeStack stack) {
+		bdd &= NodeTable.EDGE_REGULAR;
+		if(bdd < floor || !nt.mark_atomic(bdd)) return;
+
+		stack.push(bdd);
+		while(stack.getTOS() > 0) {
+			int next = stack.pop();
+			if(stack.getTOS() + 2 > stack.getCapacity()) stack.grow(stack.getCapacity() * 2);
+
+			int tmp = nt.getLow(next) & NodeTable.EDGE_REGULAR;
+			if(tmp >= floor && nt.mark_atomic(tmp)) stack.push(tmp);
+
+			tmp = nt.getHigh(next) & NodeTable.EDGE_REGULAR;
+			if(tmp >= floor && nt.mark_atomic(tmp)) stack.push(tmp);
+		}
+	}
+
+	/** unmark and re-hash the live nodes of one range, put the others in its free list */
+	private void sweep(int r) {
+		int head = 0, tail = 0, count = 0;
+		for(int i = range_start(r + 1), from = range_start(r); i > from; ) {
+			i--;
+			if(nt.isValid(i) && nt.isNodeMarked(i)) {
+				nt.unmark_node(i);
+				nt.link_atomic(i);
+			} else {
+				nt.free_link(i, head);
+				if(head == 0) tail = i;
+				head = i;
+				count++;
+			}
+		}
+		free_head[r] = head;
+		free_tail[r] = tail;
+		free_count[r] = count;
+	}
+
+	// ---------------------------------------------------------------
+
+	private interface RangeTask { void run(int range); }
+
+	/** run the task on all ranges and wait for them */
+	private void run_all(RangeTask task) {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		ForkJoinTask<?> [] jobs = new ForkJoinTask<?>[ranges];
+		for(int r = 0; r < ranges; r++) {
+			final int range = r;
+			jobs[r] = pool.submit(() -> task.run(range));
+		}
+		for(ForkJoinTask<?> job : jobs) job.join();
+	}
+}
@@ -5,6 +5,7 @@ import jdd.util.*;
 import jdd.util.math.*;
 
 import java.io.Serializable;
+import java.util.function.IntUnaryOperator;
 
 
 /**
@@ -30,7 +31,7 @@ public class Permutation implements Cloneable, Serializable {
 		Permutation copy = null;
 		try{
 			copy = (Permutation) super.clone();
-			copy.next = (Permutation) this.next.clone();
+			if(next != null) copy.next = (Permutation) this.next.clone();
 		}catch(CloneNotSupportedException e) {
 			e.printStackTrace();
 		}
@@ -44,6 +45,17 @@ public class Permutation implements Cloneable, Serializable {
 		this.from = Array.clone(from);
 		this.to= Array.clone(to);
 
+		update(nt);
+		next = null;
+
+		hash = computeHash(from, to);
+	}
+
+	/**
+	 * (re)compute the level permutation from the variables in from/to.
+	 * called again after the variables have been reordered, with a new id since the old one may be in a cache
+	 */
+	/* package */ void update(NodeTable nt) {
 		int len = from.length;
 		int [] f = new int[len];
 		int [] t = new int[len];
@@ -64,13 +76,31 @@ public class Permutation implements Cloneable, Serializable {
 		for(int i = 0; i < len; i++) {
 			perm[ f[i] ] = t[i];
 		}
-		next = null;
-
-		hash = computeHash(from, to);
 
 		id = id_c ++;
 	}
 
+	/** a copy of this permutation alone, with the same id. from/to are changed by remap(), perm is only replaced */
+	/* package */ Permutation copy() {
+		Permutation ret;
+		try {
+			ret = (Permutation) super.clone();
+		} catch(CloneNotSupportedException e) {
+			throw new InternalError(e);
+		}
+		ret.from = Array.clone(from);
+		ret.to = Array.clone(to);
+		ret.next = null;
+		return ret;
+	}
+
+	/** the variable nodes in from/to have new ids after NodeTable.compact() */
+	/* package */ void remap(IntUnaryOperator moved) {
+		for(int i = 0; i < from.length; i++) from[i] = moved.applyAsInt(from[i]);
+		for(int i = 0; i < to.length; i++) to[i] = moved.applyAsInt(to[i]);
+		hash = computeHash(from, to);
+	}
+
 	// ----------------------------------------------------------------
 	public void show() {
 		JDDConsole.out.println("-----------------------------");
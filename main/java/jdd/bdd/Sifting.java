@@ -0,0 +1,247 @@
+package jdd.bdd;
+
+import jdd.util.*;
+
+
+/**
+ * dynamic variable reordering by sifting (Rudell): each variable is moved through all
+ * levels and then left at the level where the BDD was the smallest.
+ * <p>two neighbouring levels are swapped in place. a node keeps its id and its function when
+ * it is rewritten, so every BDD the user holds stays valid.
+ * @see BDD#reorder
+ */
+
+// the node table only counts external references, so we keep our own parent counters here
+// (plus one for nodes referenced from outside). a node that loses its last parent is freed at once,
+// hence the sum of the level sizes is always the number of live nodes.
+//
+// swapping level k (variable x) and k+1 (variable y):
+//  - y-nodes move up to k unchanged.
+//  - x-nodes without y-children move down to k+1 unchanged.
+//  - an x-node f = (x, f0, f1) with y-children becomes f = (y, (x, f00, f10), (x, f01, f11)),
+//    where fij are the cofactors of f0/f1 wrt y. its old y-children may die.
+
+final class Sifting {
+	private final BDD bdd;
+	private final int num_vars, max_growth;
+	private int [] parents; /** parent count of each node, plus one if it is referenced */
+	private int [] level_pos; /** index of each node in its level list */
+	private int [][] level_nodes; /** the nodes at each level */
+	private int [] level_size;
+	private int [] buf_x, buf_y; /** used by swap() */
+	private int total; /** number of live nodes */
+
+	/* package */ int swaps; /** number of level swaps done */
+
+	/**
+	 * @param max_growth a variable is not moved further once the BDD has grown to this percentage of the best size
+	 */
+	/* package */ Sifting(BDD bdd, int max_growth) {
+		this.bdd = bdd;
+		this.num_vars = bdd.num_vars;
+		this.max_growth = max_growth;
+	}
+
+	/** sift all variables, the largest levels first. @return number of live nodes afterwards */
+	/* package */ int run() {
+		setup();
+
+		// by level size, largest first. insertion sort is fine for a few hundred variables
+		int [] order = new int[num_vars], size = new int[num_vars];
+		for(int i = 0; i < num_vars; i++) {
+			int var = bdd.level2var[i], s = level_size[i], j = i;
+			for(; j > 0 && size[j-1] < s; j--) {
+				order[j] = order[j-1];
+				size[j] = size[j-1];
+			}
+			order[j] = var;
+			size[j] = s;
+		}
+		for(int i = 0; i < num_vars; i++) sift(order[i]);
+
+		return total;
+	}
+
+	/** number of live nodes */
+	/* package */ int size() { return total; }
+
+	// ---------------------------------------------------------------
+
+	private void setup() {
+		int table_size = bdd.table_size;
+		parents = new int[table_size];
+		level_pos = new int[table_size];
+		level_size = new int[num_vars];
+		level_nodes = new int[num_vars][];
+
+		for(int i = 2; i < table_size; i++)
+			if(bdd.isValid(i)) level_size[ bdd.getVar(i) ]++;
+
+		for(int i = 0; i < num_vars; i++) {
+			level_nodes[i] = new int[Math.max(16, level_size[i] * 2)];
+			level_size[i] = 0;
+		}
+
+		total = 0;
+		for(int i = 2; i < table_size; i++) {
+			if(!bdd.isValid(i)) continue;
+			add_to_level(bdd.getVar(i), i);
+			parents[ bdd.getLow(i) ]++;
+			parents[ bdd.getHigh(i) ]++;
+			if(bdd.getRefPlain(i) > 0) parents[i]++;
+			total++;
+		}
+	}
+
+	/** move one variable through all levels and leave it where the BDD was the smallest */
+	private void sift(int var) {
+		int level = bdd.var2level[var], best = total, best_level = level;
+		boolean down = (num_vars - 1 - level) < level; // the closer end first
+
+		for(int pass = 0; pass < 2; pass++, down = !down) {
+			if(down) {
+				while(level < num_vars - 1 && !too_large(best)) {
+					swap(level++);
+					if(total < best) { best = total; best_level = level; }
+				}
+			} else {
+				while(level > 0 && !too_large(best)) {
+					swap(--level);
+					if(total < best) { best = total; best_level = level; }
+				}
+			}
+		}
+
+		while(level < best_level) swap(level++);
+		while(level > best_level) swap(--level);
+	}
+
+	private boolean too_large(int best) {
+		return (long) total * 100 > (long) best * max_growth;
+	}
+
+	/** swap the variables at levels k and k+1 */
+	private void swap(int k) {
+		int n = level_size[k], m = level_size[k+1];
+		make_room(2 * n + 2); // at most two new nodes per x-node
+
+		if(buf_x == null || buf_x.length < n) buf_x = new int[n * 2];
+		if(buf_y == null || buf_y.length < m) buf_y = new int[m * 2];
+		int [] xs = buf_x, ys = buf_y;
+		System.arraycopy(level_nodes[k], 0, xs, 0, n);
+		System.arraycopy(level_nodes[k+1], 0, ys, 0, m);
+		level_size[k] = level_size[k+1] = 0;
+
+		for(int i = 0; i < n; i++) bdd.hash_remove(xs[i]);
+
+		// y moves up
+		for(int i = 0; i < m; i++) {
+			int y = ys[i];
+			bdd.hash_remove(y);
+			bdd.setAll(y, k, bdd.getLow(y), bdd.getHigh(y));
+			bdd.hash_insert(y);
+			add_to_level(k, y);
+		}
+
+		// x-nodes that do not depend on y move down, the others are kept in xs[0..moved)
+		int moved = 0;
+		for(int i = 0; i < n; i++) {
+			int f = xs[i], f0 = bdd.getLow(f), f1 = bdd.getHigh(f);
+			if(is_at(f0, k) || is_at(f1, k)) {
+				xs[moved++] = f;
+			} else {
+				bdd.setAll(f, k+1, f0, f1);
+				bdd.hash_insert(f);
+				add_to_level(k+1, f);
+			}
+		}
+
+		for(int i = 0; i < moved; i++) {
+			int f = xs[i], f0 = bdd.getLow(f), f1 = bdd.getHigh(f);
+			boolean y0 = is_at(f0, k), y1 = is_at(f1, k);
+			int f00 = y0 ? bdd.getLow(f0) : f0, f01 = y0 ? bdd.getHigh(f0) : f0;
+			int f10 = y1 ? bdd.getLow(f1) : f1, f11 = y1 ? bdd.getHigh(f1) : f1;
+
+			int g0 = find_or_add(k+1, f00, f10);
+			int g1 = find_or_add(k+1, f01, f11);
+			release(f0);
+			release(f1);
+
+			bdd.setAll(f, k, g0, g1);
+			bdd.hash_insert(f);
+			add_to_level(k, f);
+		}
+
+		int x = bdd.level2var[k], y = bdd.level2var[k+1];
+		bdd.level2var[k] = y;
+		bdd.level2var[k+1] = x;
+		bdd.var2level[x] = k+1;
+		bdd.var2level[y] = k;
+		swaps++;
+	}
+
+	private boolean is_at(int node, int level) {
+		return node >= 2 && bdd.getVar(node) == level;
+	}
+
+	/** get the node (level, l, h) and count the new parent edge */
+	private int find_or_add(int level, int l, int h) {
+		if(l == h) {
+			parents[l]++;
+			return l;
+		}
+
+		int n = bdd.add(level, l, h);
+		if(parents[n] == 0) { // new node
+			parents[l]++;
+			parents[h]++;
+			add_to_level(level, n);
+			total++;
+		}
+		parents[n]++;
+		return n;
+	}
+
+	/** remove one parent edge from this node, free it if it was the last one */
+	private void release(int node) {
+		if(node < 2 || --parents[node] > 0) return;
+
+		int l = bdd.getLow(node), h = bdd.getHigh(node);
+		remove_from_level(bdd.getVar(node), node);
+		bdd.hash_remove(node);
+		bdd.free_node(node);
+		total--;
+
+		release(l);
+		release(h);
+	}
+
+	/** make sure add() will not need to grow the table during the next swap */
+	private void make_room(int need) {
+		while(bdd.free_nodes_count < need) {
+			bdd.grow(); // all our nodes are reachable from referenced ones, so GC will not free any of them
+			if(parents.length < bdd.table_size) {
+				parents = Array.resize(parents, parents.length, bdd.table_size);
+				level_pos = Array.resize(level_pos, level_pos.length, bdd.table_size);
+			}
+		}
+	}
+
+	// ---------------------------------------------------------------
+
+	private void add_to_level(int level, int node) {
+		int size = level_size[level];
+		if(size == level_nodes[level].length)
+			level_nodes[level] = Array.resize(level_nodes[level], size, size * 2);
+		level_nodes[level][size] = node;
+		level_pos[node] = size;
+		level_size[level] = size + 1;
+	}
+
+	private void remove_from_level(int level, int node) {
+		int last = --level_size[level], pos = level_pos[node];
+		int moved = level_nodes[level][last];
+		level_nodes[level][pos] = moved;
+		level_pos[moved] = pos;
+	}
+}
@@ -29,9 +29,14 @@ import java.io.Serializable;
 // all cache entries are gathered in "data". each cache entry occupies "width" integers
 // - the first element is always the output
 // - next element is the first input value and so on.
-// so an entry (a,b,c) => x is represented as [x, a, b, c] in data.
+// - the last element is the GC epoch of the node table when the entry was inserted
+// so an entry (a,b,c) => x is represented as [x, a, b, c, e] in data.
 // to avoid to much low-level code, users should use the helper functions:
 // getIn(), getOut(), setIn(), setOut(), isInvalid(), invalidate()
+//
+// stamps: a GC does not touch the cache. when a lookup finds an entry from an older epoch,
+// the node stamps (see NodeTable.getStamp) tell us if any of its nodes has been freed or reused
+// since then. if so, the entry is dropped, otherwise it is moved to the current epoch.
 
 public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 	private int []data;
@@ -42,6 +47,11 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 	protected int members, width, bdds, num_clears, num_grows, cache_size;
 	protected long num_access;
 	protected long hit, miss, last_hit, last_access; // cache hits and misses, hit/acces-count since last grow
+	protected long num_stale; /** entries dropped by a lookup since their nodes had been collected */
+
+	private int epoch; /** the GC epoch of the node table, new entries are stamped with it */
+	private NodeTable stamps; /** the table whose node stamps we check, set by bind() */
+	private Settings settings = new Settings(); /** the grow parameters, those of the bound table */
 	
 	@Override
 	public Object clone() {
@@ -54,6 +64,21 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 		return copy;
 	}
 
+	/**
+	 * a copy with its own data, for a copy of the node table (see BDD#snapshot).
+	 * without the entries, the copy has the same size but is empty. it must be bound to the new table.
+	 */
+	/* package */ SimpleCache copy(boolean entries) {
+		SimpleCache ret = (SimpleCache) clone();
+		if(entries) ret.data = Array.clone(data);
+		else {
+			ret.data = Allocator.allocateIntArray(data.length);
+			ret.clear_cache();
+		}
+		ret.stamps = null;
+		return ret;
+	}
+
 	public SimpleCache(){
         super();
 
@@ -70,7 +95,7 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 		if(size < Configuration.MIN_CACHE_SIZE) size = Configuration.MIN_CACHE_SIZE;
 
 		this.members = members;
-		this.width   = members + 1; // plus one for the output
+		this.width   = members + 2; // plus one for the output and one for the epoch
 		this.bdds    = bdds;
 		this.cache_bits = Digits.closest_log2(size); // min size 32
 		this.shift_bits = 32 - this.cache_bits; // w-n, where w is the machine word size..
@@ -80,6 +105,7 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 		num_grows = 0;
 		num_access = 0;
 		hit = miss = last_hit = last_access = 0;
+		num_stale = 0;
 
 		this.num_clears = 0;
 
@@ -96,6 +122,9 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 	protected final int getIn(int i, int member) {	return data[i * width + member]; }
 	protected final void setIn(int i, int member, int v) { 	data[i * width + member] = v; }
 
+	private final int getEpoch(int i) {	return data[i * width + width - 1]; }
+	private final void setEpoch(int i, int e) { 	data[i * width + width - 1] = e; }
+
 
 	/** invalidate the complete cache */
 	protected final void clear_cache() {
@@ -125,18 +154,18 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 	 */
 
 	protected boolean may_grow() {
-		if(num_grows < Configuration.maxSimplecacheGrows) {
+		if(num_grows < settings.maxSimplecacheGrows) {
 			long acs = (num_access - last_access);
 
 			// only when we have "MIN_SIMPLECACHE_ACCESS_TO_GROW %" or more access', we have enough information to decide
 			// whether we can grow cache or not (beside, if acs == 0, we will get a div by 0 below :)
-			if( (acs * 100 )  < cache_size * Configuration.minSimplecacheAccessToGrow) return false;
+			if( (acs * 100 )  < cache_size * settings.minSimplecacheAccessToGrow) return false;
 
 
 			// compute hitrate (in procent) since the LAST grow, not the overall hitrate
 			int rate = (int)( ((hit - last_hit) * 100.0 ) / acs);
 
-			if(rate > Configuration.minSimplecacheHitrateToGrow) {
+			if(rate > settings.minSimplecacheHitrateToGrow) {
 				// store information needed to compute the next after-last-grow-hitrate
 				last_hit = hit;
 				last_access = num_access;
@@ -158,6 +187,16 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 	}
 
 
+	/**
+	 * attach this cache to the node table that owns the nodes in it, and take over its epoch.
+	 * this is done after each GC, and must be done when the cache is copied for another table.
+	 */
+	public void bind(NodeTable nt) {
+		stamps = nt;
+		settings = nt.getSettings();
+		epoch = nt.getEpoch();
+	}
+
 	/** try to grow the cache. if unable, it will just wipe the cache clean */
 	public void free_or_grow() {
 		if(may_grow()) grow_and_invalidate_cache();
@@ -185,23 +224,50 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 	// ---[ these operations clean only invalid nodes ] ----------------------
 
 	/**
-	 * either _partially_ wipe the cache or try to grow it.
+	 * called after a GC: either grow the cache or leave the collected entries to the stamps.
 	 *
 	 * <p>XXX: at the moment, if cache is grown all current data is lost
 	 *
 	 * @see #free_or_grow
 	 */
 	public void free_or_grow(NodeTable nt) {
-		if(may_grow())	grow_and_invalidate_cache(); // no way to partially invalidate, as the size and thus the hashes chagnes
+		bind(nt);
+		if(may_grow())	grow_and_invalidate_cache(); // no way to keep the entries, as the size and thus the hashes chagnes
 		else			invalidate_cache(nt);
 	}
 
 	/**
 	 * removes the elements that are garbage collected.
-	 * this is where the "bdds" variable in constructor is used.
+	 * <p>nothing is done here, the stamps catch them on lookup. this is where the "bdds" variable in constructor is used.
 	 */
 	public void invalidate_cache(NodeTable nt) {
-		invalidate_cache(); // no optimization here
+		bind(nt);
+	}
+
+	/**
+	 * true if none of the BDD members or the output of entry <tt>i</tt> has been freed
+	 * or reused since it was inserted.
+	 */
+	private final boolean isCurrent(int i) {
+		int e = getEpoch(i);
+		if(e == epoch) return true;
+		if(stamps == null) return false;
+
+		if(stamps.getStamp( getOut(i) ) > e) return false;
+		for(int m = 1; m <= bdds; m++)
+			if(stamps.getStamp( getIn(i, m) ) > e) return false;
+		return true;
+	}
+
+	/** the keys of entry <tt>i</tt> matched. returns false (and drops the entry) if it is stale */
+	private final boolean revalidate(int i) {
+		if(isCurrent(i)) {
+			setEpoch(i, epoch); // dont check it again
+			return true;
+		}
+		invalidate(i);
+		num_stale++;
+		return false;
 	}
 
 
@@ -212,6 +278,7 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 	public void insert(int hash, int key1, int value) {
 		setOut(hash, value);
 		setIn(hash, 1, key1);
+		setEpoch(hash, epoch);
 	}
 
 	/** this is the _correct_ way to insert something into the cache. format: (key1,key2->value)  */
@@ -219,6 +286,7 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 		setOut(hash, value);
 		setIn(hash, 1, key1);
 		setIn(hash, 2, key2);
+		setEpoch(hash, epoch);
 	}
 
 	/** this is the _correct_ way to insert something into the cache. format: (key1,key2,key3->value)  */
@@ -227,6 +295,7 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 		setIn(hash, 1, key1);
 		setIn(hash, 2, key2);
 		setIn(hash, 3, key3);
+		setEpoch(hash, epoch);
 	}
 
 	// -----------------------------------------------------------------------------
@@ -257,7 +326,7 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 	public final boolean lookup(int a) {
 		num_access++;
 		int hash = good_hash(a);
-		if(getIn(hash, 1)  == a){
+		if(getIn(hash, 1)  == a && revalidate(hash)){
 			hit++;
 			answer = getOut(hash);
 			return true;
@@ -278,7 +347,7 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 	public final boolean lookup(int a, int b) {
 		num_access++;
 		int hash = good_hash(a,b);
-		if( getIn(hash, 1) == a && getIn(hash, 2) == b) {
+		if( getIn(hash, 1) == a && getIn(hash, 2) == b && revalidate(hash)) {
 			hit++;
 			answer = getOut(hash);
 			return true;
@@ -299,7 +368,7 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 	public final boolean lookup(int a, int b, int c) {
 		num_access++;
 		int hash = good_hash(a,b,c);
-		if(  getIn(hash, 1) == a && getIn(hash, 2) == b && getIn(hash, 3) == c ) {
+		if(  getIn(hash, 1) == a && getIn(hash, 2) == b && getIn(hash, 3) == c && revalidate(hash)) {
 			hit++;
 			answer = getOut(hash);
 			return true;
@@ -317,8 +386,8 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 
 	protected final int good_hash(int i) {
 		// return HashFunctions.mix(i) & cache_mask;
-		// NEW: cache size is prime
-		return i % cache_size;
+		// NEW: cache size is prime (and i is negative for a complemented edge)
+		return (i & 0x7FFFFFFF) % cache_size;
 	}
 
 	protected final int good_hash(int i, int j) {
@@ -369,27 +438,34 @@ public class SimpleCache extends CacheBase implements Cloneable, Serializable {
 	public int getNumberOfGrows() {
 		return num_grows;
 	}
+
+	/** number of entries dropped by a lookup since their nodes had been collected */
+	public long getNumberOfStaleEntries() {
+		return num_stale;
+	}
 	// --------------------------------------------------------------
 
 	public void showStats() {
 		if(num_access != 0) {
 			JDDConsole.out.printf(
-				"%s-cache: ld=%0.2f%% sz=%s acces=%s clrs=%d/0 hitr=%.2f%% #grow=%d\n",
+				"%s-cache: ld=%0.2f%% sz=%s acces=%s clrs=%d/0 stale=%s hitr=%.2f%% #grow=%d\n",
 				getName(), computeLoadFactor(), Digits.prettify(cache_size),
-				Digits.prettify(num_access), num_clears, computeHitRate(),
-				num_grows);
+				Digits.prettify(num_access), num_clears, Digits.prettify(num_stale),
+				computeHitRate(), num_grows);
 		}
 	}
 	public void show_tuple(int bdd) {
 		JDDConsole.out.print(""  + bdd + ":   " + getOut(bdd));
 		for(int i = 0; i < members; i++) JDDConsole.out.print("\t" + getIn(bdd, 1 + i) );
+		JDDConsole.out.print("\t@" + getEpoch(bdd));
 		JDDConsole.out.printf("\n");
 	}
 
 	// XXX: other BDD members not checked yet...
+	// stale entries are still in the cache until a lookup finds them, they are skipped here
 	public boolean check_cache(NodeTable nt) {
 		for( int i = 0; i < cache_size; i++) {
-			if( isValid(i)) {
+			if( isValid(i) && isCurrent(i)) {
 				if(! nt.isValid( getOut(i) ) ) {
 					JDDConsole.out.println("Invalied cache output entry");
 					show_tuple(i);
@@ -0,0 +1,89 @@
+package jdd.examples;
+
+import jdd.bdd.*;
+import jdd.util.*;
+
+import java.util.Random;
+
+
+
+/**
+ * Compares the recursive AND/OR/NOT with the iterative ones.
+ * <p>
+ * The workload is an IPv6 style forwarding table: random prefixes over 128 variables
+ * are matched longest prefix first and the hits are merged per port. Every prefix
+ * BDD is a chain of up to 128 nodes, which is where the recursion gets deep.
+ *
+ * @see jdd.bdd.BDD#setIterativeApply
+ */
+
+
+public class ApplyBenchmark {
+	/** number of times each workload is repeated, the best time is reported */
+	private static final int ROUNDS = 3;
+	private static final int BITS = 128, PORTS = 16;
+
+	/** returns the time, the satcount of all port predicates is left in sat[0] */
+	private static long fib(int rules, boolean iterative, double [] sat) {
+		BDD bdd = new BDD(1000000, 100000);
+		bdd.setIterativeApply(iterative);
+		int [] v = new int[BITS];
+		for(int i = 0; i < BITS; i++) v[i] = bdd.createVar();
+
+		// the same table every time, longest prefix first
+		Random rnd = new Random(rules);
+		int [] len = new int[rules];
+		long [][] addr = new long[rules][2];
+		for(int i = 0; i < rules; i++) {
+			len[i] = 16 + rnd.nextInt(BITS - 15);
+			addr[i][0] = rnd.nextLong();
+			addr[i][1] = rnd.nextLong();
+		}
+		java.util.Arrays.sort(len);
+
+		long time = System.currentTimeMillis();
+		int [] port = new int[PORTS];
+		int all = 0;
+		for(int i = rules - 1; i >= 0; i--) {
+			int match = 1;
+			for(int j = len[i] - 1; j >= 0; j--) {
+				boolean bit = ((addr[i][j / 64] >>> (j % 64)) & 1) != 0;
+				int lit = bit ? v[j] : bdd.ref( bdd.not(v[j]) );
+				match = bdd.andTo(match, lit);
+				if(!bit) bdd.deref(lit);
+			}
+
+			int tmp = bdd.ref( bdd.not(all) );
+			int hit = bdd.ref( bdd.and(match, tmp) );
+			bdd.deref(tmp);
+			all = bdd.orTo(all, match);
+			bdd.deref(match);
+
+			int p = i % PORTS;
+			port[p] = bdd.orTo(port[p], hit);
+			bdd.deref(hit);
+		}
+		time = System.currentTimeMillis() - time;
+
+		sat[0] = 0;
+		for(int i = 0; i < PORTS; i++) sat[0] += bdd.satCount(port[i]);
+		bdd.cleanup();
+		return time;
+	}
+
+	public static void main(String [] args) {
+		int rules = (args.length > 0) ? Integer.parseInt(args[0]) : 4000;
+		JDDConsole.out.println("ApplyBenchmark.java: " + rules + " IPv6 prefixes, best of " + ROUNDS + " rounds");
+
+		double [] sat1 = new double[1], sat2 = new double[1];
+		long t1 = Long.MAX_VALUE, t2 = Long.MAX_VALUE;
+		for(int i = 0; i < ROUNDS; i++) {
+			t1 = Math.min(t1, fib(rules, false, sat1));
+			t2 = Math.min(t2, fib(rules, true, sat2));
+		}
+		Test.check(sat1[0] == sat2[0], "recursive and iterative apply must agree");
+
+		JDDConsole.out.printf("%-12s %5d ms\n", "recursive", t1);
+		JDDConsole.out.printf("%-12s %5d ms\n", "iterative", t2);
+	}
+}
@@ -0,0 +1,123 @@
+package jdd.examples;
+
+import jdd.bdd.*;
+import jdd.util.*;
+
+
+
+/**
+ * Compares the split node-table layout with the packed one.
+ * <p>
+ * In the split layout, var/low/high live in one array and the hash chain
+ * pointers in another, so each step of a unique-table lookup touches two
+ * cache lines. The packed layout puts all four members in one 16-byte record.
+ * The open addressing layout has no chains at all, it probes a table of node ids.
+ * <p>
+ * We time three workloads: unique-table lookups of existing nodes (mk),
+ * an AND-heavy application (Queens) and the Adder.
+ *
+ * @see jdd.util.Configuration#nodetablePacked
+ * @see jdd.util.Configuration#nodetableOpenAddressing
+ */
+
+
+public class NodeTableBenchmark {
+	/** number of times each workload is repeated, the best time is reported */
+	private static final int ROUNDS = 3;
+
+	/** average number of nodes compared per lookup in the last lookups() run */
+	private static double probes;
+
+
+	/** build a large BDD once, then look up all of its nodes again via mk() */
+	private static long lookups(int vars) {
+		BDD bdd = new BDD(1000000, 10000);
+		int [] v = new int[vars];
+		for(int i = 0; i < vars; i++) v[i] = bdd.createVar();
+
+		// an OR of scattered pairs, which has many nodes
+		int f = 0;
+		for(int i = 0; i < vars; i++) {
+			int tmp = bdd.ref( bdd.and(v[i], v[(i * 7 + 3) % vars]) );
+			f = bdd.orTo(f, tmp);
+			bdd.deref(tmp);
+		}
+
+		int size = bdd.nodeCount(f);
+		int [] low = new int[size], high = new int[size], var = new int[size];
+		NodeStack stack = new NodeStack(2 * size + 2);
+		int n = 0;
+		stack.push(f);
+		boolean [] seen = new boolean[bdd.debug_table_size()]; // every node is visited once
+		while(stack.getTOS() > 0) {
+			int x = stack.pop();
+			if(x < 2 || seen[x]) continue;
+			seen[x] = true;
+			var[n] = bdd.getVar(x); low[n] = bdd.getLow(x); high[n] = bdd.getHigh(x);
+			n++;
+			stack.push(low[n-1]);
+			stack.push(high[n-1]);
+		}
+
+		long time = System.currentTimeMillis();
+		int sum = 0;
+		for(int r = 0; r < 100; r++)
+			for(int i = 0; i < n; i++) sum += bdd.mk(var[i], low[i], high[i]);
+		time = System.currentTimeMillis() - time;
+
+		Test.check(sum != 0, "lookups should find the nodes");
+
+		long [] hist = bdd.getProbeHistogram();
+		long count = 0, total = 0;
+		for(int i = 0; i < hist.length; i++) {
+			count += hist[i];
+			total += hist[i] * i;
+		}
+		probes = (count == 0) ? 0 : (double) total / count;
+		bdd.cleanup();
+		return time;
+	}
+
+	private static long queens(int n) {
+		BDDQueens q = new BDDQueens(n);
+		long time = q.getTime();
+		q.cleanup();
+		return time;
+	}
+
+	private static long adder(int n) {
+		long time = System.currentTimeMillis();
+		Adder adder = new Adder(n);
+		time = System.currentTimeMillis() - time;
+		adder.cleanup();
+		return time;
+	}
+
+	/** run all workloads under the current configuration */
+	private static void test(String name) {
+		long t1 = Long.MAX_VALUE, t2 = Long.MAX_VALUE, t3 = Long.MAX_VALUE;
+		for(int i = 0; i < ROUNDS; i++) {
+			t1 = Math.min(t1, lookups(40));
+			t2 = Math.min(t2, queens(9));
+			t3 = Math.min(t3, adder(256));
+		}
+		JDDConsole.out.printf("%-12s lookups: %5d ms (%.2f probes), queens(9): %5d ms, adder(256): %5d ms\n",
+				name, t1, probes, t2, t3);
+	}
+
+	public static void main(String [] args) {
+		JDDConsole.out.println("NodeTableBenchmark.java: best of " + ROUNDS + " rounds");
+
+		Configuration.nodetablePacked = false;
+		test("split");
+
+		Configuration.nodetablePacked = true;
+		test("packed");
+
+		Configuration.nodetablePacked = Configuration.DEFAULT_NODETABLE_PACKED;
+		Configuration.nodetableOpenAddressing = true;
+		test("open");
+
+		Configuration.nodetableOpenAddressing = Configuration.DEFAULT_NODETABLE_OPEN_ADDRESSING;
+	}
+}
@@ -3,8 +3,11 @@ package jdd.util;
 
 
 /**
- * This class contains the various configuration parameters used in the package
+ * This class contains the various configuration parameters used in the package.
+ * <p>the tweakable parameters are only the defaults, each manager copies them into its own
+ * Settings when it is created.
  *
+ * @see Settings
  */
 
 public class Configuration {
@@ -39,6 +42,12 @@ public class Configuration {
 	public static final int DEFAULT_NODETABLE_LARGE_SIZE = 4000000; /** @see #nodetableLargeSize  */
 	public static final int DEFAULT_NODETABLE_GROW_MIN = 50000; /** @see #nodetableGrowMin  */
 	public static final int DEFAULT_NODETABLE_GROW_MAX = 300000; /** @see #nodetableGrowMax  */
+	public static final boolean DEFAULT_NODETABLE_OFF_HEAP = false; /** @see #nodetableOffHeap  */
+	public static final boolean DEFAULT_NODETABLE_PACKED = false; /** @see #nodetablePacked  */
+	public static final boolean DEFAULT_NODETABLE_OPEN_ADDRESSING = false; /** @see #nodetableOpenAddressing  */
+	public static final boolean DEFAULT_NODETABLE_PARALLEL_GC = false; /** @see #nodetableParallelGc  */
+	public static final int DEFAULT_NODETABLE_PARALLEL_GC_THRESHOLD = 1000000; /** @see #nodetableParallelGcThreshold  */
+	public static final int DEFAULT_NODETABLE_MAX_NODES = 0; /** @see #nodetableMaxNodes  */
 
 
 	// bdd
@@ -49,6 +58,10 @@ public class Configuration {
 	public final static int DEFAULT_BDD_RELPRODCACHE_DIV = 2; /** see #bddRelprodcacheDiv */
 	public final static int DEFAULT_BDD_REPLACECACHE_DIV = 3;	/** see #bddReplacecheDiv */
 	public final static int DEFAULT_BDD_SATCOUNT_DIV = 8;	/** see #bddSatcountDiv */
+	public final static boolean DEFAULT_BDD_ITERATIVE_APPLY = false;	/** see #bddIterativeApply */
+	public final static boolean DEFAULT_BDD_AUTO_REORDER = false;	/** see #bddAutoReorder */
+	public final static int DEFAULT_BDD_REORDER_MAX_GROWTH = 120;	/** see #bddReorderMaxGrowth */
+	public final static boolean DEFAULT_BDD_SHARED_CACHE = false;	/** see #bddSharedCache */
 
 
 
@@ -71,6 +84,21 @@ public class Configuration {
 
 	// -------- node table
 
+	/** if true, new node-tables keep their nodes outside the Java heap */
+	public static boolean nodetableOffHeap = DEFAULT_NODETABLE_OFF_HEAP;
+
+	/** if true, new node-tables store var/low/high/next in one packed record per node */
+	public static boolean nodetablePacked = DEFAULT_NODETABLE_PACKED;
+
+	/** if true, new node-tables find their nodes by open addressing (linear probing) instead of hash chains */
+	public static boolean nodetableOpenAddressing = DEFAULT_NODETABLE_OPEN_ADDRESSING;
+
+	/** if true, node-tables mark and sweep with all threads of the common fork-join pool (on-heap tables only) */
+	public static boolean nodetableParallelGc = DEFAULT_NODETABLE_PARALLEL_GC;
+
+	/** node-tables smaller than this are always collected by one thread */
+	public static int nodetableParallelGcThreshold = DEFAULT_NODETABLE_PARALLEL_GC_THRESHOLD;
+
 	/** the threshold below which a simpler deadnode counter is used */
 	public static int nodetableSimpleDeadcountThreshold = DEFAULT_NODETABLE_SIMPLE_DEADCOUNT_THRESHOLD;
 
@@ -86,6 +114,9 @@ public class Configuration {
 	/** the largest node-table grow we allow */
 	public static int nodetableGrowMax = DEFAULT_NODETABLE_GROW_MAX;
 
+	/** the node budget of a node-table (the local part of an overlay), 0 for none. see NodeTable.setOverflowPolicy */
+	public static int nodetableMaxNodes = DEFAULT_NODETABLE_MAX_NODES;
+
 	// --- BDD node/hashtbale
 
 
@@ -115,6 +146,18 @@ public class Configuration {
 	/** how little the satcount cache is, range: 4-32 */
 	public final static int bddSatcountDiv = DEFAULT_BDD_SATCOUNT_DIV;
 
+	/** if true, new BDD managers run and/or/not with an explicit stack instead of recursion */
+	public static boolean bddIterativeApply = DEFAULT_BDD_ITERATIVE_APPLY;
+
+	/** if true, new BDD managers sift their variables when reorderIfNeeded() is called after the node-table has doubled */
+	public static boolean bddAutoReorder = DEFAULT_BDD_AUTO_REORDER;
+
+	/** while sifting, a variable is not moved further once the BDD is this large, in percent of the best size. range: 100-200 */
+	public static int bddReorderMaxGrowth = DEFAULT_BDD_REORDER_MAX_GROWTH;
+
+	/** if true, the threads of a new ConcurrentBDD share one lock-free operation cache instead of having one each */
+	public static boolean bddSharedCache = DEFAULT_BDD_SHARED_CACHE;
+
 
 
 
@@ -0,0 +1,101 @@
+package jdd.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * a large int array stored outside the Java heap.
+ * <p>The memory is allocated in fixed size segments of direct buffers. Growing only adds
+ * new segments, the old data is never copied. Since the data is not on the heap, it is not
+ * scanned or moved by the garbage collector and the size is not limited by the array-length
+ * limit of Java arrays.
+ *
+ * <p>Segments are released by the JVM when this object is no longer reachable.
+ */
+
+public final class SegmentedIntArray {
+	public static final int SEGMENT_SHIFT = 20;	/** 1M ints (4MB) per segment */
+	public static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private IntBuffer [] segments;
+	private int capacity;
+
+	/** create an array of at least <tt>size</tt> elements, all zero */
+	public SegmentedIntArray(int size) {
+		segments = new IntBuffer[0];
+		capacity = 0;
+		ensureCapacity(size);
+	}
+
+	/** make room for at least <tt>size</tt> elements. existing elements are not touched, new ones are zero */
+	public void ensureCapacity(int size) {
+		if(size <= capacity) return;
+
+		int count = (int)(((long)size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+		IntBuffer [] tmp = new IntBuffer[count];
+		System.arraycopy(segments, 0, tmp, 0, segments.length);
+		try {
+			for(int i = segments.length; i < count; i++)
+				tmp[i] = ByteBuffer.allocateDirect(SEGMENT_SIZE * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		} catch(OutOfMemoryError e) {
+			JDDConsole.out.printf("SegmentedIntArray: could not allocate %d segments, try -XX:MaxDirectMemorySize\n", count);
+			throw e;
+		}
+		segments = tmp;
+		capacity = count << SEGMENT_SHIFT;
+	}
+
+	/** grow like ensureCapacity(), or give back the segments that are not needed for <tt>size</tt> elements */
+	public void setCapacity(int size) {
+		int count = (int)(((long)size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+		if(count >= segments.length) {
+			ensureCapacity(size);
+			return;
+		}
+
+		IntBuffer [] tmp = new IntBuffer[count];
+		System.arraycopy(segments, 0, tmp, 0, count);
+		segments = tmp; // the direct buffers are freed when they are collected
+		capacity = count << SEGMENT_SHIFT;
+	}
+
+	public int capacity() { return capacity; }
+
+	public int get(int i) {
+		return segments[i >>> SEGMENT_SHIFT].get(i & SEGMENT_MASK);
+	}
+
+	public void set(int i, int value) {
+		segments[i >>> SEGMENT_SHIFT].put(i & SEGMENT_MASK, value);
+	}
+
+	public void or(int i, int value) {
+		IntBuffer seg = segments[i >>> SEGMENT_SHIFT];
+		int j = i & SEGMENT_MASK;
+		seg.put(j, seg.get(j) | value);
+	}
+
+	public void and(int i, int value) {
+		IntBuffer seg = segments[i >>> SEGMENT_SHIFT];
+		int j = i & SEGMENT_MASK;
+		seg.put(j, seg.get(j) & value);
+	}
+
+	/** a deep copy of the first <tt>size</tt> elements */
+	public SegmentedIntArray copy(int size) {
+		SegmentedIntArray ret = new SegmentedIntArray(size);
+		for(int s = 0, left = size; left > 0; s++, left -= SEGMENT_SIZE) {
+			IntBuffer from = segments[s].duplicate();
+			from.limit(Math.min(left, SEGMENT_SIZE));
+			ret.segments[s].duplicate().put(from);
+		}
+		return ret;
+	}
+
+	/** number of bytes allocated (off-heap) */
+	public long getMemoryUsage() {
+		return (long) capacity * 4;
+	}
+}
@@ -0,0 +1,97 @@
+package jdd.util;
+
+import java.io.Serializable;
+
+
+/**
+ * the tweakable parameters of one BDD manager.
+ * <p>a new Settings object starts with the current values in Configuration, which thus
+ * remain the defaults for all managers. a manager keeps the Settings it was created with,
+ * so two managers in the same program can have different node-table layouts, grow
+ * parameters and cache sizes.
+ *
+ * @see Configuration
+ * @see jdd.bdd.BDD#BDD(int, int, Settings)
+ */
+
+public class Settings implements Cloneable, Serializable {
+
+	// -------- node table, see the Configuration fields with the same name
+
+	public boolean nodetableOffHeap, nodetablePacked, nodetableOpenAddressing;
+	public boolean nodetableParallelGc;
+	public int nodetableParallelGcThreshold;
+	public int nodetableSimpleDeadcountThreshold;
+	public int nodetableSmallSize, nodetableLargeSize;
+	public int nodetableGrowMin, nodetableGrowMax;
+	public int nodetableMaxNodes;
+	public int minFreeNodesProcent, maxNodeFree;
+
+	// -------- BDD
+
+	public int bddOpcacheDiv, bddNegcacheDiv, bddItecacheDiv, bddQuantcacheDiv;
+	public int bddRelprodcacheDiv, bddReplacecacheDiv, bddSatcountDiv;
+	public boolean bddIterativeApply, bddAutoReorder, bddSharedCache;
+	public int bddReorderMaxGrowth;
+
+	// -------- caches
+
+	public int maxSimplecacheGrows, minSimplecacheHitrateToGrow, minSimplecacheAccessToGrow;
+
+
+	/** take the current values of Configuration */
+	public Settings() {
+		nodetableOffHeap = Configuration.nodetableOffHeap;
+		nodetablePacked = Configuration.nodetablePacked;
+		nodetableOpenAddressing = Configuration.nodetableOpenAddressing;
+		nodetableParallelGc = Configuration.nodetableParallelGc;
+		nodetableParallelGcThreshold = Configuration.nodetableParallelGcThreshold;
+		nodetableSimpleDeadcountThreshold = Configuration.nodetableSimpleDeadcountThreshold;
+		nodetableSmallSize = Configuration.nodetableSmallSize;
+		nodetableLargeSize = Configuration.nodetableLargeSize;
+		nodetableGrowMin = Configuration.nodetableGrowMin;
+		nodetableGrowMax = Configuration.nodetableGrowMax;
+		nodetableMaxNodes = Configuration.nodetableMaxNodes;
+		minFreeNodesProcent = Configuration.minFreeNodesProcent;
+		maxNodeFree = Configuration.maxNodeFree;
+
+		bddOpcacheDiv = Configuration.bddOpcacheDiv;
+		bddNegcacheDiv = Configuration.bddNegcacheDiv;
+		bddItecacheDiv = Configuration.bddItecacheDiv;
+		bddQuantcacheDiv = Configuration.bddQuantcacheDiv;
+		bddRelprodcacheDiv = Configuration.bddRelprodcacheDiv;
+		bddReplacecacheDiv = Configuration.bddReplacecacheDiv;
+		bddSatcountDiv = Configuration.bddSatcountDiv;
+		bddIterativeApply = Configuration.bddIterativeApply;
+		bddAutoReorder = Configuration.bddAutoReorder;
+		bddSharedCache = Configuration.bddSharedCache;
+		bddReorderMaxGrowth = Configuration.bddReorderMaxGrowth;
+
+		maxSimplecacheGrows = Configuration.maxSimplecacheGrows;
+		minSimplecacheHitrateToGrow = Configuration.minSimplecacheHitrateToGrow;
+		minSimplecacheAccessToGrow = Configuration.minSimplecacheAccessToGrow;
+	}
+
+	/** a copy that can be changed without affecting this one */
+	public Settings copy() {
+		try {
+			return (Settings) super.clone();
+		} catch(CloneNotSupportedException e) {
+			throw new InternalError(e);
+		}
+	}
+
+	/**
+	 * set the grow parameters for a table that is expected to need about <tt>expected</tt> nodes.
+	 * if it needs more after all, it grows in large steps up to four times that and in smaller
+	 * steps after that, and it keeps more nodes free before it collects garbage.
+	 */
+	public Settings expectNodes(int expected) {
+		nodetableSmallSize = Math.max(Configuration.MIN_NODETABLE_SIZE, expected);
+		nodetableLargeSize = (int) Math.min(Integer.MAX_VALUE / 2, 4L * nodetableSmallSize);
+		nodetableGrowMax = Math.max(Configuration.DEFAULT_NODETABLE_GROW_MAX, expected / 2);
+		nodetableGrowMin = Math.max(Configuration.DEFAULT_NODETABLE_GROW_MIN, expected / 8);
+		maxNodeFree = Math.max(Configuration.DEFAULT_MAX_NODE_FREE, expected / 8);
+		return this;
+	}
+}
@@ -31,10 +31,27 @@ public class Configuration {
 
     private int threadPoolSize;
 
+    private boolean useSharedBdd;
+
+    private int parallelApplyDepth;
+
+    private boolean useComplementEdges;
+
+    private boolean bddAutoSize;
+
+    private boolean bddSlice;
+
+    private int bddNodeBudget;
+
     private Configuration() {
         setShowResult(false);
         setUseOneThreadOneDpvnet(true);
         setThreadPoolSize(40);
+        setUseSharedBdd(false);
+        setParallelApplyDepth(0);
+        setBddAutoSize(true);
+        setBddSlice(false);
+        setBddNodeBudget(0);
     }
 
     public void setRuleFile(String ruleFile) {
@@ -124,4 +141,52 @@ public class Configuration {
         this.threadPoolSize = threadPoolSize;
     }
 
+    public boolean isUseSharedBdd() {
+        return useSharedBdd;
+    }
+
+    public void setUseSharedBdd(boolean useSharedBdd) {
+        this.useSharedBdd = useSharedBdd;
+    }
+
+    public int getParallelApplyDepth() {
+        return parallelApplyDepth;
+    }
+
+    public void setParallelApplyDepth(int parallelApplyDepth) {
+        this.parallelApplyDepth = parallelApplyDepth;
+    }
+
+    public boolean isUseComplementEdges() {
+        return useComplementEdges;
+    }
+
+    public void setUseComplementEdges(boolean useComplementEdges) {
+        this.useComplementEdges = useComplementEdges;
+    }
+
+    public boolean isBddAutoSize() {
+        return bddAutoSize;
+    }
+
+    public void setBddAutoSize(boolean bddAutoSize) {
+        this.bddAutoSize = bddAutoSize;
+    }
+
+    public boolean isBddSlice() {
+        return bddSlice;
+    }
+
+    public void setBddSlice(boolean bddSlice) {
+        this.bddSlice = bddSlice;
+    }
+
+    public int getBddNodeBudget() {
+        return bddNodeBudget;
+    }
+
+    public void setBddNodeBudget(int bddNodeBudget) {
+        this.bddNodeBudget = bddNodeBudget;
+    }
+
 }
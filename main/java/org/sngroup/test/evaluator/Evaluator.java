@@ -49,11 +49,35 @@
          pg.addArgument("--auto_parse_network").type(String.class).help("Automatically parse config file, instead of reading xml file");
          pg.addArgument("--thread_pool_size").type(Integer.class).setDefault(40).help("Thread pool size");
          pg.addArgument("--save_trace").type(String.class).help("Save the message to directory");
+         pg.addArgument("--use_shared_bdd").action(Arguments.storeTrue()).help("All threads share one thread-safe BDD manager");
+         pg.addArgument("--bdd_off_heap").action(Arguments.storeTrue()).help("Keep the BDD node tables outside the Java heap (large IPV6 networks)");
+         pg.addArgument("--bdd_open_addressing").action(Arguments.storeTrue()).help("Use an open addressing unique table in the BDD node tables");
+         pg.addArgument("--bdd_parallel_gc").action(Arguments.storeTrue()).help("Collect garbage in large BDD node tables with all cores");
+         pg.addArgument("--parallel_apply_depth").type(Integer.class).setDefault(0).help("Fork the top levels of large BDD operations in the build phase (implies --use_shared_bdd)");
+         pg.addArgument("--complement_edges").action(Arguments.storeTrue()).help("Use a BDD manager with complement edges, NOT is free (ignored with --use_shared_bdd)");
+         pg.addArgument("--bdd_reorder").action(Arguments.storeTrue()).help("Sift the BDD variables after a device FIB is encoded, whenever the node table has doubled");
+         pg.addArgument("--shared_op_cache").action(Arguments.storeTrue()).help("Let all threads of the shared BDD manager use one operation cache (with --use_shared_bdd)");
+         pg.addArgument("--bdd_fixed_size").action(Arguments.storeTrue()).help("Start every BDD engine with 10000 nodes instead of sizing it from the rules");
+         pg.addArgument("--bdd_slice").action(Arguments.storeTrue()).help("Give each TopoNet a small BDD engine with only the LEC predicates inside its destination's packet space, instead of an overlay on the whole source engine");
+         pg.addArgument("--bdd_node_budget").type(Integer.class).setDefault(0).help("Limit the node table of each TopoNet engine to this many nodes; a TopoNet that needs more is retried later with its own unbounded engine (0: no limit)");
+         pg.addArgument("--iterative_apply").action(Arguments.storeTrue()).help("Run AND/OR/NOT without recursion (deep IPV6 BDDs)");
      }
  
      public Evaluator setConfiguration(Namespace namespace){
          Configuration configuration = Configuration.getConfiguration();
          configuration.setShowResult(namespace.getBoolean("show_result"));
+         configuration.setUseSharedBdd(namespace.getBoolean("use_shared_bdd"));
+         configuration.setParallelApplyDepth(namespace.getInt("parallel_apply_depth"));
+         configuration.setUseComplementEdges(namespace.getBoolean("complement_edges"));
+         configuration.setBddAutoSize(!namespace.getBoolean("bdd_fixed_size"));
+         configuration.setBddSlice(namespace.getBoolean("bdd_slice"));
+         configuration.setBddNodeBudget(namespace.getInt("bdd_node_budget"));
+         jdd.util.Configuration.nodetableOffHeap = namespace.getBoolean("bdd_off_heap");
+         jdd.util.Configuration.nodetableOpenAddressing = namespace.getBoolean("bdd_open_addressing");
+         jdd.util.Configuration.nodetableParallelGc = namespace.getBoolean("bdd_parallel_gc");
+         jdd.util.Configuration.bddIterativeApply = namespace.getBoolean("iterative_apply");
+         jdd.util.Configuration.bddAutoReorder = namespace.getBoolean("bdd_reorder");
+         jdd.util.Configuration.bddSharedCache = namespace.getBoolean("shared_op_cache");
          if (namespace.getString("rule_path") != null)
              configuration.setRuleFile(namespace.getString("rule_path"));
          if (namespace.getString("space_path") != null)
@@ -19,6 +19,7 @@
 package org.sngroup.test.runner;
 
 import jdd.bdd.BDD;
+import jdd.bdd.NodeTableFullException;
 import org.sngroup.Configuration;
 import org.sngroup.util.*;
 import org.sngroup.verifier.*;
@@ -75,6 +76,7 @@ public class TopoRunner extends Runner {
     // 失败的TopoNet记录
     private Map<String, TopoNet> failedTopoNets = new HashMap<>(); // 存储处理失败的TopoNet对象
     private Map<String, Integer> retryAttempts = new HashMap<>();  // 记录每个TopoNet的重试次数
+    private final Set<String> oversizedTopoNets = ConcurrentHashMap.newKeySet(); // 超出结点预算的TopoNet, 重试时用单独的引擎
 
     // 内存使用统计文件
     private static final String MEMORY_STATS_FILE = "./memory_stats.txt"; // 内存统计信息输出文件路径
@@ -100,6 +102,7 @@ public class TopoRunner extends Runner {
     // 源网络和BDD引擎
     public static DVNet srcNet;     // 源网络，用于共享规则和空间信息
     public static BDDEngine srcBdd; // 源BDD引擎，用于规则转换
+    private static BDDProfile topoProfile = BDDProfile.defaults(); // TopoNet的overlay引擎的规模, 读入规则后估算
 
     // BDD引擎对象池 - 管理和重用BDD引擎实例，减少创建开销
     private static class BDDEnginePool {
@@ -107,20 +110,28 @@ public class TopoRunner extends Runner {
         private static final int MAX_POOL_SIZE = 10;                        // 池中最大引擎数量
 
         /**
-         * 从池中获取BDD引擎，如果池为空则克隆模板引擎
-         * @param template 用于克隆的模板引擎
+         * 从池中获取BDD引擎，如果池为空则在模板引擎上创建overlay引擎(切片模式下创建空的切片引擎)
+         * @param template 已冻结的模板引擎，所有overlay共享它的结点表
          * @return 可用的BDD引擎实例
          */
         public BDDEngine obtain(BDDEngine template) {
+            // 共享模式下所有线程直接使用同一个线程安全的引擎
+            if (template.isShared()) {
+                return template;
+            }
+
             BDDEngine engine = pool.poll();
             if (engine != null) {
                 return engine;
             }
 
             try {
-                return (BDDEngine) template.clone();
+                BDDEngine overlay = isSliced(template) ? BDDEngine.sliceOf(template, topoProfile)
+                        : new BDDEngine(template, topoProfile);
+                overlay.mark(); // 每个TopoNet结束后回到这个空的状态
+                return overlay;
             } catch (Exception e) {
-                throw new RuntimeException("Failed to clone BDD engine", e);
+                throw new RuntimeException("Failed to create overlay BDD engine", e);
             }
         }
 
@@ -131,8 +142,9 @@ public class TopoRunner extends Runner {
         public void recycle(BDDEngine engine) {
             if (engine == null || pool.size() >= MAX_POOL_SIZE) return;
 
-            // 尝试清理BDD引擎的内部状态
-            engine.getBDD().gc();
+            // 压缩BDD引擎的结点表, 使池中的引擎保持小的内存占用
+            // (引擎的上一个使用者已经结束, 没有人再持有它自己的结点, 不需要remap)
+            engine.compact(null);
 
             pool.offer(engine);
         }
@@ -458,10 +470,8 @@ public class TopoRunner extends Runner {
         // IPV6 OR IPV4
         if(isIpv6) BDDEngine.ipBits = 128;
         else BDDEngine.ipBits = 32;
-        srcBdd = new BDDEngine();
 
         System.out.println("Start Build in Runner!!!");
-        srcNet = new DVNet(-1, srcBdd);
         threadPool = ThreadPool.FixedThreadPool(Configuration.getConfiguration().getThreadPoolSize());
         devices.clear();
         // 读取所有的device
@@ -483,14 +493,47 @@ public class TopoRunner extends Runner {
         // 更新内存峰值
         updatePeakMemory();
 
-        // srcBDD转化规则
+        // 按读入的规则估算引擎规模, 源引擎一次分配够, 不必在编码时反复扩容
+        BDDProfile srcProfile = BDDProfile.defaults();
+        topoProfile = BDDProfile.defaults();
+        if (Configuration.getConfiguration().isBddAutoSize()) {
+            long[] histogram = BDDProfile.prefixLengthHistogram(devices.values());
+            srcProfile = BDDProfile.forSource(histogram);
+            topoProfile = BDDProfile.forTopoNet(histogram, devices.size());
+        }
+        // 一个异常大的TopoNet不能把整个JVM的内存用完, 超出预算的重试时单独处理
+        int nodeBudget = Configuration.getConfiguration().getBddNodeBudget();
+        if (nodeBudget > 0) topoProfile = topoProfile.withNodeBudget(nodeBudget);
+        System.out.println("BDD引擎规模: 源引擎" + srcProfile + ", TopoNet引擎" + topoProfile);
+
+        // 并行apply需要线程安全的BDD
+        int parallelDepth = Configuration.getConfiguration().getParallelApplyDepth();
+        srcBdd = new BDDEngine(Configuration.getConfiguration().isUseSharedBdd() || parallelDepth > 0,
+                Configuration.getConfiguration().isUseComplementEdges(), srcProfile);
+        srcNet = new DVNet(-1, srcBdd);
+
+        // srcBDD转化规则, build阶段是单线程的, 大的BDD运算可以并行
+        srcBdd.setParallelDepth(parallelDepth);
         srcBddTransformAllRules();
+        srcBdd.setParallelDepth(0);
 
         // 更新内存峰值
         updatePeakMemory();
 
         // 生成topoNet
         genTopoNet();
+
+        // 冻结srcBdd, 之后所有topoNet的BDD引擎都以overlay方式共享它的结点
+        // (共享模式下srcBdd本身是线程安全的, 不需要冻结)
+        // 冻结前先压缩: build阶段的中间结点已无用, 存活结点移到表头, 保存的谓词随之更新
+        if(!srcBdd.isShared()) {
+            int shrunk = srcBdd.compact(moved -> {
+                srcNet.remapPredicates(moved);
+                Device.remapGlobalLecs(moved);
+            });
+            System.out.println("srcBdd结点表压缩: 减少" + shrunk + "个结点");
+            srcBdd.getBDD().bdd.freeze();
+        }
         System.out.println("结点总数量" + devices.size());
         System.out.println("S0结点数量" + network.edgeDevices.size());
         System.out.println("表项总数量" + ruleCnt);
@@ -647,7 +690,13 @@ public class TopoRunner extends Runner {
                         topoNet = null;
                     } catch (Exception e) {
                         System.err.println("处理TopoNet[" + topoNetName + "]时发生错误: " + e.getMessage());
-                        e.printStackTrace();
+                        entry.getValue().closeScope(); // 引擎不回到池中, 随这个TopoNet丢弃
+                        entry.getValue().dropEngine();
+                        if (e instanceof NodeTableFullException) {
+                            oversizedTopoNets.add(topoNetName);
+                        } else {
+                            e.printStackTrace();
+                        }
 
                         // 记录失败的TopoNet，以便后续重试
                         synchronized (failedTopoNets) {
@@ -782,8 +831,16 @@ public class TopoRunner extends Runner {
                     boolean success = false;
 
                     try {
-                        // 获取BDD引擎
-                        boolean reused = topoNet.getAndSetBddEngine(sharedQueueBDD);
+                        // 获取BDD引擎, 超出结点预算的TopoNet使用单独的不限大小的引擎
+                        boolean dedicated = oversizedTopoNets.contains(topoNetName);
+                        boolean reused;
+                        if (dedicated) {
+                            System.out.println("    TopoNet[" + topoNetName + "]超出结点预算, 使用单独的引擎重试");
+                            topoNet.bddEngine = newDedicatedEngine();
+                            reused = true;
+                        } else {
+                            reused = topoNet.getAndSetBddEngine(sharedQueueBDD);
+                        }
 
                         // 添加额外的重试逻辑，例如增加超时时间、降低精度等
                         System.out.println("    重试时对TopoNet[" + topoNetName + "]应用特殊处理");
@@ -794,7 +851,7 @@ public class TopoRunner extends Runner {
                         topoNet.nodeCalIndegree();
 
                         // 启动验证
-                        topoNet.startCount(sharedQueueBDD);
+                        topoNet.startCount(sharedQueueBDD, !dedicated); // 大引擎不放进池中
 
                         // 更新内存峰值
                         updatePeakMemory();
@@ -817,6 +874,8 @@ public class TopoRunner extends Runner {
 
                     } catch (Exception e) {
                         System.err.println("重试处理TopoNet[" + topoNetName + "]时仍然失败: " + e.getMessage());
+                        topoNet.closeScope();
+                        topoNet.dropEngine();
                         if (attempts + 1 >= maxRetryAttempts) {
                             System.out.println("    TopoNet[" + topoNetName + "] 已达到最大重试次数，标记为永久失败");
                         }
@@ -951,7 +1010,32 @@ public class TopoRunner extends Runner {
     }
 
     public void srcBddTransformAllRules(){
-        transformRuleWithoutTrie();
+        transformRuleByPrefixTrie();
+    }
+
+    /**
+     * 每个设备的规则插入前缀树后一次编译出各端口的谓词(见PrefixCompiler), 最长前缀匹配不需要BDD运算,
+     * 结果与transformRuleWithoutTrie相同
+     */
+    public void transformRuleByPrefixTrie(){
+        long timePoint1 = System.currentTimeMillis();
+        for(Device device : devices.values()){
+            if(!(isIpv6 || isIpv4withS)) device.encodeRuleToLecByTrie(srcNet); // IPV4
+            else {
+                try {
+                    device.encodeRuleToLecByTrieIPV6(srcNet); // IPV6
+                } catch (UnknownHostException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            ruleCnt += device.rules.size();
+        }
+        long timePoint2 = System.currentTimeMillis();
+        System.out.println("规则转化所使用的时间" + (timePoint2 - timePoint1) + "ms");
+        if(!(isIpv6|| isIpv4withS))srcNet.srcDvNetParseAllSpace(Device.spaces);
+        else srcNet.srcDvNetParseAllSpaceIPV6(Device.spacesIPV6);
+        long timePoint3 = System.currentTimeMillis();
+        System.out.println("BDD编码所使用的总时间" + (timePoint3 - timePoint1) + "ms");
     }
 
     public void transformRuleWithTrie(){
@@ -1018,18 +1102,42 @@ public class TopoRunner extends Runner {
     public void topoNetDeepCopyBdd(TopoNet topoNet, boolean reused){
         String dstDevice = topoNet.dstDevice.name;
         int s = DVNet.devicePacketSpace.get(dstDevice);
+        boolean sliced = isSliced(srcBdd);
         if(!reused) {
             try {
-                topoNet.copyBdd(srcBdd, "Reflect");
+                topoNet.copyBdd(srcBdd, srcBdd.isShared() ? "Shared" : sliced ? "Slice" : "Overlay");
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
+            topoNet.getBddEngine().mark(); // 这个引擎之后也会放进池中
         }
         else topoNet.setNodeBdd();
+        if(sliced) {
+            // 只把与目的地址packet space相交的部分复制到本TopoNet的引擎, rollback时随之释放
+            topoNet.sliceBdd(srcBdd, Device.globalLecs, s);
+            return;
+        }
         topoNet.deviceLecs = Device.globalLecs;
         topoNet.setPacketSpace(s);
     }
 
+    /**
+     * 超出结点预算的TopoNet重试时用的引擎: 不在池中, 不限结点数, 从预算的大小开始
+     */
+    private static BDDEngine newDedicatedEngine() {
+        BDDProfile profile = topoProfile.unbounded();
+        BDDEngine engine = isSliced(srcBdd) ? BDDEngine.sliceOf(srcBdd, profile) : new BDDEngine(srcBdd, profile);
+        engine.mark();
+        return engine;
+    }
+
+    /**
+     * TopoNet是否使用切片引擎(见BDDEngine.sliceOf), 共享模式下所有TopoNet直接用srcBdd
+     */
+    private static boolean isSliced(BDDEngine srcBdd) {
+        return Configuration.getConfiguration().isBddSlice() && !srcBdd.isShared();
+    }
+
     @Override
     public void awaitFinished(){
         threadPool.awaitAllTaskFinished(100);
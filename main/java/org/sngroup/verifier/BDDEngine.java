@@ -2,6 +2,10 @@ package org.sngroup.verifier;
 
 import jdd.bdd.BDD;
 import jdd.bdd.BDDNames;
+import jdd.bdd.BDDTransfer;
+import jdd.bdd.ComplementBDD;
+import jdd.bdd.ConcurrentBDD;
+import jdd.bdd.NodeRemapper;
 import jdd.util.Allocator;
 import org.sngroup.util.IPPrefix;
 import org.sngroup.util.IPPrefixIPV6;
@@ -9,6 +13,7 @@ import org.sngroup.util.Utility;
 
 import java.io.Serializable;
 import java.net.UnknownHostException;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -49,9 +54,39 @@ public class BDDEngine implements Cloneable, Serializable {
     static int[] vars;
 
     static int[] dstIPField;
+
+    private transient BDDTransfer slicer; // 切片引擎从srcBdd复制谓词用, 见slice
     public BDDEngine(){
+        this(false);
+    }
+
+    /**
+     * @param shared if true, use a thread-safe BDD manager that all threads can work on at the same time
+     */
+    public BDDEngine(boolean shared){
+        this(shared, false);
+    }
+
+    /**
+     * @param shared if true, use a thread-safe BDD manager that all threads can work on at the same time
+     * @param complement if true, use complement edges (NOT is free). not supported by the shared manager
+     */
+    public BDDEngine(boolean shared, boolean complement){
+        this(shared, complement, BDDProfile.defaults());
+    }
+
+    /**
+     * @param shared if true, use a thread-safe BDD manager that all threads can work on at the same time
+     * @param complement if true, use complement edges (NOT is free). not supported by the shared manager
+     * @param profile 结点表和缓存的初始大小, 以及该引擎的jdd参数
+     */
+    public BDDEngine(boolean shared, boolean complement, BDDProfile profile){
 //        if (bdd == null) {
-            bdd = new TSBDD(new BDD(10000, 10000));
+            BDD manager;
+            if(shared) manager = new ConcurrentBDD(profile.nodes, profile.cacheSize, profile.settings);
+            else if(complement) manager = new ComplementBDD(profile.nodes, profile.cacheSize, profile.settings);
+            else manager = new BDD(profile.nodes, profile.cacheSize, profile.settings);
+            bdd = new TSBDD(manager);
             BDDCnt++;
 //            System.out.println("BDDCNT   " + BDDCnt);
 //            curBdd = BDDCnt;
@@ -79,30 +114,124 @@ public class BDDEngine implements Cloneable, Serializable {
     }
 
 
-    // Construction function for copy
+    /**
+     * 复制srcBdd: 结点编号不变, 所以静态的变量数组和已有的谓词在副本中仍然有效.
+     * 结点表按块复制, 只复制到最后一个在用的结点
+     * @param isCopy 为true时也复制各个运算缓存的内容, 否则副本的缓存大小相同但为空
+     */
     public BDDEngine(BDDEngine srcBdd, boolean isCopy){
-//        if (bdd == null) {
-//        bdd = new TSBDD(new BDD(10000, 10000));
-//        bdd = new TSBDD(new BDD(10000, 10000));
-        this.bdd = new TSBDD(new BDD(10000, 10000,srcBdd, isCopy));
-
-        protocol = new int[protocolBits];
-        srcPort = new int[portBits];
-        dstPort = new int[portBits];
-        srcIP = new int[ipBits];
-        dstIP = new int[ipBits];
-        dstIPField = new int[ipBits];
-        /**
-         * will try more orders of variables
-         */
-        DeclareSrcIP();
-        DeclareDstIP();
-        DeclareSrcPort();
-        DeclareDstPort();
-        DeclareProtocol();
-
-        dstIPField = AndInBatch(dstIP);
-//        }
+        this.bdd = new TSBDD(srcBdd.bdd.bdd.snapshot(isCopy));
+        BDDCnt++;
+    }
+
+    /**
+     * Construction function for overlay: the new engine shares the (frozen) node table of srcBdd
+     * and only stores the nodes it creates itself. Variables are not declared again, the static
+     * variable arrays of srcBdd stay valid.
+     */
+    public BDDEngine(BDDEngine srcBdd){
+        this(srcBdd, BDDProfile.defaults());
+    }
+
+    /**
+     * 在冻结的srcBdd上创建overlay引擎, 本地结点表和缓存按profile分配
+     */
+    public BDDEngine(BDDEngine srcBdd, BDDProfile profile){
+        BDD base = srcBdd.bdd.bdd;
+        if(base instanceof ComplementBDD) this.bdd = new TSBDD(new ComplementBDD((ComplementBDD) base, profile.nodes, profile.cacheSize, profile.settings));
+        else this.bdd = new TSBDD(new BDD(base, profile.nodes, profile.cacheSize, profile.settings));
+        BDDCnt++;
+    }
+
+    private BDDEngine(TSBDD bdd){
+        this.bdd = bdd;
+        BDDCnt++;
+    }
+
+    /**
+     * 切片引擎: 与srcBdd有相同变量的空引擎, 不共享srcBdd的结点, 只保存用slice从srcBdd复制过来的谓词,
+     * 所以大小只和复制的谓词有关, 与整个网络的规则无关.
+     * 不重新声明变量, 静态的变量数组仍然指向srcBdd(编码只在srcBdd中进行)
+     * @param profile 结点表和缓存的初始大小
+     */
+    public static BDDEngine sliceOf(BDDEngine srcBdd, BDDProfile profile){
+        BDD base = srcBdd.bdd.bdd;
+        BDD manager;
+        if(base instanceof ComplementBDD) manager = new ComplementBDD(profile.nodes, profile.cacheSize, profile.settings);
+        else manager = new BDD(profile.nodes, profile.cacheSize, profile.settings);
+        while(manager.numberOfVariables() < base.numberOfVariables()) manager.createVar();
+        BDDEngine engine = new BDDEngine(new TSBDD(manager));
+        engine.slicer = new BDDTransfer(base, manager);
+        return engine;
+    }
+
+    /**
+     * 把srcBdd中的predicates[i] ∧ space复制到本切片引擎, 交集不在srcBdd中计算, srcBdd可以是冻结的.
+     * 各个谓词共享的结点只复制一次
+     * @return 复制后的谓词, 各引用一次, 交集为空时为BDDFalse
+     */
+    public int[] slice(int[] predicates, int space){
+        assert slicer != null : "not a slice engine";
+        return slicer.transferAnd(predicates, space);
+    }
+
+    /**
+     * 把srcBdd中的谓词p复制到本切片引擎
+     * @return 复制后的谓词, 引用一次
+     */
+    public int slice(int p){
+        assert slicer != null : "not a slice engine";
+        return slicer.transfer(p);
+    }
+
+    /**
+     * 压缩结点表: 存活结点移到表头, 表随之缩小(共享引擎不释放结点, 什么也不做).
+     * 结点编号会改变, 本引擎之外保存的编号都要通过remapper更新, 静态的变量数组在这里更新
+     * @param remapper 接收旧编号到新编号的映射, 可以为null
+     * @return 结点表缩小的结点数
+     */
+    public int compact(NodeRemapper remapper){
+        return bdd.bdd.compact(moved -> {
+            if (slicer != null) { // 静态的变量数组属于srcBdd
+                if (remapper != null) remapper.remap(moved);
+                return;
+            }
+            for (int[] a : new int[][]{protocol, srcPort, dstPort, srcIP, dstIP, dstIPField, vars}) {
+                if (a == null) continue;
+                for (int i = 0; i < a.length; i++) a[i] = moved.applyAsInt(a[i]);
+            }
+            if (remapper != null) remapper.remap(moved);
+        });
+    }
+
+    /**
+     * 记录引擎当前的状态, 之后rollback()回到这个状态(共享引擎不支持, 什么也不做).
+     * 池中的引擎在创建(或复制)之后立即mark一次
+     */
+    public void mark(){
+        if(!isShared()) bdd.bdd.mark();
+    }
+
+    /**
+     * 释放mark()之后创建的所有结点, 时间只和这些结点的数量有关, 与结点表大小无关.
+     * 之后这些结点上的谓词都不能再使用
+     * @return 释放的结点数
+     */
+    public int rollback(){
+        if(isShared() || !bdd.bdd.isMarked()) return 0;
+        return bdd.bdd.rollback();
+    }
+
+    public boolean isShared(){
+        return bdd.bdd instanceof ConcurrentBDD;
+    }
+
+    /**
+     * fork the top levels of and/or/ite onto all cores, only possible for a shared engine
+     * @param depth number of levels to fork, 0 for sequential
+     */
+    public void setParallelDepth(int depth){
+        if(isShared()) ((ConcurrentBDD) bdd.bdd).setParallelDepth(depth);
     }
 
     @Override
@@ -148,7 +277,7 @@ public class BDDEngine implements Cloneable, Serializable {
         printSet(p);
     }
     public String printSet(int p)  {
-        if( p < 2) {
+        if( p == BDDFalse || p == BDDTrue) { // complemented BDDs are negative
             String result = String.format("%s", (p == 0) ? "null" : "all");
             // System.out.println(result);
             return result;
@@ -170,15 +299,15 @@ public class BDDEngine implements Cloneable, Serializable {
     }
 
     public int encodeIpWithoutBlacklist(int bddip, List<Integer> blackList){
-        int allBlack = 0;
         // lock
         // synchronized (bdd){
+        int[] black = new int[blackList.size()];
+        int i = 0;
         for(int blRule:blackList){
-            allBlack = bdd.orTo(allBlack, blRule);
+            black[i++] = blRule;
         }
-        int tmp = bdd.ref(bdd.not(allBlack));
-        int newHit = bdd.ref(bdd.and(bddip, tmp));
-        bdd.deref(tmp);
+        int allBlack = bdd.orAll(black);
+        int newHit = bdd.ref(bdd.andNot(bddip, allBlack));
 
         // 垃圾回收
         blackList = null;
@@ -203,23 +332,24 @@ public class BDDEngine implements Cloneable, Serializable {
             return;
         }
         BDD bdd = getBDD().bdd;
-        int var = bdd.getVar(p);
+        int var = bdd.topVar(p);
+        int pos = bdd.getVarAtLevel(level); // 变量重新排序后, 层次与变量不再相同
         if(var > level || p == 1 ) {
-            set_chars[level] = '-';
+            set_chars[pos] = '-';
             printSet_rec(p, level+1, sb);
             return;
         }
 
-        int low = bdd.getLow(p);
-        int high = bdd.getHigh(p);
+        int low = bdd.lowCofactor(p);
+        int high = bdd.highCofactor(p);
 
         if(low != 0) {
-            set_chars[level] = '0';
+            set_chars[pos] = '0';
             printSet_rec(low, level+1, sb);
         }
 
         if(high != 0) {
-            set_chars[level] = '1';
+            set_chars[pos] = '1';
             printSet_rec(high, level+1, sb);
         }
     }
@@ -257,27 +387,30 @@ public class BDDEngine implements Cloneable, Serializable {
         }
     }
 
+    // 前缀列表的并集, 由前缀树一次编译(见PrefixCompiler), 结果ref一次
     public int encodeDstIPPrefixList(List<IPPrefix> ipPrefixList){
-        int result = 0;
+        PrefixCompiler<Boolean> compiler = new PrefixCompiler<>(this, 32);
         for(IPPrefix ipPrefix: ipPrefixList){
-            result = bdd.orTo(result, encodeDstIPPrefix(ipPrefix.ip, ipPrefix.prefix));
+            compiler.insert(ipPrefix.ip, ipPrefix.prefix, IN_LIST);
         }
-        return result;
+        return compiler.compile(Boolean.TRUE);
     }
 
     public int encodeDstIPPrefixListIPV6(List<IPPrefixIPV6> ipPrefixList){
-        int result = 0;
+        PrefixCompiler<Boolean> compiler = new PrefixCompiler<>(this, ipBits);
         for(IPPrefixIPV6 ipPrefix: ipPrefixList){
             try {
-                result = bdd.orTo(result, encodeDstIPPrefixIpv6(ipPrefix.ip, ipPrefix.prefix));
+                compiler.insertIPV6(ipPrefix.ip, ipPrefix.prefix, IN_LIST);
             } catch (UnknownHostException e) {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
             }
         }
-        return result;
+        return compiler.compile(Boolean.TRUE);
     }
 
+    private static final List<Boolean> IN_LIST = Collections.singletonList(Boolean.TRUE);
+
     public int encodeDstIPPrefix(long ipaddr, int prefixlen) {
         int[] ipbin = Utility.CalBinRep(ipaddr, 32);
         int[] ipbinprefix = new int[prefixlen];
@@ -0,0 +1,110 @@
+package org.sngroup.verifier;
+
+import jdd.util.Settings;
+
+import java.util.Collection;
+
+/**
+ * BDD引擎的规模: 初始结点表大小, 缓存大小, 以及这个引擎自己的jdd参数.
+ * 源引擎和TopoNet的overlay引擎各用一个profile, 都由读入的规则数量和前缀长度分布估算,
+ * 避免固定大小的结点表在编码大量规则时反复扩容(每次扩容都会清空缓存).
+ */
+public class BDDProfile {
+    public static final int DEFAULT_NODES = 10000;   // 以前所有引擎的固定大小
+    public static final int DEFAULT_CACHE = 10000;
+    private static final int MAX_CACHE = 1 << 22;
+    private static final int BYTES_PER_NODE = 32;     // 结点, 哈希链, 引用计数和时间戳, 粗略值
+    private static final int NODES_PER_PREFIX_NODE = 3; // 每个前缀树结点大约对应match, hit和端口谓词中各一个结点
+
+    public final int nodes;          // 初始结点表大小
+    public final int cacheSize;      // 缓存大小, 各个运算缓存按jdd的比例分
+    public final Settings settings;  // 本引擎的jdd参数(扩容步长等)
+
+    public BDDProfile(int nodes, int cacheSize, Settings settings) {
+        this.nodes = nodes;
+        this.cacheSize = cacheSize;
+        this.settings = settings;
+    }
+
+    /**
+     * 固定的默认大小, 参数取jdd.util.Configuration中的全局值
+     */
+    public static BDDProfile defaults() {
+        return new BDDProfile(DEFAULT_NODES, DEFAULT_CACHE, new Settings());
+    }
+
+    /**
+     * 所有设备规则的前缀长度分布, 下标为前缀长度
+     */
+    public static long[] prefixLengthHistogram(Collection<Device> devices) {
+        long[] histogram = new long[BDDEngine.ipBits + 1];
+        for (Device device : devices) {
+            int[] h = device.prefixLengthHistogram();
+            for (int len = 0; len < h.length && len < histogram.length; len++) histogram[len] += h[len];
+        }
+        return histogram;
+    }
+
+    /**
+     * 估算这些前缀编码后的结点数: 长度为len的count个前缀在前log2(count)层上大多共享结点,
+     * 只有下面的部分是各自的
+     */
+    public static long estimatePrefixNodes(long[] histogram) {
+        long nodes = 0;
+        for (int len = 0; len < histogram.length; len++) {
+            long count = histogram[len];
+            if (count == 0) continue;
+            int shared = 63 - Long.numberOfLeadingZeros(count);
+            nodes += count * Math.max(1, len - shared);
+        }
+        return nodes;
+    }
+
+    /**
+     * 源引擎: 编码所有设备的规则, 结点数按全部前缀估算
+     */
+    public static BDDProfile forSource(long[] histogram) {
+        long estimate = estimatePrefixNodes(histogram) * NODES_PER_PREFIX_NODE + DEFAULT_NODES;
+        return sized(estimate);
+    }
+
+    /**
+     * TopoNet的overlay引擎: 只在源引擎的结点之上计算一个目的地址的结果, 按一个设备的平均规模估算
+     */
+    public static BDDProfile forTopoNet(long[] histogram, int deviceCount) {
+        long estimate = estimatePrefixNodes(histogram) * NODES_PER_PREFIX_NODE / Math.max(1, deviceCount);
+        return sized(estimate);
+    }
+
+    /** 不超过可用内存的四分之一, 缓存为结点数的一半 */
+    private static BDDProfile sized(long estimate) {
+        long limit = Runtime.getRuntime().maxMemory() / 4 / BYTES_PER_NODE;
+        int nodes = (int) Math.max(DEFAULT_NODES, Math.min(Math.min(estimate, limit), Integer.MAX_VALUE / 8));
+        int cacheSize = Math.max(DEFAULT_CACHE, Math.min(nodes / 2, MAX_CACHE));
+        return new BDDProfile(nodes, cacheSize, new Settings().expectNodes(nodes));
+    }
+
+    /**
+     * 同样的引擎, 但结点表最多maxNodes个结点(overlay只算本地部分), 到了预算由jdd的OverflowPolicy处理,
+     * 默认先紧急GC并清空缓存, 仍然不够就抛出NodeTableFullException. 初始大小不超过预算
+     * @param maxNodes 结点预算, 0为不限
+     */
+    public BDDProfile withNodeBudget(int maxNodes) {
+        Settings s = settings.copy();
+        s.nodetableMaxNodes = maxNodes;
+        return new BDDProfile(maxNodes > 0 ? Math.min(nodes, maxNodes) : nodes, cacheSize, s);
+    }
+
+    /**
+     * 不限结点数的引擎, 从原来的预算大小开始, 给超出预算的TopoNet单独使用
+     */
+    public BDDProfile unbounded() {
+        return new BDDProfile(Math.max(nodes, settings.nodetableMaxNodes), cacheSize, settings.copy()).withNodeBudget(0);
+    }
+
+    @Override
+    public String toString() {
+        String budget = settings.nodetableMaxNodes > 0 ? ", 最多" + settings.nodetableMaxNodes + "个结点" : "";
+        return nodes + "个结点/" + cacheSize + "个缓存项" + budget;
+    }
+}
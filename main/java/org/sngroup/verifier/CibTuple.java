@@ -28,10 +28,14 @@ public class CibTuple {
         this.causality = new Hashtable<>(cibTuple.causality);
     }
 
+    // 按 pre 拆分: 本元组保留 predicate ∧ pre, 返回的新元组为 predicate ∧ ¬pre (一次遍历).
+    // 原来的predicate只有本元组持有, 拆分后释放它, 计算中途的GC就能回收
     public CibTuple keepAndSplit(int pre, TSBDD bdd){
-        pre = bdd.ref(bdd.andTo(pre, this.predicate));
-        int notPre = bdd.ref(bdd.diff(this.predicate, pre));
-        this.predicate = pre;
+        int[] parts = bdd.split(this.predicate, pre);
+        int old = this.predicate;
+        this.predicate = bdd.ref(parts[0]);
+        int notPre = bdd.ref(parts[1]);
+        bdd.deref(old);
         return new CibTuple(this, notPre);
     }
 
@@ -5,6 +5,7 @@ import org.sngroup.util.*;
 import org.sngroup.util.CopyHelper.*;
 
 import java.util.*;
+import java.util.function.IntUnaryOperator;
 
 import org.apache.commons.lang3.SerializationUtils;
 
@@ -133,9 +134,18 @@ public class DVNet {
 
     public void copyBdd(BDDEngine srcBdd, String copyType) throws Exception {
         BDDEngine bddCopy = null;
-        if(Objects.equals(copyType, "Reflect")){
-            ReflectDeepCopy copyHelper = new ReflectDeepCopy();
-            bddCopy = (BDDEngine) copyHelper.deepCopy(srcBdd);
+        // Reflect以前用ReflectDeepCopy逐个元素反射复制整个引擎, 现在和Snapshot一样按块复制结点表
+        if(Objects.equals(copyType, "Snapshot") || Objects.equals(copyType, "Reflect")){
+            bddCopy = new BDDEngine(srcBdd, false); // 缓存不复制
+        }
+        else if(Objects.equals(copyType, "Overlay")){ // srcBdd must be frozen
+            bddCopy = new BDDEngine(srcBdd);
+        }
+        else if(Objects.equals(copyType, "Slice")){ // empty engine, predicates are copied by TopoNet.sliceBdd
+            bddCopy = BDDEngine.sliceOf(srcBdd, BDDProfile.defaults());
+        }
+        else if(Objects.equals(copyType, "Shared")){ // srcBdd is thread-safe, no copy needed
+            bddCopy = srcBdd;
         }
 //        else if(Objects.equals(copyType, "FST")){
 //            FSTDeepCopy copyHelper = new FSTDeepCopy();
@@ -162,6 +172,25 @@ public class DVNet {
 
     public void setPacketSpace(int s) {this.packetSpace = s;}
 
+    /**
+     * 结点表压缩后(见BDDEngine.compact)更新本网络保存的所有BDD结点编号,
+     * 包括静态的devicePacketSpace
+     * @param moved 旧编号到新编号的映射
+     */
+    public void remapPredicates(IntUnaryOperator moved) {
+        for (Map<Rule, Integer> hits : deviceRuleHit.values()) hits.replaceAll((rule, p) -> moved.applyAsInt(p));
+        for (Map<Rule, Integer> matches : deviceRuleMatch.values()) matches.replaceAll((rule, p) -> moved.applyAsInt(p));
+        for (Map<ForwardAction, Integer> ports : devicePortPredicate.values()) ports.replaceAll((port, p) -> moved.applyAsInt(p));
+        for (Map<Rule, List<Integer>> blacklists : deviceRuleBlacklist.values()) {
+            for (List<Integer> blacklist : blacklists.values()) blacklist.replaceAll(moved::applyAsInt);
+        }
+        for (HashSet<Lec> lecs : deviceLecs.values()) {
+            for (Lec lec : lecs) lec.predicate = moved.applyAsInt(lec.predicate);
+        }
+        devicePacketSpace.replaceAll((device, p) -> moved.applyAsInt(p));
+        packetSpace = moved.applyAsInt(packetSpace);
+    }
+
     public void setDstNode(Node node){
         this.dstNode = node;
     }
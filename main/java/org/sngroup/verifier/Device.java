@@ -32,6 +32,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
 import java.util.logging.Logger;
 
 public class Device {
@@ -274,21 +275,17 @@ public class Device {
     public void encodeRuleToLec(DVNet dvNet) {
         TSBDD bdd = dvNet.getBddEngine().getBDD();
         Map<ForwardAction, Integer> portPredicate = dvNet.devicePortPredicate.get(name);
-        // 按动作进行等价类的合并
+        // 按动作进行等价类的合并, 先收集每个端口的hit, 最后一次性合并
+        Map<ForwardAction, List<Integer>> portHits = new HashMap<>();
         for (Rule rule : rules) {
             Collection<String> tmpPorts = rule.forwardAction.ports;
             ForwardType tmpForwardType = rule.forwardAction.forwardType;
             for(String tmpPort : tmpPorts){
                 ForwardAction tmpForwardAction = new ForwardAction(tmpForwardType, tmpPort) ;
-            if (portPredicate.containsKey(tmpForwardAction)) {
-                int newPredicate = bdd.orTo(portPredicate.get(tmpForwardAction), dvNet.getDeviceRuleHit(name, rule));
-                portPredicate.put(tmpForwardAction, newPredicate);
-            } else {
-                portPredicate.put(tmpForwardAction, bdd.ref(dvNet.getDeviceRuleHit(name, rule)));
-                // portPredicate.put(rule.forwardAction, dvNet.getDeviceRuleHit(name, rule));
+                portHits.computeIfAbsent(tmpForwardAction, k -> new ArrayList<>()).add(dvNet.getDeviceRuleHit(name, rule));
             }
         }
-        }
+        mergePortHits(bdd, portPredicate, portHits);
         HashSet<Lec> tmpLecs = new HashSet<>();
         for (Map.Entry<ForwardAction, Integer> kv : portPredicate.entrySet()) {
             tmpLecs.add(new Lec(kv.getKey(), kv.getValue()));
@@ -306,6 +303,7 @@ public class Device {
         int allBdd = 0;
         int lastPrefixLen = 0;
         int ruleCnt = 0;
+        Map<ForwardAction, List<Integer>> portHits = new HashMap<>();
         for (Rule rule : rules) {
             ruleCnt++;
             // 1. BDD转化
@@ -315,25 +313,19 @@ public class Device {
             if (rule.prefixLen == lastPrefixLen) {
                 tmpHit = tmpMatch;
             } else {
-                int tmp = tsbdd.not(allBdd);
-                tmpHit = tsbdd.and(tmpMatch, tmp);
+                tmpHit = tsbdd.andNot(tmpMatch, allBdd);
             }
             allBdd = tsbdd.orTo(allBdd, tmpHit);
             // dvNet.putDeviceRuleHit(name, rule, tmpHit);
             lastPrefixLen = rule.prefixLen;
-            // 3. 合并为LEC
-            if (portPredicate.containsKey(rule.forwardAction)) {
-                // int newPredicate = tsbdd.orTo(portPredicate.get(rule.forwardAction),
-                // dvNet.getDeviceRuleHit(name, rule));
-                int newPredicate = tsbdd.orTo(portPredicate.get(rule.forwardAction), tmpHit);
-                // int newPredicate = tsbdd.orTo(tmpHit, tmpHit);
-                portPredicate.put(rule.forwardAction, newPredicate);
-            } else {
-                // portPredicate.put(rule.forwardAction, tsbdd.ref(dvNet.getDeviceRuleHit(name,
-                // rule)));
-                portPredicate.put(rule.forwardAction, tsbdd.ref(tmpHit));
-            }
+            // 3. 合并为LEC, 先收集(ref着, 之后的运算可能GC), 最后一次性合并
+            portHits.computeIfAbsent(rule.forwardAction, k -> new ArrayList<>()).add(tsbdd.ref(tmpHit));
+        }
+        mergePortHits(tsbdd, portPredicate, portHits);
+        for (List<Integer> hits : portHits.values()) {
+            for (int hit : hits) tsbdd.deref(hit);
         }
+        tsbdd.reorderIfNeeded(); // 端口谓词都已ref, 可以安全地重新排序
         HashSet<Lec> tmpLecs = new HashSet<>();
         for (Map.Entry<ForwardAction, Integer> kv : portPredicate.entrySet()) {
             tmpLecs.add(new Lec(kv.getKey(), kv.getValue()));
@@ -376,11 +368,8 @@ public class Device {
                 allBdd = tsbdd.ref(tmpMatch);
                 tsbdd.ref(tmpMatch);
             } else {
-                int tmp = tsbdd.ref(tsbdd.not(allBdd));
-                tmpHit = tsbdd.ref(tsbdd.and(tmpMatch, tmp));
+                tmpHit = tsbdd.ref(tsbdd.andNot(tmpMatch, allBdd));
                 allBdd = tsbdd.orTo(allBdd, tmpMatch);
-
-                tsbdd.deref(tmp);
             }
             dvNet.putDeviceRuleHit(name, rule, tmpHit);
         }
@@ -408,6 +397,7 @@ public class Device {
         TSBDD tsbdd = bdd.getBDD();
         boolean isFirst = false;
         int allBdd = 0;
+        Map<ForwardAction, List<Integer>> portHits = new HashMap<>();
         for (RuleIPV6 ruleIPV6 : rulesIPV6) {
             // 1. BDD转化
             int tmpMatch = bdd.encodeDstIPPrefixIpv6(ruleIPV6.ip, ruleIPV6.prefixLen);
@@ -434,18 +424,12 @@ public class Device {
             //     tsbdd.deref(tmp);
             // }
             
-            // 要把每一个 port 拆开
+            // 要把每一个 port 拆开, 先收集(tmpHit已ref), 最后一次性合并
             Collection<String> tmpPorts = ruleIPV6.forwardAction.ports;
             ForwardType tmpForwardType = ruleIPV6.forwardAction.forwardType;
             for(String tmpPort : tmpPorts){
                 ForwardAction tmpForwardAction = new ForwardAction(tmpForwardType, tmpPort) ;
-                if (portPredicate.containsKey(tmpForwardAction)) {
-                    int newPredicate = tsbdd.orTo(portPredicate.get(tmpForwardAction), tmpHit);
-                    portPredicate.put(tmpForwardAction, newPredicate);
-                } else {
-                    portPredicate.put(tmpForwardAction, tsbdd.ref(tmpHit));
-                    // portPredicate.put(rule.forwardAction, dvNet.getDeviceRuleHit(name, rule));
-                }
+                portHits.computeIfAbsent(tmpForwardAction, k -> new ArrayList<>()).add(tmpHit);
             }
         
             // 3. 合并为LEC
@@ -456,7 +440,9 @@ public class Device {
             //     portPredicate.put(ruleIPV6.forwardAction, tsbdd.ref(tmpHit));
             // }
         }
-        
+        mergePortHits(tsbdd, portPredicate, portHits);
+
+        tsbdd.reorderIfNeeded(); // 端口谓词都已ref, 可以安全地重新排序
         HashSet<Lec> tmpLecs = new HashSet<>();
         for (Map.Entry<ForwardAction, Integer> kv : portPredicate.entrySet()) {
             tmpLecs.add(new Lec(kv.getKey(), kv.getValue()));
@@ -464,6 +450,68 @@ public class Device {
         Device.globalLecs.put(name, tmpLecs);
     }
 
+    /**
+     * 用前缀树一次编译出本设备各端口的命中谓词(见PrefixCompiler), 代替逐条规则的encodeDstIPPrefix和andNot/orTo.
+     * 多端口的规则把命中的地址分给它的每个端口, 同一前缀以列表中的第一条规则为准, 结果与encodeRuleToLecFromScratch相同,
+     * 但不再保存每条规则的hit
+     */
+    public void encodeRuleToLecByTrie(DVNet dvNet) {
+        dvNet.putDeviceIfAbsent(name);
+        PrefixCompiler<ForwardAction> compiler = new PrefixCompiler<>(dvNet.getBddEngine(), 32);
+        for (Rule rule : rules) compiler.insert(rule.ip, rule.prefixLen, portActions(rule.forwardAction));
+        putPortPredicates(dvNet, compiler.compile());
+    }
+
+    public void encodeRuleToLecByTrieIPV6(DVNet dvNet) throws UnknownHostException {
+        dvNet.putDeviceIfAbsent(name);
+        PrefixCompiler<ForwardAction> compiler = new PrefixCompiler<>(dvNet.getBddEngine(), BDDEngine.ipBits);
+        for (RuleIPV6 rule : rulesIPV6) compiler.insertIPV6(rule.ip, rule.prefixLen, portActions(rule.forwardAction));
+        putPortPredicates(dvNet, compiler.compile());
+    }
+
+    // 每个端口一个动作, 同encodeRuleToLec
+    private static List<ForwardAction> portActions(ForwardAction forwardAction) {
+        List<ForwardAction> ret = new ArrayList<>();
+        for (String port : forwardAction.ports) ret.add(new ForwardAction(forwardAction.forwardType, port));
+        return ret;
+    }
+
+    // 编译出的命中谓词(各ref一次)合并进端口谓词, 生成本设备的LEC
+    private void putPortPredicates(DVNet dvNet, Map<ForwardAction, Integer> hits) {
+        TSBDD tsbdd = dvNet.getBddEngine().getBDD();
+        Map<ForwardAction, Integer> portPredicate = dvNet.devicePortPredicate.get(name);
+        Map<ForwardAction, List<Integer>> portHits = new HashMap<>();
+        for (Map.Entry<ForwardAction, Integer> kv : hits.entrySet()) {
+            portHits.put(kv.getKey(), Collections.singletonList(kv.getValue()));
+        }
+        mergePortHits(tsbdd, portPredicate, portHits);
+        for (int hit : hits.values()) tsbdd.deref(hit);
+        tsbdd.reorderIfNeeded(); // 端口谓词都已ref, 可以安全地重新排序
+        HashSet<Lec> tmpLecs = new HashSet<>();
+        for (Map.Entry<ForwardAction, Integer> kv : portPredicate.entrySet()) {
+            tmpLecs.add(new Lec(kv.getKey(), kv.getValue()));
+        }
+        Device.globalLecs.put(name, tmpLecs);
+    }
+
+    /**
+     * 把每个端口收集到的hit合并进端口谓词: 用平衡的orAll代替逐条orTo, 已有的谓词也作为一个操作数.
+     * 结果是ref的, 旧谓词被释放; hit的引用由调用者负责
+     */
+    private static void mergePortHits(TSBDD bdd, Map<ForwardAction, Integer> portPredicate,
+                                      Map<ForwardAction, List<Integer>> portHits) {
+        for (Map.Entry<ForwardAction, List<Integer>> kv : portHits.entrySet()) {
+            List<Integer> hits = kv.getValue();
+            Integer old = portPredicate.get(kv.getKey());
+            int[] operands = new int[hits.size() + (old == null ? 0 : 1)];
+            for (int i = 0; i < hits.size(); i++) operands[i] = hits.get(i);
+            if (old != null) operands[hits.size()] = old;
+            int predicate = bdd.ref(bdd.orAll(operands));
+            if (old != null) bdd.deref(old);
+            portPredicate.put(kv.getKey(), predicate);
+        }
+    }
+
     Comparator<Rule> prefixLenComparator = new Comparator<Rule>() {
         @Override
         public int compare(Rule r1, Rule r2) {
@@ -481,6 +529,27 @@ public class Device {
     public void close() {
     }
 
+    /**
+     * 结点表压缩后更新globalLecs中的谓词
+     * @param moved 旧编号到新编号的映射
+     */
+    public static void remapGlobalLecs(IntUnaryOperator moved) {
+        for (HashSet<Lec> lecs : globalLecs.values()) {
+            for (Lec lec : lecs) lec.predicate = moved.applyAsInt(lec.predicate);
+        }
+    }
+
+    /**
+     * 读入规则的前缀长度分布, 下标为前缀长度, 用于估算BDD引擎的规模
+     * @see BDDProfile
+     */
+    public int[] prefixLengthHistogram() {
+        int[] histogram = new int[BDDEngine.ipBits + 1];
+        for (Rule rule : rules) histogram[Math.min(rule.prefixLen, BDDEngine.ipBits)]++;
+        for (RuleIPV6 rule : rulesIPV6) histogram[Math.min(rule.prefixLen, BDDEngine.ipBits)]++;
+        return histogram;
+    }
+
     /**
      * 初始化
      */
@@ -131,10 +131,10 @@ public class Node {
             // System.out.println("节点 " + from + " 的当前 queue 大小: " + queue.size());
             
             for (Announcement announcement : announcements) {
-                int intersection = bdd.ref(bdd.and(announcement.predicate, cibTuple.predicate));
-                if (intersection != cibTuple.predicate) {
-                    // System.out.println("节点 " + from + " 的交集计算失败: 原始谓词 " + cibTuple.predicate + ", 新交集 " + intersection);
-                    CibTuple newCibTuple = cibTuple.keepAndSplit(intersection, bdd); // 拆分CIBTuple
+                // 子集判断不创建节点, 只有需要拆分时才计算交集
+                if (!bdd.isSubset(cibTuple.predicate, announcement.predicate)) {
+                    // System.out.println("节点 " + from + " 的交集计算失败: 原始谓词 " + cibTuple.predicate);
+                    CibTuple newCibTuple = cibTuple.keepAndSplit(announcement.predicate, bdd); // 拆分CIBTuple
                     addCib(newCibTuple);
                     if (!hasResult && todoList.contains(cibTuple))
                         todoList.add(newCibTuple);
@@ -181,7 +181,7 @@ public class Node {
         }
         // 如果是最终节点， 则直接设置结果为1
         if (isDestination) {
-            CibTuple _cibTuple = new CibTuple(getPacketSpace(), ForwardAction.getNullAction(), 0);
+            CibTuple _cibTuple = new CibTuple(bdd.ref(getPacketSpace()), ForwardAction.getNullAction(), 0); // 元组持有自己的predicate, 见keepAndSplit
             _cibTuple.count.set(1);
             addCib(_cibTuple);
             return;
@@ -190,7 +190,7 @@ public class Node {
         for (Lec lec : topoNet.getDeviceLecs(device.name)) {
             if (!isDestination && lec.forwardAction.ports.size() == 1) { // 只需记录具有端口的lec
                 // 只计算与下一跳有关的LEC
-                int intersection = bdd.and(lec.predicate, getPacketSpace());
+                int intersection = bdd.ref(bdd.and(lec.predicate, getPacketSpace())); // 由TopoNet的scope释放
                 if (intersection != 0) {
                     cnt += 1;
                     CibTuple cibTuple = new CibTuple(intersection, lec.forwardAction, 1);
@@ -215,7 +215,7 @@ public class Node {
                 pre = bdd.orTo(pre, cibTuple.predicate);
                 cibOut.put(cibTuple.count, pre);
             } else {
-                cibOut.put(cibTuple.count, cibTuple.predicate);
+                cibOut.put(cibTuple.count, bdd.ref(cibTuple.predicate)); // orTo会释放它
             }
         }
         return cibOut;
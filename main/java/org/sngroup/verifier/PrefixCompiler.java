@@ -0,0 +1,124 @@
+package org.sngroup.verifier;
+
+import jdd.bdd.BDD;
+import org.sngroup.util.Utility;
+
+import java.net.UnknownHostException;
+import java.util.*;
+
+/**
+ * 前缀树到BDD的编译器: 把一组目的地址前缀(各带一组动作)插入二叉前缀树, 再自底向上遍历一次,
+ * 用mk直接构造每个动作的命中谓词.
+ * 最长前缀匹配由树的结构决定: 一个前缀的动作覆盖它的子树中没有更长前缀的部分,
+ * 所以不需要encodeDstIPPrefix加上and/andNot/orTo这些中间运算, 每个树结点对每个出现在子树中的动作只做一次mk.
+ * 同一前缀插入多次时保留第一次的动作, 与按前缀长度稳定排序后逐条计算的结果相同.
+ * 变量顺序被重新排过时(目的地址的高位不在低位之上), 对应的结点改用ite构造, 结果不变
+ * @param <A> 动作的类型, 作为结果的键, 要实现equals和hashCode
+ */
+public class PrefixCompiler<A> {
+    private static final class PrefixNode<A> {
+        Collection<A> actions; // 恰好是这个前缀的规则的动作, 没有这样的规则时为null
+        PrefixNode<A> zero, one;
+    }
+
+    private final BDD bdd;
+    private final int width;            // 地址位数, 与BDDEngine编码时用的位数相同
+    private final PrefixNode<A> root = new PrefixNode<>();
+
+    /**
+     * @param engine 结果所在的引擎, 目的地址变量取BDDEngine的静态变量数组
+     * @param width 地址位数: IPV4为32(同encodeDstIPPrefix), IPV6为BDDEngine.ipBits
+     */
+    public PrefixCompiler(BDDEngine engine, int width) {
+        this.bdd = engine.getBDD().bdd;
+        this.width = width;
+    }
+
+    /**
+     * 插入一个前缀
+     * @param bits 地址的二进制表示, bits[j]为第j位(0为最低位), 同Utility.CalBinRep
+     * @param prefixLen 前缀长度, 取地址的高prefixLen位
+     * @param actions 这个前缀的动作, 同一前缀已有动作时忽略
+     */
+    public void insert(int[] bits, int prefixLen, Collection<A> actions) {
+        PrefixNode<A> t = root;
+        for (int depth = 0; depth < prefixLen; depth++) {
+            if (bits[width - 1 - depth] == 0) {
+                if (t.zero == null) t.zero = new PrefixNode<>();
+                t = t.zero;
+            } else {
+                if (t.one == null) t.one = new PrefixNode<>();
+                t = t.one;
+            }
+        }
+        if (t.actions == null) t.actions = actions;
+    }
+
+    public void insert(long ip, int prefixLen, Collection<A> actions) {
+        insert(Utility.CalBinRep(ip, width), prefixLen, actions);
+    }
+
+    public void insertIPV6(String ip, int prefixLen, Collection<A> actions) throws UnknownHostException {
+        insert(Utility.ipv6ToBinaryArray(ip, width), prefixLen, actions);
+    }
+
+    /**
+     * 编译所有插入的前缀
+     * @return 每个动作的命中谓词, 各引用一次, 不命中任何地址的动作不在其中
+     */
+    public Map<A, Integer> compile() {
+        return build(root, 0, Collections.emptyList());
+    }
+
+    /**
+     * 只要一个动作的命中谓词, 例如所有前缀都用同一个动作时得到它们的并集
+     * @return 引用一次的谓词, 没有命中时为BDDFalse
+     */
+    public int compile(A action) {
+        Map<A, Integer> all = compile();
+        Integer ret = all.remove(action);
+        for (int p : all.values()) bdd.deref(p);
+        return ret == null ? BDDEngine.BDDFalse : ret;
+    }
+
+    /**
+     * 子树t(第depth层, 上面的最长前缀的动作为inherited)中各动作的命中谓词, 各引用一次.
+     * 缺少的子树整个由当前生效的动作命中
+     */
+    private Map<A, Integer> build(PrefixNode<A> t, int depth, Collection<A> inherited) {
+        Collection<A> effective = t.actions != null ? t.actions : inherited;
+        if (depth == width) return leaf(effective);
+
+        Map<A, Integer> low = t.zero != null ? build(t.zero, depth + 1, effective) : leaf(effective);
+        Map<A, Integer> high = t.one != null ? build(t.one, depth + 1, effective) : leaf(effective);
+
+        Map<A, Integer> ret = new HashMap<>();
+        Set<A> actions = new HashSet<>(low.keySet());
+        actions.addAll(high.keySet());
+        for (A action : actions) {
+            int l = low.getOrDefault(action, BDDEngine.BDDFalse);
+            int h = high.getOrDefault(action, BDDEngine.BDDFalse);
+            ret.put(action, bdd.ref(make(depth, l, h)));
+        }
+        for (int p : low.values()) bdd.deref(p);
+        for (int p : high.values()) bdd.deref(p);
+        return ret;
+    }
+
+    private Map<A, Integer> leaf(Collection<A> actions) {
+        Map<A, Integer> ret = new HashMap<>();
+        for (A action : actions) ret.put(action, BDDEngine.BDDTrue);
+        return ret;
+    }
+
+    /**
+     * 第depth层(地址的第width-1-depth位)为0时是l, 为1时是h. 该变量在l和h的变量之上时直接mk,
+     * 否则(变量重新排过序)用ite
+     */
+    private int make(int depth, int l, int h) {
+        int var = BDDEngine.dstIP[width - 1 - depth];
+        int level = bdd.getVar(var);
+        if (level < bdd.topVar(l) && level < bdd.topVar(h)) return bdd.mk(level, l, h);
+        return bdd.ite(var, h, l);
+    }
+}
@@ -2,8 +2,11 @@ package org.sngroup.verifier;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jdd.bdd.BDD;
+import jdd.bdd.ConcurrentBDD;
+import jdd.bdd.NodeTable;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class TSBDD implements Cloneable, Serializable {
@@ -25,7 +28,8 @@ public class TSBDD implements Cloneable, Serializable {
         }catch(CloneNotSupportedException e) {
             e.printStackTrace();
         }
-        tsbdd.bdd = (BDD)this.bdd.clone();
+        tsbdd.bdd = this.bdd.snapshot(true);
+        tsbdd.scope = null; // scope属于原对象
         return tsbdd;
     }
 
@@ -43,7 +47,9 @@ public class TSBDD implements Cloneable, Serializable {
     public int andTo(int u1, int u2){
         cnt++;
 //        synchronized (bdd){
-            return bdd.andTo(u1, u2);
+            int tmp = ref(bdd.and(u1, u2));
+            deref(u1);
+            return tmp;
 //        }
     }
 
@@ -64,10 +70,23 @@ public class TSBDD implements Cloneable, Serializable {
     public int orTo(int u1, int u2){
         cnt++;
 //        synchronized (bdd){
-            return bdd.orTo(u1, u2);
+            int tmp = ref(bdd.or(u1, u2));
+            deref(u1);
+            return tmp;
 //        }
     }
 
+    // 平衡地合并多个操作数, 结果没有ref
+    public int orAll(int[] bdds){
+        cnt++;
+        return bdd.orAll(bdds);
+    }
+
+    public int andAll(int[] bdds){
+        cnt++;
+        return bdd.andAll(bdds);
+    }
+
     public int not(int u1){
         cnt++;
 //        synchronized (bdd){
@@ -75,28 +94,155 @@ public class TSBDD implements Cloneable, Serializable {
 //        }
     }
     public int diff(int u1, int u2){
-        int ret;
 //        synchronized (bdd) {
-            int tmp = bdd.ref(bdd.not(u2));
-            ret = bdd.ref(bdd.and(u1, tmp));
-            bdd.deref(tmp);
+            return ref(bdd.andNot(u1, u2));
+//        }
+    }
+
+    // u1 ∧ ¬u2, 不会先构造 ¬u2
+    public int andNot(int u1, int u2){
+        cnt++;
+//        synchronized (bdd){
+            return bdd.andNot(u1, u2);
+//        }
+    }
+
+    // u1 ⊆ u2, 不创建节点
+    public boolean isSubset(int u1, int u2){
+        cnt++;
+//        synchronized (bdd){
+            return bdd.isSubset(u1, u2);
+//        }
+    }
+
+    // u1 ∩ u2 = ∅, 不创建节点
+    public boolean isDisjoint(int u1, int u2){
+        cnt++;
+//        synchronized (bdd){
+            return bdd.isDisjoint(u1, u2);
+//        }
+    }
+
+    // 一次遍历得到 {u1 ∧ u2, u1 ∧ ¬u2}, 结果未ref
+    public int[] split(int u1, int u2){
+        cnt++;
+//        synchronized (bdd){
+            return bdd.split(u1, u2, null);
 //        }
-        return ret;
     }
 
+    // 在scope中ref的结点由scope记录, scope关闭时释放
     public int ref(int u1){
 //        synchronized (bdd){
+            Scope s = scope;
+            if (s != null) s.add(u1);
             return bdd.ref(u1);
 //        }
     }
 
+    // 释放scope中ref的结点时, scope关闭时就不再释放它
     public int deref(int u1){
 //        synchronized (bdd) {
+            Scope s = scope;
+            if (s != null) s.cancel(u1);
             return bdd.deref(u1);
 //            return 0;
 //        }
     }
 
+    // ---------------------------------------------------------
+    // scope: 一段计算中ref的结点在结束时统一释放
+
+    // 本对象最内层的记录中的scope, 没有时为null. 记录的scope只在非共享引擎上打开, 这样的引擎同一时间只有一个线程在用
+    private transient Scope scope;
+
+    /**
+     * 打开一个scope: 在关闭它之前, 通过本对象ref的结点(包括andTo, orTo和diff的结果)都由它记录,
+     * 关闭时各deref一次, 这些结点在引擎中就不再是存活的, GC可以回收它们. 用法:
+     * <pre>
+     * try (TSBDD.Scope scope = bdd.openScope()) {
+     *     ...
+     * }
+     * </pre>
+     * mark过的引擎也记录: 计算中途GC就能回收已经释放的结点, 用完后的rollback照样回到mark时的状态.
+     * 共享引擎(ConcurrentBDD的GC从不释放结点)上scope什么也不记录. scope可以嵌套, 必须按相反的顺序关闭
+     */
+    public Scope openScope(){
+        boolean record = !(bdd instanceof ConcurrentBDD);
+        Scope s = new Scope(this, record ? scope : null, record);
+        if (record) scope = s;
+        return s;
+    }
+
+    public static final class Scope implements AutoCloseable {
+        private final TSBDD owner;
+        private final Scope parent;
+        private final boolean record;
+        // ref和deref的顺序记录: 结点在高32位, 低32位是(序号 << 1 | 是否deref). 满了时先合并
+        private long[] log = new long[64];
+        private int count;
+        private boolean closed = false;
+
+        private Scope(TSBDD owner, Scope parent, boolean record) {
+            this.owner = owner;
+            this.parent = parent;
+            this.record = record;
+        }
+
+        private void add(int u) {
+            if (u < 0 || u > 1) append(u, 0); // 常量不需要释放(负数是带补边的结点)
+        }
+
+        private void cancel(int u) {
+            if (u < 0 || u > 1) append(u, 1);
+        }
+
+        private void append(int u, int deref) {
+            if (count == log.length) {
+                merge();
+                if (count > log.length / 2) log = Arrays.copyOf(log, log.length * 2);
+            }
+            log[count] = ((long) u << 32) | ((long) count << 1) | deref;
+            count++;
+        }
+
+        /**
+         * 用deref抵消它之前的ref: 按结点和序号排序后逐个结点计数, 之后记录中只剩下还持有的ref.
+         * 没有对应ref的deref(结点在scope之外ref的)被丢掉
+         */
+        private void merge() {
+            Arrays.sort(log, 0, count);
+            int n = 0;
+            for (int i = 0; i < count; ) {
+                int u = (int) (log[i] >> 32), held = 0;
+                for (; i < count && (int) (log[i] >> 32) == u; i++) {
+                    if ((log[i] & 1) == 0) held++;
+                    else if (held > 0) held--;
+                }
+                for (; held > 0; held--, n++) log[n] = ((long) u << 32) | ((long) n << 1);
+            }
+            count = n;
+        }
+
+        /** 本scope中还持有的引用数 */
+        public int size() {
+            merge();
+            return count;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            if (!record) return;
+            assert owner.scope == this : "scopes must be closed in reverse order";
+            owner.scope = parent;
+            merge();
+            for (int i = 0; i < count; i++) owner.bdd.deref((int) (log[i] >> 32));
+            count = 0;
+        }
+    }
+
     public int createVar(){
 //        synchronized (bdd){
             return bdd.createVar();
@@ -105,7 +251,7 @@ public class TSBDD implements Cloneable, Serializable {
 
     public boolean isValid(int u){
 //        synchronized (bdd) {
-            return bdd.isValid(u);
+            return bdd.isValid(u & NodeTable.EDGE_REGULAR);
 //        }
     }
 
@@ -123,13 +269,13 @@ public class TSBDD implements Cloneable, Serializable {
 
     public int getLow(int u){
 //        synchronized (bdd) {
-            return bdd.getLow(u);
+            return bdd.lowCofactor(u);
 //        }
     }
 
     public int getHigh(int u){
 //        synchronized (bdd) {
-            return bdd.getHigh(u);
+            return bdd.highCofactor(u);
 //        }
     }
 
@@ -157,6 +303,13 @@ public class TSBDD implements Cloneable, Serializable {
 //        }
     }
 
+    // 节点表翻倍后重新排序变量 (需开启自动排序), 只能在操作之间调用, 未ref的BDD会丢失
+    public boolean reorderIfNeeded(){
+//        synchronized (bdd) {
+            return bdd.reorderIfNeeded();
+//        }
+    }
+
     public void print(int u){
 //        synchronized (bdd) {
             bdd.printSet(u);
@@ -34,7 +34,21 @@ public class TopoNet extends DVNet {
         this.invariant = new Invariant(packetSpace, match, path);
     }
 
+    // 本TopoNet计算中ref的结点, 在nodeCalIndegree中打开, startCount结束时关闭
+    private TSBDD.Scope scope;
+
+    /**
+     * 计算失败时关闭本TopoNet的scope(见nodeCalIndegree), 必须在同一个线程中调用
+     */
+    public void closeScope() {
+        if (scope != null) {
+            scope.close();
+            scope = null;
+        }
+    }
+
     public void nodeCalIndegree() {
+        if (scope == null) scope = bddEngine.getBDD().openScope();
         for (Node node : nodesTable.values()) {
             node.topoNetStart();
         }
@@ -75,10 +89,17 @@ public class TopoNet extends DVNet {
         return this.nodesTable.get(deviceName);
     }
 
+    // 每个工作线程上次使用的引擎, 下一个TopoNet优先用它, 它的缓存还是热的
+    private static final ThreadLocal<BDDEngine> threadEngine = new ThreadLocal<>();
+
     public Boolean getAndSetBddEngine(LinkedBlockingDeque<BDDEngine> sharedQue) {
         boolean reused = false;
         synchronized (sharedQue) {
-            if (sharedQue.size() != 0) {
+            BDDEngine own = threadEngine.get();
+            if (own != null && sharedQue.remove(own)) {
+                this.bddEngine = own;
+                reused = true;
+            } else if (sharedQue.size() != 0) {
                 try {
                     this.bddEngine = sharedQue.take();
                 } catch (InterruptedException e) {
@@ -96,24 +117,84 @@ public class TopoNet extends DVNet {
         }
     }
 
+    /**
+     * 切片: 本TopoNet的引擎(由BDDEngine.sliceOf创建)只保存各设备的lec.predicate ∧ packetSpace,
+     * 交集为空的LEC直接丢掉. 交集不在srcBdd中计算, 各LEC共享的结点只复制一次
+     * @param srcBdd 冻结的源引擎, srcLecs和packetSpace中的谓词都属于它
+     */
+    public void sliceBdd(BDDEngine srcBdd, Map<String, HashSet<Lec>> srcLecs, int packetSpace) {
+        List<Lec> all = new ArrayList<>();
+        for (HashSet<Lec> lecs : srcLecs.values()) all.addAll(lecs);
+        int[] predicates = new int[all.size()];
+        for (int i = 0; i < predicates.length; i++) predicates[i] = all.get(i).predicate;
+        int[] sliced = bddEngine.slice(predicates, packetSpace);
+
+        Map<Lec, Lec> slicedLec = new HashMap<>();
+        for (int i = 0; i < sliced.length; i++) {
+            if (sliced[i] != BDDEngine.BDDFalse) slicedLec.put(all.get(i), new Lec(all.get(i).forwardAction, sliced[i]));
+        }
+        deviceLecs = new HashMap<>();
+        for (Map.Entry<String, HashSet<Lec>> entry : srcLecs.entrySet()) {
+            HashSet<Lec> lecs = new HashSet<>();
+            for (Lec lec : entry.getValue()) {
+                Lec s = slicedLec.get(lec);
+                if (s != null) lecs.add(s);
+            }
+            deviceLecs.put(entry.getKey(), lecs);
+        }
+        setPacketSpace(bddEngine.slice(packetSpace));
+    }
+
     public void startCount(LinkedBlockingDeque<BDDEngine> sharedQue) {
-        Context c = new Context();
-        c.topoId = this.topoCnt;
-        // dfs or bfs
-        // this.getDstNode().startCountByDfs(c);
-        this.getDstNode().bfsByIteration(c);
-        for (Node node : srcNodes) {
-            node.showResult();
+        startCount(sharedQue, true);
+    }
+
+    /**
+     * @param pooled 引擎是否来自sharedQue. 单独的引擎(超出结点预算时重试用)算完后丢弃, 不放回池中
+     */
+    public void startCount(LinkedBlockingDeque<BDDEngine> sharedQue, boolean pooled) {
+        if (scope == null) scope = bddEngine.getBDD().openScope();
+        try {
+            Context c = new Context();
+            c.topoId = this.topoCnt;
+            // dfs or bfs
+            // this.getDstNode().startCountByDfs(c);
+            this.getDstNode().bfsByIteration(c);
+            for (Node node : srcNodes) {
+                node.showResult();
+            }
+        } finally {
+            // 释放本TopoNet计算中ref的结点, 在rollback(或丢弃引擎)之前. 计算中途的GC已经回收了被deref的结点
+            scope.close();
+            scope = null;
         }
+        if (pooled) releaseEngine(sharedQue);
+        else dropEngine();
+    }
+
+    /**
+     * 引擎回到创建时的状态(本TopoNet创建的结点都不再需要), 放回池中, 本线程的下一个TopoNet优先用它
+     */
+    private void releaseEngine(LinkedBlockingDeque<BDDEngine> sharedQue) {
+        BDDEngine engine = this.getBddEngine();
+        engine.rollback();
+        threadEngine.set(engine);
         synchronized (sharedQue) {
             try {
-                sharedQue.put(this.getBddEngine());
+                sharedQue.put(engine);
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
         }
     }
 
+    /**
+     * 本TopoNet的引擎不回到池中(计算失败, 或是单独的引擎), 本线程也不再记着它, 必须在同一个线程中调用
+     */
+    public void dropEngine() {
+        if (threadEngine.get() == bddEngine) threadEngine.remove();
+    }
+
     public void init() {
         srcNodes = new HashSet<>();
         this.nodesTable = new HashMap<>();